@@ -35,9 +35,10 @@ public class Log4jInitializer {
             data.setImmediateFlush(false);
             
             String[] logNames = { "AutoControl", "GpsSignal",
-            "ThrottleControl", "ThrottleGpsControl", "AileronControl",
-            "AileronGpsControl", "RudderControl", "ElevatorControl",
-            "ElevatorGpsControl", "Signal" };
+            "ThrottleControl", "AileronControl", "AileronRateControl",
+            "AileronGpsControl", "RudderControl", "RudderRateControl",
+            "ElevatorControl", "ElevatorRateControl", "ElevatorGpsControl",
+            "Autotune", "Signal" };
             
             for (String name : logNames) {
                 Logger logger = Logger.getLogger(name);
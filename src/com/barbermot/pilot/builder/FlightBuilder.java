@@ -12,6 +12,15 @@ import static com.barbermot.pilot.flight.FlightConfiguration.PinType.THROTTLE_IN
 import static com.barbermot.pilot.flight.FlightConfiguration.PinType.THROTTLE_MONITOR;
 import static com.barbermot.pilot.flight.FlightConfiguration.PinType.THROTTLE_OUT;
 import static com.barbermot.pilot.flight.FlightConfiguration.PinType.ULTRA_SOUND;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.BAROMETER;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_HEIGHT;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_LAT;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_LON;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.PITCH;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.ROLL;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.ULTRASOUND;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.YAW;
+import static com.barbermot.pilot.flight.state.FlightState.Type.AUTOTUNE;
 import static com.barbermot.pilot.flight.state.FlightState.Type.CALIBRATION;
 import static com.barbermot.pilot.flight.state.FlightState.Type.EMERGENCY_LANDING;
 import static com.barbermot.pilot.flight.state.FlightState.Type.FAILED;
@@ -25,12 +34,17 @@ import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_TRACK;
 import ioio.lib.api.IOIO;
 import ioio.lib.api.exception.ConnectionLostException;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
@@ -41,14 +55,25 @@ import org.apache.log4j.Logger;
 import android.hardware.SensorManager;
 import android.location.LocationManager;
 
+import com.barbermot.pilot.builder.StartupGraph.Step;
 import com.barbermot.pilot.flight.AileronControlListener;
+import com.barbermot.pilot.flight.ControlLoop;
 import com.barbermot.pilot.flight.ElevatorControlListener;
+import com.barbermot.pilot.flight.FailsafeWatchdog;
+import com.barbermot.pilot.flight.FailsafeWatchdog.Heartbeat;
+import com.barbermot.pilot.flight.FailsafeWatchdog.Source;
+import com.barbermot.pilot.flight.ConfigurationException;
 import com.barbermot.pilot.flight.FlightComputer;
 import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.flight.FlightConfiguration.ConnectionType;
 import com.barbermot.pilot.flight.FlightControlListener;
+import com.barbermot.pilot.flight.HealthMonitor;
+import com.barbermot.pilot.flight.HealthMonitor.Channel;
 import com.barbermot.pilot.flight.RudderControlListener;
+import com.barbermot.pilot.flight.SamplingPolicy;
 import com.barbermot.pilot.flight.ThrottleControlListener;
+import com.barbermot.pilot.flight.state.AutotuneState;
+import com.barbermot.pilot.flight.state.AutotuneState.Axis;
 import com.barbermot.pilot.flight.state.CalibrationState;
 import com.barbermot.pilot.flight.state.EmergencyLandingState;
 import com.barbermot.pilot.flight.state.FailedState;
@@ -58,16 +83,24 @@ import com.barbermot.pilot.flight.state.HoverState;
 import com.barbermot.pilot.flight.state.LandingState;
 import com.barbermot.pilot.flight.state.ManualControlState;
 import com.barbermot.pilot.flight.state.StabilizedHoverState;
+import com.barbermot.pilot.flight.state.TransitionTable;
 import com.barbermot.pilot.flight.state.WaypointHoldState;
 import com.barbermot.pilot.flight.state.WaypointTrackState;
+import com.barbermot.pilot.geofence.Geofence;
+import com.barbermot.pilot.geofence.GeofenceLoader;
+import com.barbermot.pilot.geofence.GeofenceMonitor;
 import com.barbermot.pilot.io.Connection;
 import com.barbermot.pilot.io.SocketConnection;
 import com.barbermot.pilot.io.UartConnection;
 import com.barbermot.pilot.logger.FlightLogger;
+import com.barbermot.pilot.logger.TraceWriter;
 import com.barbermot.pilot.parser.SerialController;
 import com.barbermot.pilot.pid.AutoControl;
+import com.barbermot.pilot.pid.CascadedAutoControl;
 import com.barbermot.pilot.pid.GpsAutoControl;
+import com.barbermot.pilot.pid.MultiAxisControl;
 import com.barbermot.pilot.pid.RadianAutoControl;
+import com.barbermot.pilot.pid.RelayAutotuner;
 import com.barbermot.pilot.quad.QuadCopter;
 import com.barbermot.pilot.quad.QuadCopterImpl;
 import com.barbermot.pilot.rc.ExternalRemote;
@@ -75,10 +108,16 @@ import com.barbermot.pilot.rc.NetworkRemote;
 import com.barbermot.pilot.rc.NetworkRemoteServer;
 import com.barbermot.pilot.rc.RemoteControl;
 import com.barbermot.pilot.rc.SwitchedQuadCopter;
+import com.barbermot.pilot.signal.AltitudeEstimator;
 import com.barbermot.pilot.signal.Signal;
+import com.barbermot.pilot.signal.SignalDispatcher;
+import com.barbermot.pilot.signal.SignalHealth;
 import com.barbermot.pilot.signal.SignalListener;
 import com.barbermot.pilot.signal.SignalManager;
 import com.barbermot.pilot.signal.SignalManagerFactory;
+import com.barbermot.pilot.signal.filter.MedianFilter;
+import com.barbermot.pilot.signal.filter.OutlierGate;
+import com.barbermot.pilot.signal.filter.SignalFilter;
 
 /**
  * FlightBuilder wires up the system. It builds the flight computer instance and
@@ -111,16 +150,22 @@ public class FlightBuilder {
     private IOIO                                      ioio;
     private Connection                                connection;
     
+    private MultiAxisControl                          pid;
+    
     private AutoControl                               autoThrottle;
-    private AutoControl                               autoAileron;
-    private AutoControl                               autoElevator;
     private AutoControl                               autoRudder;
     
-    private AutoControl                               autoGpsThrottle;
+    private CascadedAutoControl                       cascadedAileron;
+    private CascadedAutoControl                       cascadedElevator;
+    private CascadedAutoControl                       cascadedRudder;
+    
     private AutoControl                               autoGpsAileron;
     private AutoControl                               autoGpsElevator;
     
+    private EnumMap<Axis, RelayAutotuner>             tuners;
+    
     private EnumMap<FlightState.Type, FlightState<?>> stateMap;
+    private TransitionTable                           transitions;
     private List<Future<?>>                           futures;
     
     private NetworkRemoteServer                       networkRemoteServer;
@@ -131,7 +176,8 @@ public class FlightBuilder {
     
     /**
      * getComputer builds the FlightComputer. It hooks up the controls to the
-     * respective signals and starts processing.
+     * respective signals and starts processing. Independent steps are built
+     * concurrently, the time of each step is logged once all are done.
      * 
      * @param ioio
      *            A valid connection to the IOIO board.
@@ -145,35 +191,40 @@ public class FlightBuilder {
             LocationManager locationManager) throws BuildException,
             InterruptedException {
         try {
-            futures = new LinkedList<Future<?>>();
+            futures = Collections
+                    .synchronizedList(new LinkedList<Future<?>>());
             this.sensorManager = sensorManager;
             this.locationManager = locationManager;
+            
+            buildConfiguration();
+            
             this.computer = new FlightComputer();
-            this.config = FlightConfiguration.get();
+            this.config = computer.getConfig();
             this.map = config.getPinMap();
             this.stateMap = new EnumMap<FlightState.Type, FlightState<?>>(
                     FlightState.Type.class);
             this.ioio = ioio;
             
             buildScheduler();
-            buildConnection();
-            buildQuadCopter();
-            buildSwitchedQuadCopters();
-            buildRemoteControl();
-            buildNetworkRemoteServer();
-            buildControls();
-            buildFlightStates();
-            buildTransitions();
-            buildSignalArray();
-            buildLogger();
-            buildSerialController();
-            
-            futures.add(scheduler.scheduleWithFixedDelay(computer, 0,
-                    config.getMinTimeFlightComputer(), TimeUnit.MILLISECONDS));
-        } catch (ConnectionLostException e) {
-            throw new BuildException(e);
         } catch (IOException e) {
             throw new BuildException(e);
+        } catch (ConfigurationException e) {
+            throw new BuildException(e);
+        }
+        
+        StartupGraph graph = buildGraph();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            graph.run(executor);
+        } catch (BuildException e) {
+            computer.shutdown();
+            throw e;
+        } catch (InterruptedException e) {
+            computer.shutdown();
+            throw e;
+        } finally {
+            executor.shutdown();
+            logger.info("Startup:\n" + graph);
         }
         return computer;
     }
@@ -193,6 +244,108 @@ public class FlightBuilder {
         return signalManager;
     }
     
+    /*
+     * The steps and what they need. The connection blocks until the ground
+     * station is up, only the logger and the serial controller wait for it;
+     * the state machine, the sensors and the control loop start without it.
+     * The signal manager is not thread safe, the steps using it are chained.
+     */
+    private StartupGraph buildGraph() {
+        StartupGraph graph = new StartupGraph();
+        
+        graph.add("connection", new Step() {
+            
+            public void build() throws Exception {
+                buildConnection();
+            }
+        });
+        graph.add("signal manager", new Step() {
+            
+            public void build() throws Exception {
+                buildSignalManager();
+            }
+        });
+        graph.add("quadcopter", new Step() {
+            
+            public void build() throws Exception {
+                buildQuadCopter();
+                buildSwitchedQuadCopters();
+            }
+        });
+        graph.add("controls", new Step() {
+            
+            public void build() throws Exception {
+                buildControls();
+            }
+        });
+        graph.add("remote control", new Step() {
+            
+            public void build() throws Exception {
+                buildRemoteControl();
+            }
+        }, "quadcopter", "signal manager");
+        graph.add("network remote", new Step() {
+            
+            public void build() throws Exception {
+                buildNetworkRemoteServer();
+            }
+        }, "quadcopter");
+        graph.add("state machine", new Step() {
+            
+            public void build() throws Exception {
+                buildFlightStates();
+                buildTransitions();
+            }
+        }, "controls", "remote control");
+        graph.add("signal array", new Step() {
+            
+            public void build() throws Exception {
+                buildSignalArray();
+            }
+        }, "state machine");
+        graph.add("trace writer", new Step() {
+            
+            public void build() throws Exception {
+                buildTraceWriter();
+            }
+        }, "controls");
+        graph.add("control loop", new Step() {
+            
+            public void build() throws Exception {
+                buildControlLoop();
+                buildWatchdog();
+            }
+        }, "signal array");
+        graph.add("logger", new Step() {
+            
+            public void build() throws Exception {
+                buildLogger();
+            }
+        }, "connection", "control loop");
+        graph.add("serial controller", new Step() {
+            
+            public void build() throws Exception {
+                buildSerialController();
+            }
+        }, "connection", "control loop");
+        
+        return graph;
+    }
+    
+    /*
+     * Applies the overrides of the configuration file, if there is one. An
+     * invalid file stops the build rather than flying with half of it.
+     */
+    private void buildConfiguration() throws IOException,
+            ConfigurationException {
+        logger.info("Setting up configuration");
+        
+        if (new File(FlightConfiguration.FILE).exists()) {
+            FlightConfiguration.load(FlightConfiguration.FILE);
+        }
+        logger.info("Configuration " + FlightConfiguration.get());
+    }
+    
     private void buildScheduler() {
         logger.info("Setting up scheduler");
         
@@ -202,7 +355,7 @@ public class FlightBuilder {
     
     private void buildConnection() throws IOException, ConnectionLostException,
             InterruptedException {
-        if (FlightConfiguration.get().getConnectionType() == ConnectionType.TCP) {
+        if (config.getConnectionType() == ConnectionType.TCP) {
             connection = new SocketConnection();
         } else {
             connection = new UartConnection(ioio);
@@ -217,11 +370,32 @@ public class FlightBuilder {
         
         FlightLogger logger = new FlightLogger(connection);
         logger.setComputer(computer);
-        logger.setQuadCopter(ufo);
         futures.add(scheduler.scheduleWithFixedDelay(logger, 0,
                 config.getMinTimeStatusMessage(), TimeUnit.MILLISECONDS));
     }
     
+    private void buildTraceWriter() {
+        logger.info("Setting up trace writer");
+        
+        try {
+            TraceWriter writer = new TraceWriter(Signal.getTrace(),
+                    config.getSignalTraceFile());
+            futures.add(scheduler.scheduleWithFixedDelay(writer, 0,
+                    config.getMinTimeTraceFlush(), TimeUnit.MILLISECONDS));
+        } catch (IOException e) {
+            logger.warn("Signal trace disabled.", e);
+        }
+        
+        try {
+            TraceWriter writer = new TraceWriter(pid.getTrace(),
+                    config.getPidTraceFile());
+            futures.add(scheduler.scheduleWithFixedDelay(writer, 0,
+                    config.getMinTimeTraceFlush(), TimeUnit.MILLISECONDS));
+        } catch (IOException e) {
+            logger.warn("Pid trace disabled.", e);
+        }
+    }
+    
     private void buildSerialController() throws ConnectionLostException,
             IOException {
         logger.info("Setting up serial controller");
@@ -231,45 +405,144 @@ public class FlightBuilder {
         futures.add(scheduler.submit(controller));
     }
     
+    private void buildControlLoop() {
+        logger.info("Setting up control loop");
+        
+        ControlLoop loop = new ControlLoop(computer,
+                config.getControlFrequency());
+        computer.setControlLoop(loop);
+        futures.add(loop.start());
+    }
+    
+    private void buildWatchdog() {
+        logger.info("Setting up watchdog");
+        
+        FailsafeWatchdog watchdog = new FailsafeWatchdog(computer,
+                config.getWatchdogPeriod());
+        
+        // all states the computer flies in
+        EnumSet<FlightState.Type> flying = EnumSet.of(HOVER, STABILIZED_HOVER,
+                WAYPOINT_HOLD, WAYPOINT_TRACK, LANDING, CALIBRATION, AUTOTUNE);
+        
+        final HealthMonitor health = computer.getHealth();
+        watchdog.watch(Source.HEIGHT, new Heartbeat() {
+            
+            public long getLastBeat() {
+                return lastTime(health, ULTRASOUND);
+            }
+        }, config.getWatchdogHeightDeadline(), EnumSet.of(HOVER,
+                STABILIZED_HOVER, LANDING, CALIBRATION, AUTOTUNE));
+        
+        watchdog.watch(Source.ORIENTATION, new Heartbeat() {
+            
+            public long getLastBeat() {
+                return Math.min(lastTime(health, ROLL), Math.min(
+                        lastTime(health, PITCH), lastTime(health, YAW)));
+            }
+        }, config.getWatchdogOrientationDeadline(), EnumSet.of(
+                STABILIZED_HOVER, WAYPOINT_HOLD, WAYPOINT_TRACK));
+        
+        final ControlLoop loop = computer.getControlLoop();
+        watchdog.watch(Source.TICK, new Heartbeat() {
+            
+            public long getLastBeat() {
+                return loop.getLastTick();
+            }
+        }, config.getWatchdogTickDeadline(), flying);
+        
+        final RemoteControl rc = computer.getRc();
+        watchdog.watch(Source.RC, new Heartbeat() {
+            
+            public long getLastBeat() {
+                return rc.getLastContact();
+            }
+        }, config.getWatchdogRcDeadline(), flying);
+        
+        computer.setWatchdog(watchdog);
+        futures.add(watchdog.start());
+    }
+    
+    private static long lastTime(HealthMonitor health, Channel channel) {
+        SignalHealth signal = health.get(channel);
+        return signal == null ? 0 : signal.getLastTime();
+    }
+    
     private void buildControls() {
         logger.info("Setting up controls");
         
+        pid = new MultiAxisControl();
+        pid.setLatency(computer.getLatency());
+        
+        tuners = new EnumMap<Axis, RelayAutotuner>(Axis.class);
+        
         FlightControlListener listener;
         
         listener = new ThrottleControlListener();
         listener.setComputer(computer);
-        autoThrottle = new AutoControl(listener,
+        autoThrottle = new AutoControl(pid, listener,
                 Logger.getLogger("ThrottleControl"));
-        autoGpsThrottle = new AutoControl(listener,
-                Logger.getLogger("ThrottleGpsControl"));
+        tuner(Axis.THROTTLE, listener, MultiAxisControl.LINEAR,
+                config.getAutotuneThrottleRelay());
         
         listener = new AileronControlListener();
         listener.setComputer(computer);
-        autoAileron = new RadianAutoControl(listener,
-                Logger.getLogger("AileronControl"));
-        autoGpsAileron = new GpsAutoControl(listener,
+        cascadedAileron = new CascadedAutoControl(pid, listener,
+                Logger.getLogger("AileronControl"),
+                Logger.getLogger("AileronRateControl"));
+        autoGpsAileron = new GpsAutoControl(pid, listener,
                 Logger.getLogger("AileronGpsControl"));
+        tuner(Axis.ROLL, listener, MultiAxisControl.RADIAN,
+                config.getAutotuneOrientationRelay());
         
         listener = new RudderControlListener();
         listener.setComputer(computer);
-        autoRudder = new RadianAutoControl(listener,
+        autoRudder = new RadianAutoControl(pid, listener,
                 Logger.getLogger("RudderControl"));
+        cascadedRudder = new CascadedAutoControl(pid, listener,
+                Logger.getLogger("RudderControl"),
+                Logger.getLogger("RudderRateControl"));
+        tuner(Axis.YAW, listener, MultiAxisControl.RADIAN,
+                config.getAutotuneOrientationRelay());
         
         listener = new ElevatorControlListener();
         listener.setComputer(computer);
-        autoElevator = new RadianAutoControl(listener,
-                Logger.getLogger("ElevatorControl"));
-        autoGpsElevator = new GpsAutoControl(listener,
+        cascadedElevator = new CascadedAutoControl(pid, listener,
+                Logger.getLogger("ElevatorControl"),
+                Logger.getLogger("ElevatorRateControl"));
+        autoGpsElevator = new GpsAutoControl(pid, listener,
                 Logger.getLogger("ElevatorGpsControl"));
+        tuner(Axis.PITCH, listener, MultiAxisControl.RADIAN,
+                config.getAutotuneOrientationRelay());
+        
+        // the rate loops run every tick, the angle loops slower
+        cascadedAileron.setDivider(config.getAngleLoopDivider());
+        cascadedRudder.setDivider(config.getAngleLoopDivider());
+        cascadedElevator.setDivider(config.getAngleLoopDivider());
+    }
+    
+    private void tuner(Axis axis, FlightControlListener listener, int mode,
+            float[] relay) {
+        tuners.put(axis, new RelayAutotuner(listener,
+                Logger.getLogger("Autotune"), mode, relay,
+                config.getAutotuneCycles(), config.getAutotuneTimeout()));
+    }
+    
+    private void buildSignalManager() {
+        logger.info("Setting up signal manager");
         
+        signalManager = SignalManagerFactory.getManager(ioio, sensorManager,
+                locationManager, scheduler);
     }
     
     private void buildQuadCopter() throws ConnectionLostException {
         logger.info("Setting up Quadcopter");
         
-        ufo = new QuadCopterImpl(ioio, map.get(AILERON_OUT),
+        QuadCopterImpl quad = new QuadCopterImpl(ioio, map.get(AILERON_OUT),
                 map.get(RUDDER_OUT), map.get(THROTTLE_OUT),
                 map.get(ELEVATOR_OUT), map.get(GAIN_OUT));
+        quad.setLatency(computer.getOutputLatency());
+        computer.setOutputs(quad);
+        ufo = quad;
     }
     
     private void buildSwitchedQuadCopters() {
@@ -295,14 +568,15 @@ public class FlightBuilder {
         
         RemoteControl rc;
         
-        if (FlightConfiguration.get().getRemoteControlType() == ConnectionType.TCP) {
+        if (config.getRemoteControlType() == ConnectionType.TCP) {
             rc = new NetworkRemote(ufo, manualControlCopter,
                     computerControlCopter);
         } else {
             rc = new ExternalRemote(ioio, ufo, map.get(AILERON_IN),
                     map.get(RUDDER_IN), map.get(THROTTLE_IN),
-                    map.get(ELEVATOR_IN), map.get(THROTTLE_MONITOR),
-                    map.get(GAIN_IN));
+                    map.get(ELEVATOR_IN), signalManager.getPulseSignal(
+                            config.getMinTimeRcPulse(),
+                            map.get(THROTTLE_MONITOR)), map.get(GAIN_IN));
             
         }
         rc.setControlMask((char) ~RemoteControl.THROTTLE_MASK);
@@ -317,6 +591,9 @@ public class FlightBuilder {
         
         FlightState<?> state = null;
         
+        transitions = new TransitionTable();
+        computer.setTransitions(transitions);
+        
         setupState(new EmergencyLandingState(), EMERGENCY_LANDING);
         
         setupState(new FailedState(), FAILED);
@@ -337,140 +614,211 @@ public class FlightBuilder {
         
         state = setupState(new StabilizedHoverState(), STABILIZED_HOVER);
         ((StabilizedHoverState) state).setAutoThrottle(autoThrottle);
-        ((StabilizedHoverState) state).setAutoElevator(autoElevator);
-        ((StabilizedHoverState) state).setAutoAileron(autoAileron);
-        ((StabilizedHoverState) state).setAutoRudder(autoRudder);
+        ((StabilizedHoverState) state).setAutoElevator(cascadedElevator);
+        ((StabilizedHoverState) state).setAutoAileron(cascadedAileron);
+        ((StabilizedHoverState) state).setAutoRudder(cascadedRudder);
         
         state = setupState(new WaypointHoldState(), WAYPOINT_HOLD);
-        ((WaypointHoldState) state).setAutoUltraSoundThrottle(autoThrottle);
-        ((WaypointHoldState) state).setAutoGpsThrottle(autoGpsThrottle);
+        ((WaypointHoldState) state).setAutoThrottle(autoThrottle);
         ((WaypointHoldState) state).setAutoAileron(autoGpsAileron);
         ((WaypointHoldState) state).setAutoElevator(autoGpsElevator);
         ((WaypointHoldState) state).setAutoRudder(autoRudder);
         
-        setupState(new WaypointTrackState(), WAYPOINT_TRACK);
+        state = setupState(new WaypointTrackState(), WAYPOINT_TRACK);
+        ((WaypointTrackState) state).setAutoThrottle(autoThrottle);
+        ((WaypointTrackState) state).setAutoAileron(autoGpsAileron);
+        ((WaypointTrackState) state).setAutoElevator(autoGpsElevator);
+        ((WaypointTrackState) state).setAutoRudder(autoRudder);
+        
+        state = setupState(new AutotuneState(), AUTOTUNE);
+        ((AutotuneState) state).setAutoThrottle(autoThrottle);
+        for (Axis axis : tuners.keySet()) {
+            ((AutotuneState) state).setTuner(axis, tuners.get(axis));
+        }
     }
     
     private void buildTransitions() throws ConnectionLostException {
         logger.info("Setting up transitions");
         
-        FlightState<?> abort = state(FAILED);
-        for (FlightState<?> state : stateMap.values()) {
-            if (state != abort) {
-                state.addTransition(abort);
+        for (FlightState.Type type : stateMap.keySet()) {
+            if (type != FAILED) {
+                transitions.add(type, FAILED);
             }
         }
         
-        FlightState<?> manual = state(MANUAL_CONTROL);
-        for (FlightState<?> state : stateMap.values()) {
-            if (state != manual) {
-                state.addTransition(manual);
+        for (FlightState.Type type : stateMap.keySet()) {
+            if (type != MANUAL_CONTROL) {
+                transitions.add(type, MANUAL_CONTROL);
             }
         }
         
         // Ground
-        state(GROUND).addTransition(state(HOVER));
-        state(GROUND).addTransition(state(WAYPOINT_HOLD));
-        state(GROUND).addTransition(state(CALIBRATION));
+        transitions.add(GROUND, HOVER);
+        transitions.add(GROUND, WAYPOINT_HOLD);
+        transitions.add(GROUND, WAYPOINT_TRACK);
+        transitions.add(GROUND, CALIBRATION);
         
         // Calibration
-        state(CALIBRATION).addTransition(state(EMERGENCY_LANDING));
-        state(CALIBRATION).addTransition(state(LANDING));
+        transitions.add(CALIBRATION, EMERGENCY_LANDING);
+        transitions.add(CALIBRATION, LANDING);
         
         // Hover
-        state(HOVER).addTransition(state(HOVER));
-        state(HOVER).addTransition(state(STABILIZED_HOVER));
-        state(HOVER).addTransition(state(WAYPOINT_HOLD));
-        state(HOVER).addTransition(state(EMERGENCY_LANDING));
-        state(HOVER).addTransition(state(LANDING));
+        transitions.add(HOVER, HOVER);
+        transitions.add(HOVER, STABILIZED_HOVER);
+        transitions.add(HOVER, WAYPOINT_HOLD);
+        transitions.add(HOVER, WAYPOINT_TRACK);
+        transitions.add(HOVER, EMERGENCY_LANDING);
+        transitions.add(HOVER, LANDING);
+        transitions.add(HOVER, AUTOTUNE);
         
         // Emergency Landing
-        state(EMERGENCY_LANDING).addTransition(state(LANDING));
+        transitions.add(EMERGENCY_LANDING, LANDING);
         
         // Landing
-        state(LANDING).addTransition(state(HOVER));
-        state(LANDING).addTransition(state(WAYPOINT_HOLD));
-        state(LANDING).addTransition(state(EMERGENCY_LANDING));
-        state(LANDING).addTransition(state(GROUND));
+        transitions.add(LANDING, HOVER);
+        transitions.add(LANDING, WAYPOINT_HOLD);
+        transitions.add(LANDING, EMERGENCY_LANDING);
+        transitions.add(LANDING, GROUND);
         
         // Stabilized Hover
-        state(STABILIZED_HOVER).addTransition(state(HOVER));
-        state(STABILIZED_HOVER).addTransition(state(WAYPOINT_HOLD));
-        state(STABILIZED_HOVER).addTransition(state(STABILIZED_HOVER));
-        state(STABILIZED_HOVER).addTransition(state(LANDING));
-        state(STABILIZED_HOVER).addTransition(state(EMERGENCY_LANDING));
+        transitions.add(STABILIZED_HOVER, HOVER);
+        transitions.add(STABILIZED_HOVER, WAYPOINT_HOLD);
+        transitions.add(STABILIZED_HOVER, WAYPOINT_TRACK);
+        transitions.add(STABILIZED_HOVER, STABILIZED_HOVER);
+        transitions.add(STABILIZED_HOVER, LANDING);
+        transitions.add(STABILIZED_HOVER, EMERGENCY_LANDING);
+        transitions.add(STABILIZED_HOVER, AUTOTUNE);
         
         // Waypoint hold
-        state(WAYPOINT_HOLD).addTransition(state(HOVER));
-        state(WAYPOINT_HOLD).addTransition(state(STABILIZED_HOVER));
-        state(WAYPOINT_HOLD).addTransition(state(WAYPOINT_HOLD));
-        state(WAYPOINT_HOLD).addTransition(state(EMERGENCY_LANDING));
-        state(WAYPOINT_HOLD).addTransition(state(LANDING));
+        transitions.add(WAYPOINT_HOLD, HOVER);
+        transitions.add(WAYPOINT_HOLD, STABILIZED_HOVER);
+        transitions.add(WAYPOINT_HOLD, WAYPOINT_HOLD);
+        transitions.add(WAYPOINT_HOLD, WAYPOINT_TRACK);
+        transitions.add(WAYPOINT_HOLD, EMERGENCY_LANDING);
+        transitions.add(WAYPOINT_HOLD, LANDING);
+        
+        // Waypoint track
+        transitions.add(WAYPOINT_TRACK, WAYPOINT_HOLD);
+        transitions.add(WAYPOINT_TRACK, WAYPOINT_TRACK);
+        transitions.add(WAYPOINT_TRACK, HOVER);
+        transitions.add(WAYPOINT_TRACK, STABILIZED_HOVER);
+        transitions.add(WAYPOINT_TRACK, EMERGENCY_LANDING);
+        transitions.add(WAYPOINT_TRACK, LANDING);
+        
+        // Autotune
+        transitions.add(AUTOTUNE, HOVER);
+        transitions.add(AUTOTUNE, EMERGENCY_LANDING);
+        transitions.add(AUTOTUNE, LANDING);
         
         // Manual Control
-        state(MANUAL_CONTROL).addTransition(state(HOVER));
-        state(MANUAL_CONTROL).addTransition(state(LANDING));
+        transitions.add(MANUAL_CONTROL, HOVER);
+        transitions.add(MANUAL_CONTROL, LANDING);
         
     }
     
     private void buildSignalArray() throws ConnectionLostException {
         logger.info("Setting up signal array");
         
-        signalManager = SignalManagerFactory.getManager(ioio, sensorManager,
-                locationManager, scheduler);
-        Signal signal = signalManager.getUltraSoundSignal(
-                config.getMinTimeUltraSound(), map.get(ULTRA_SOUND));
+        // all listeners below run on the control loop
+        SignalDispatcher dispatcher = new SignalDispatcher(
+                config.getSampleRingCapacity());
+        computer.setDispatcher(dispatcher);
+        
+        // sonar spikes never reach the controls
+        Signal signal = SignalFilter.chain(
+                decouple(ULTRASOUND, signalManager.getUltraSoundSignal(
+                        config.getMinTimeUltraSound(), map.get(ULTRA_SOUND))),
+                new MedianFilter(config.getUltraSoundMedian()),
+                new OutlierGate(config.getUltraSoundMaxJump(), config
+                        .getUltraSoundMaxRejects()));
+        
+        // one throttle control consumes the fused altitude
+        AltitudeEstimator altitude = new AltitudeEstimator(
+                config.getAltitudeConf(), config.getEmergencyDelta());
+        dispatcher.addTickListener(altitude);
+        altitude.registerListener(new SignalListener() {
+            
+            public void update(float x, long time) {
+                computer.setAltitude(x);
+            }
+        });
+        altitude.registerListener(autoThrottle);
+        altitude.registerListener(tuners.get(Axis.THROTTLE));
+        altitude.getVelocitySignal().registerListener(new SignalListener() {
+            
+            public void update(float x, long time) {
+                computer.setVerticalSpeed(x);
+            }
+        });
         
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
                 computer.setHeight(x);
-                computer.setLastTimeHeightSignal(time);
             }
         });
-        signal.registerListener(autoThrottle);
+        signal.registerListener(altitude.getUltrasoundListener());
         
-        signal = signalManager.getRollSignal(config.getMinTimeOrientation());
+        signal = decouple(ROLL,
+                signalManager.getRollSignal(config.getMinTimeOrientation()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
                 computer.setLateralDisplacement(x);
-                computer.setLastTimeOrientationSignal(time);
             }
         });
-        signal.registerListener(autoAileron);
-        
-        signal = signalManager.getPitchSignal(config.getMinTimeOrientation());
+        signal.registerListener(cascadedAileron);
+        signal.registerListener(tuners.get(Axis.ROLL));
+        dispatcher.decouple(
+                signalManager.getRollRateSignal(config.getMinTimeOrientation()))
+                .registerListener(cascadedAileron.getRateControl());
+        
+        signal = decouple(PITCH,
+                signalManager.getPitchSignal(config.getMinTimeOrientation()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
                 computer.setLongitudinalDisplacement(x);
-                computer.setLastTimeOrientationSignal(time);
             }
         });
-        signal.registerListener(autoElevator);
-        
-        signal = signalManager.getYawSignal(config.getMinTimeOrientation());
+        signal.registerListener(cascadedElevator);
+        signal.registerListener(tuners.get(Axis.PITCH));
+        dispatcher.decouple(
+                signalManager.getPitchRateSignal(config.getMinTimeOrientation()))
+                .registerListener(cascadedElevator.getRateControl());
+        
+        signal = decouple(YAW,
+                signalManager.getYawSignal(config.getMinTimeOrientation()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
                 computer.setHeading(x);
-                computer.setLastTimeOrientationSignal(time);
             }
         });
         signal.registerListener(autoRudder);
-        
-        signal = signalManager.getGpsAltitudeSignal(config.getMinTimeGps());
+        signal.registerListener(cascadedRudder);
+        signal.registerListener(tuners.get(Axis.YAW));
+        dispatcher.decouple(
+                signalManager.getYawRateSignal(config.getMinTimeOrientation()))
+                .registerListener(cascadedRudder.getRateControl());
+        
+        signal = decouple(GPS_HEIGHT,
+                signalManager.getGpsAltitudeSignal(config.getMinTimeGps()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
                 computer.setGpsHeight(x);
-                computer.setLastTimeGpsHeight(time);
             }
         });
-        signal.registerListener(autoGpsThrottle);
+        signal.registerListener(altitude.getGpsListener());
+        
+        signal = SignalFilter.chain(decouple(BAROMETER, signalManager
+                .getBarometerSignal(config.getMinTimeBarometer())),
+                new MedianFilter(config.getBarometerMedian()));
+        signal.registerListener(altitude.getBarometerListener());
         
-        signal = signalManager.getGpsLatitudeSignal(config.getMinTimeGps());
+        signal = decouple(GPS_LAT,
+                signalManager.getGpsLatitudeSignal(config.getMinTimeGps()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
@@ -479,7 +827,8 @@ public class FlightBuilder {
         });
         signal.registerListener(autoGpsElevator);
         
-        signal = signalManager.getGpsLongitudeSignal(config.getMinTimeGps());
+        signal = decouple(GPS_LON,
+                signalManager.getGpsLongitudeSignal(config.getMinTimeGps()));
         signal.registerListener(new SignalListener() {
             
             public void update(float x, long time) {
@@ -487,18 +836,50 @@ public class FlightBuilder {
             }
         });
         signal.registerListener(autoGpsAileron);
+        buildGeofence(signal);
+        
+        // the controls run after every listener above has seen its samples
+        dispatcher.addTickListener(pid);
+        
+        SamplingPolicy policy = new SamplingPolicy(signalManager);
+        policy.apply(computer.getState().getType());
+        computer.setSamplingPolicy(policy);
         
         futures.addAll(signalManager.getFutures());
     }
     
-    private FlightState<?> state(FlightState.Type type) {
-        return stateMap.get(type);
+    /*
+     * Checks every gps fix against the fence, if there is one.
+     */
+    private void buildGeofence(Signal longitude) {
+        logger.info("Setting up geofence");
+        
+        try {
+            Geofence fence = GeofenceLoader.load(config.getGeofenceFile());
+            GeofenceMonitor monitor = new GeofenceMonitor(computer, fence,
+                    config.getGeofenceAction());
+            longitude.registerListener(monitor);
+            computer.setGeofence(monitor);
+        } catch (IOException e) {
+            logger.warn("Geofence disabled.", e);
+        }
+    }
+    
+    /*
+     * Hands the samples of source to the control loop and watches their
+     * health.
+     */
+    private Signal decouple(Channel channel, Signal source) {
+        Signal signal = computer.getDispatcher().decouple(source);
+        signal.registerListener(computer.getHealth().add(channel, source));
+        return signal;
     }
     
     private FlightState<?> setupState(FlightState<?> state,
             FlightState.Type type) {
         state.setType(type);
         state.setComputer(computer);
+        transitions.addState(state);
         stateMap.put(type, state);
         return state;
     }
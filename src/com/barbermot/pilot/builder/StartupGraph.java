@@ -0,0 +1,183 @@
+package com.barbermot.pilot.builder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * StartupGraph runs build steps as soon as the steps they depend on are done,
+ * independent steps run concurrently. A step can only depend on steps added
+ * before it, so the graph has no cycles.
+ * 
+ * Every step is timed: how long it waited for a thread after its
+ * dependencies were done, how long it ran and when it finished relative to
+ * the start of the graph. The critical path is the chain of steps that
+ * finished last among the dependencies of the step after them.
+ */
+public class StartupGraph {
+    
+    public interface Step {
+        
+        void build() throws Exception;
+    }
+    
+    private static class Node implements Callable<Node> {
+        
+        private final String     name;
+        private final Step       step;
+        private final List<Node> dependents;
+        private int              missing;
+        private Node             blocker;
+        private Future<Node>     future;
+        private long             ready;
+        private volatile long    start;
+        private volatile long    end;
+        
+        Node(String name, Step step) {
+            this.name = name;
+            this.step = step;
+            this.dependents = new ArrayList<Node>();
+        }
+        
+        public Node call() throws Exception {
+            start = Clock.nanoTime();
+            step.build();
+            end = Clock.nanoTime();
+            return this;
+        }
+    }
+    
+    private final Map<String, Node> nodes;
+    private long                    start;
+    private Node                    last;
+    
+    public StartupGraph() {
+        nodes = new LinkedHashMap<String, Node>();
+    }
+    
+    /**
+     * add registers a step.
+     * 
+     * @param name
+     *            Unique name of the step, used in the report
+     * @param dependencies
+     *            Names of the steps that have to be done first
+     */
+    public void add(String name, Step step, String... dependencies) {
+        if (nodes.containsKey(name)) {
+            throw new IllegalArgumentException("Duplicate step: " + name);
+        }
+        Node node = new Node(name, step);
+        for (String dependency : dependencies) {
+            Node before = nodes.get(dependency);
+            if (before == null) {
+                throw new IllegalArgumentException("Unknown step: "
+                        + dependency);
+            }
+            before.dependents.add(node);
+            node.missing++;
+        }
+        nodes.put(name, node);
+    }
+    
+    /**
+     * run builds all steps on the executor and returns once all of them are
+     * done. The first failing step cancels the ones still running.
+     * 
+     * @throws BuildException
+     *             With the cause of the failed step
+     */
+    public void run(ExecutorService executor) throws BuildException,
+            InterruptedException {
+        CompletionService<Node> completion = new ExecutorCompletionService<Node>(
+                executor);
+        start = Clock.nanoTime();
+        
+        int pending = 0;
+        for (Node node : nodes.values()) {
+            if (node.missing == 0) {
+                submit(completion, node, start);
+                pending++;
+            }
+        }
+        
+        try {
+            while (pending > 0) {
+                Node done = completion.take().get();
+                pending--;
+                last = done;
+                
+                for (Node next : done.dependents) {
+                    next.blocker = done;
+                    if (--next.missing == 0) {
+                        submit(completion, next, done.end);
+                        pending++;
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            cancel();
+            throw new BuildException(e.getCause());
+        } catch (InterruptedException e) {
+            cancel();
+            throw e;
+        }
+    }
+    
+    private void submit(CompletionService<Node> completion, Node node,
+            long ready) {
+        node.ready = ready;
+        node.future = completion.submit(node);
+    }
+    
+    private void cancel() {
+        for (Node node : nodes.values()) {
+            if (node.future != null) {
+                node.future.cancel(true);
+            }
+        }
+    }
+    
+    /**
+     * @return One line per step with its wait, run and finish time (ms),
+     *         followed by the critical path
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Node node : nodes.values()) {
+            builder.append(node.name);
+            if (node.end == 0) {
+                builder.append(": not done\n");
+                continue;
+            }
+            builder.append(": waited ");
+            builder.append(Clock.millis(node.start - node.ready));
+            builder.append(", ran ");
+            builder.append(Clock.millis(node.end - node.start));
+            builder.append(", done at ");
+            builder.append(Clock.millis(node.end - start));
+            builder.append('\n');
+        }
+        
+        builder.append("critical path:");
+        List<String> path = new ArrayList<String>();
+        for (Node node = last; node != null; node = node.blocker) {
+            path.add(0, node.name);
+        }
+        for (String name : path) {
+            builder.append(' ');
+            builder.append(name);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,13 @@
+package com.barbermot.pilot.flight;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * Command is a request to the flight computer. Commands are posted from any
+ * thread and executed on the control loop at the start of a tick.
+ * 
+ */
+public interface Command {
+    
+    void execute() throws ConnectionLostException;
+}
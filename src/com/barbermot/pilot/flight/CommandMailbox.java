@@ -0,0 +1,123 @@
+package com.barbermot.pilot.flight;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CommandMailbox is a bounded queue of commands with many producers and a
+ * single consumer, the control loop. Producers claim a slot by advancing the
+ * tail with a compare and set, the sequence number of every slot tells whether
+ * it is free or filled. Neither side takes a lock.
+ * 
+ * Commands are executed in the order in which their slots were claimed. A
+ * command posted to a full mailbox is dropped. A command that fails with a
+ * runtime exception is logged and skipped, it must not stop the control loop
+ * that drains the mailbox.
+ */
+public class CommandMailbox {
+    
+    private static final Logger   logger = Logger.getLogger("CommandMailbox");
+    
+    private final Command[]       commands;
+    private final AtomicLongArray sequences;
+    private final AtomicLong      tail;
+    private final AtomicLong      dropped;
+    private final AtomicLong      failed;
+    private final int             capacity;
+    private final int             mask;
+    
+    // only touched by the consumer
+    private long                  head;
+    
+    /**
+     * @param capacity
+     *            Number of commands the mailbox can hold, rounded up to a power
+     *            of two
+     */
+    public CommandMailbox(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        commands = new Command[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            sequences.set(i, i);
+        }
+        tail = new AtomicLong();
+        dropped = new AtomicLong();
+        failed = new AtomicLong();
+    }
+    
+    /**
+     * offer queues a command.
+     * 
+     * @return false if the mailbox is full and the command was dropped
+     */
+    public boolean offer(Command command) {
+        long position;
+        int slot;
+        while (true) {
+            position = tail.get();
+            slot = (int) (position & mask);
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        commands[slot] = command;
+        sequences.set(slot, position + 1);
+        return true;
+    }
+    
+    /**
+     * drain executes the queued commands. Only the control loop may call it.
+     * At most one mailbox worth of commands is executed per call, commands
+     * posted by the executed commands wait for the next call.
+     * 
+     * @return Number of commands executed, including failed ones
+     * @throws ConnectionLostException
+     *             Passed on from the command, the remaining commands stay
+     *             queued
+     */
+    public int drain() throws ConnectionLostException {
+        int count = 0;
+        while (count < capacity) {
+            int slot = (int) (head & mask);
+            if (sequences.get(slot) != head + 1) {
+                break;
+            }
+            Command command = commands[slot];
+            commands[slot] = null;
+            sequences.set(slot, head + capacity);
+            ++head;
+            ++count;
+            try {
+                command.execute();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                logger.error("Command failed", e);
+            }
+        }
+        return count;
+    }
+    
+    public long getDropped() {
+        return dropped.get();
+    }
+    
+    public long getFailed() {
+        return failed.get();
+    }
+}
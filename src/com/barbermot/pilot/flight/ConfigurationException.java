@@ -0,0 +1,13 @@
+package com.barbermot.pilot.flight;
+
+@SuppressWarnings("serial")
+public class ConfigurationException extends Exception {
+    
+    public ConfigurationException(String message) {
+        super(message);
+    }
+    
+    public ConfigurationException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,168 @@
+package com.barbermot.pilot.flight;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import android.os.Process;
+
+import com.barbermot.pilot.logger.LatencyHistogram;
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * ControlLoop runs the flight computer at a fixed rate on its own high
+ * priority thread, away from the blocking tasks on the shared scheduler.
+ * 
+ * Every tick is released one period after the previous one and has to finish
+ * before the next release (its deadline). ControlLoop records how long each
+ * tick ran, how late it started and how many ticks missed their deadline.
+ */
+public class ControlLoop implements Runnable {
+    
+    private static final Logger      logger = Logger.getLogger("ControlLoop");
+    
+    private Runnable                 task;
+    private int                      frequency;
+    private long                     period;
+    private ScheduledExecutorService executor;
+    
+    private long                     release;
+    private volatile long            ticks;
+    private volatile long            lastTick;
+    private volatile long            overruns;
+    private LatencyHistogram         execution;
+    private LatencyHistogram         lateness;
+    
+    /**
+     * @param task
+     *            Work of one tick
+     * @param frequency
+     *            Ticks per second
+     */
+    public ControlLoop(Runnable task, int frequency) {
+        this.task = task;
+        this.frequency = frequency;
+        this.period = Clock.NANOS_PER_SECOND / frequency;
+        execution = new LatencyHistogram();
+        lateness = new LatencyHistogram();
+    }
+    
+    /**
+     * Starts the loop on a new thread.
+     * 
+     * @return Handle of the periodic task
+     */
+    public Future<?> start() {
+        logger.info("Starting control loop at " + frequency + " Hz");
+        
+        executor = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                                r.run();
+                            }
+                        }, "ControlLoop");
+                        thread.setPriority(Thread.MAX_PRIORITY);
+                        return thread;
+                    }
+                });
+        return executor.scheduleAtFixedRate(this, 0, period,
+                TimeUnit.NANOSECONDS);
+    }
+    
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return executor == null || executor.awaitTermination(timeout, unit);
+    }
+    
+    @Override
+    public void run() {
+        long start = Clock.nanoTime();
+        if (ticks == 0) {
+            release = start;
+        }
+        
+        task.run();
+        
+        long end = Clock.nanoTime();
+        execution.record(end - start);
+        lateness.record(start - release);
+        if (end - release > period) {
+            overruns++;
+        }
+        
+        // the executor releases the ticks on this fixed schedule
+        release += period;
+        ticks++;
+        lastTick = end;
+    }
+    
+    public int getFrequency() {
+        return frequency;
+    }
+    
+    /**
+     * @return Time between two ticks in ns
+     */
+    public long getPeriod() {
+        return period;
+    }
+    
+    public long getTicks() {
+        return ticks;
+    }
+    
+    /**
+     * @return End of the last tick in ns, 0 before the first
+     */
+    public long getLastTick() {
+        return lastTick;
+    }
+    
+    /**
+     * @return Number of ticks that finished after their deadline
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+    
+    /**
+     * @return Histogram of the execution time of the ticks
+     */
+    public LatencyHistogram getExecution() {
+        return execution;
+    }
+    
+    /**
+     * @return Histogram of the delay between release and start of the ticks
+     */
+    public LatencyHistogram getLateness() {
+        return lateness;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format("hz: %d\tticks: %d\toverruns: %d", frequency,
+                ticks, overruns)
+                + "\nexecution: "
+                + execution
+                + "\nlateness: "
+                + lateness;
+    }
+}
@@ -0,0 +1,218 @@
+package com.barbermot.pilot.flight;
+
+import java.util.EnumSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import android.os.Process;
+
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * FailsafeWatchdog enforces deadlines on the sources the flight depends on,
+ * independent of the control loop. It runs on its own high priority thread
+ * and looks at the last heartbeat of every source at a fixed rate. A source
+ * is only watched while the flight computer is in one of the states that
+ * need it.
+ * 
+ * When a deadline is missed the flight computer is forced into the emergency
+ * landing (see FlightComputer.failsafe), once per outage. For every source the
+ * watchdog keeps the smallest slack it saw - how close the deadline came to
+ * expiring - and the number of misses.
+ */
+public class FailsafeWatchdog implements Runnable {
+    
+    public enum Source {
+        HEIGHT, ORIENTATION, TICK, RC
+    };
+    
+    /**
+     * Heartbeat reports when a source was last seen alive.
+     */
+    public interface Heartbeat {
+        
+        /**
+         * @return Time of the last sign of life in ns, 0 if never
+         */
+        long getLastBeat();
+    }
+    
+    private static final Logger      logger = Logger.getLogger("Watchdog");
+    
+    private FlightComputer           computer;
+    private FlightSnapshot           snapshot;
+    private long                     period;
+    private ScheduledExecutorService executor;
+    
+    private Heartbeat[]              heartbeats;
+    private long[]                   deadlines;
+    private boolean[][]              armed;
+    private boolean[]                tripped;
+    
+    private AtomicLongArray          slack;
+    private AtomicLongArray          misses;
+    
+    /**
+     * @param period
+     *            Time between two checks in ms
+     */
+    public FailsafeWatchdog(FlightComputer computer, int period) {
+        this.computer = computer;
+        this.snapshot = new FlightSnapshot();
+        this.period = Clock.nanos(period);
+        
+        int size = Source.values().length;
+        heartbeats = new Heartbeat[size];
+        deadlines = new long[size];
+        armed = new boolean[size][Type.values().length];
+        tripped = new boolean[size];
+        slack = new AtomicLongArray(size);
+        misses = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            slack.set(i, Long.MAX_VALUE);
+        }
+    }
+    
+    /**
+     * watch sets the deadline of a source. Sources have to be set up before
+     * the watchdog is started.
+     * 
+     * @param deadline
+     *            Longest time without heartbeat in ms
+     * @param states
+     *            States in which the deadline is enforced
+     */
+    public void watch(Source source, Heartbeat heartbeat, int deadline,
+            EnumSet<Type> states) {
+        int i = source.ordinal();
+        heartbeats[i] = heartbeat;
+        deadlines[i] = Clock.nanos(deadline);
+        for (Type type : states) {
+            armed[i][type.ordinal()] = true;
+        }
+    }
+    
+    /**
+     * Starts the watchdog on a new thread.
+     * 
+     * @return Handle of the periodic task
+     */
+    public Future<?> start() {
+        logger.info("Starting watchdog every " + Clock.millis(period) + " ms");
+        
+        executor = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory() {
+                    
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_DISPLAY);
+                                r.run();
+                            }
+                        }, "Watchdog");
+                        thread.setPriority(Thread.MAX_PRIORITY);
+                        return thread;
+                    }
+                });
+        return executor.scheduleAtFixedRate(this, 0, period,
+                TimeUnit.NANOSECONDS);
+    }
+    
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+    
+    @Override
+    public void run() {
+        try {
+            check(Clock.nanoTime());
+        } catch (RuntimeException e) {
+            // an exception would cancel the periodic task
+            logger.error("Watchdog check failed", e);
+        }
+    }
+    
+    private void check(long now) {
+        // nothing is armed before the first tick
+        if (!computer.getSnapshot(snapshot)) {
+            return;
+        }
+        int state = snapshot.state.ordinal();
+        
+        for (int i = 0; i < heartbeats.length; ++i) {
+            long last = heartbeats[i] == null ? 0 : heartbeats[i]
+                    .getLastBeat();
+            if (last == 0 || !armed[i][state]) {
+                tripped[i] = false;
+                continue;
+            }
+            
+            long left = deadlines[i] - (now - last);
+            if (left < slack.get(i)) {
+                slack.set(i, left);
+            }
+            
+            if (left >= 0) {
+                tripped[i] = false;
+            } else if (!tripped[i]) {
+                tripped[i] = true;
+                misses.incrementAndGet(i);
+                
+                Source source = Source.values()[i];
+                logger.error("Deadline missed: " + source + " silent for "
+                        + Clock.millis(now - last) + " ms");
+                computer.failsafe(source);
+            }
+        }
+    }
+    
+    /**
+     * @return Smallest time left before the deadline in ns, negative if it
+     *         was missed
+     */
+    public long getSlack(Source source) {
+        return slack.get(source.ordinal());
+    }
+    
+    public long getMisses(Source source) {
+        return misses.get(source.ordinal());
+    }
+    
+    /**
+     * Per watched source: smallest slack in ms and misses.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Source source : Source.values()) {
+            int i = source.ordinal();
+            if (heartbeats[i] == null) {
+                continue;
+            }
+            if (builder.length() > 0) {
+                builder.append("\t");
+            }
+            builder.append(source.name().toLowerCase()).append(": ");
+            long left = slack.get(i);
+            if (left == Long.MAX_VALUE) {
+                builder.append("-");
+            } else {
+                builder.append(Clock.millis(left));
+            }
+            builder.append("/").append(misses.get(i));
+        }
+        return builder.toString();
+    }
+}
@@ -1,5 +1,6 @@
 package com.barbermot.pilot.flight;
 
+import static com.barbermot.pilot.flight.state.FlightState.Type.AUTOTUNE;
 import static com.barbermot.pilot.flight.state.FlightState.Type.CALIBRATION;
 import static com.barbermot.pilot.flight.state.FlightState.Type.EMERGENCY_LANDING;
 import static com.barbermot.pilot.flight.state.FlightState.Type.FAILED;
@@ -9,23 +10,46 @@ import static com.barbermot.pilot.flight.state.FlightState.Type.LANDING;
 import static com.barbermot.pilot.flight.state.FlightState.Type.MANUAL_CONTROL;
 import static com.barbermot.pilot.flight.state.FlightState.Type.STABILIZED_HOVER;
 import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_HOLD;
+import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_TRACK;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 
 import org.apache.log4j.Logger;
 
+import com.barbermot.pilot.flight.state.AutotuneState;
 import com.barbermot.pilot.flight.state.FlightState;
+import com.barbermot.pilot.flight.state.TransitionTable;
+import com.barbermot.pilot.geofence.GeofenceMonitor;
+import com.barbermot.pilot.logger.LatencyHistogram;
+import com.barbermot.pilot.mission.MissionExecutor;
+import com.barbermot.pilot.mission.MissionPlan;
 import com.barbermot.pilot.pid.AutoControl;
 import com.barbermot.pilot.quad.QuadCopter;
 import com.barbermot.pilot.rc.RemoteControl;
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.SignalDispatcher;
 
 public class FlightComputer implements Runnable {
     
     private static final Logger      logger = Logger.getLogger("FlightComputer");
     
-    private FlightState<?>           state;
+    private volatile FlightState<?>  state;
+    
+    // commands from other threads, executed at the start of a tick
+    private CommandMailbox           commands;
+    
+    // mission plan run on board, step by step
+    private MissionExecutor          mission;
+    
+    // checks the gps fixes, null without fence
+    private GeofenceMonitor          geofence;
+    
+    // legal transitions between the states and their statistics
+    private TransitionTable          transitions;
     
     private FlightConfiguration      config;
     
@@ -72,6 +96,10 @@ public class FlightComputer implements Runnable {
     private float                    height;
     private float                    zeroHeight;
     
+    // fused altitude estimate and vertical speed
+    private float                    altitude;
+    private float                    verticalSpeed;
+    
     private Waypoint                 currentLocation;
     private Waypoint                 zeroLocation;
     
@@ -85,21 +113,67 @@ public class FlightComputer implements Runnable {
     private float                    heading;
     
     private volatile long            time;
-    private volatile long            lastTimeOrientationSignal;
-    private volatile long            lastTimeHeightSignal;
-    private volatile long            lastTimeGpsHeight;
     
     private int                      zeroThrottle;
     private boolean                  isCalibrated;
     
     private ScheduledExecutorService scheduler;
     
+    // runs the ticks at a fixed rate
+    private ControlLoop              controlLoop;
+    
+    // consistent copy of the state for other threads, written every tick
+    private final SnapshotBuffer     snapshot;
+    private QuadCopter               outputs;
+    private long                     ticks;
+    
+    // deadlines of the sources the flight depends on
+    private FailsafeWatchdog         watchdog;
+    private volatile boolean         failsafe;
+    
+    // hands sensor samples to the control loop
+    private SignalDispatcher         dispatcher;
+    
+    // rate, jitter and dropouts of the signals
+    private HealthMonitor            health;
+    
+    // sampling rates per flight state
+    private SamplingPolicy           samplingPolicy;
+    
+    // time from sensor sample to servo output
+    private LatencyHistogram         latency;
+    
+    // time from the first servo write of a tick to its commit
+    private LatencyHistogram         outputLatency;
+    
     public FlightComputer() {
         config = FlightConfiguration.get();
         
+        commands = new CommandMailbox(config.getCommandCapacity());
+        mission = new MissionExecutor(this,
+                config.getMissionAltitudeTolerance());
+        latency = new LatencyHistogram();
+        outputLatency = new LatencyHistogram();
+        health = new HealthMonitor();
+        snapshot = new SnapshotBuffer();
+        
         currentLocation = new Waypoint(0, 0, 0);
         zeroLocation = new Waypoint(0, 0, 0);
         
+        configure(config);
+        
+        this.isCalibrated = false;
+        
+        time = Clock.nanoTime();
+    }
+    
+    /*
+     * Copies the gains and limits of the configuration, states engaging their
+     * controls afterwards use them.
+     */
+    private void configure(FlightConfiguration config) {
+        this.config = config;
+        
         this.hoverConf = config.getHoverConf();
         this.landingConf = config.getLandingConf();
         this.orientationConf = config.getOrientationConf();
@@ -117,11 +191,7 @@ public class FlightComputer implements Runnable {
         this.minTiltAngle = config.getMinTiltAngle();
         this.maxTiltAngle = config.getMaxTiltAngle();
         
-        this.isCalibrated = false;
-        
-        time = System.currentTimeMillis();
-        lastTimeHeightSignal = time;
-        lastTimeOrientationSignal = time;
+        health.setConfiguration(config);
     }
     
     public float getZeroLongitudinalDisplacement() {
@@ -142,87 +212,219 @@ public class FlightComputer implements Runnable {
     }
     
     public void shutdown() {
+        if (watchdog != null) {
+            watchdog.shutdown();
+        }
+        if (controlLoop != null) {
+            controlLoop.shutdown();
+        }
         scheduler.shutdownNow();
     }
     
-    public synchronized void takeoff(float height)
-            throws ConnectionLostException {
-        state.transition(HOVER, height);
+    /*
+     * Queues a command for the next tick.
+     */
+    private void post(Command command) {
+        if (!commands.offer(command)) {
+            logger.warn("Command mailbox full, command dropped.");
+        }
     }
     
-    public synchronized void hover(float height) throws ConnectionLostException {
-        state.transition(HOVER, height);
+    public void takeoff(final float height) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(HOVER, height);
+            }
+        });
     }
     
-    public void waypoint(float height) throws ConnectionLostException {
-        Waypoint wp;
-        try {
-            wp = (Waypoint) currentLocation.clone();
-            wp.altitude = this.getZeroGpsHeight() + height;
-            state.transition(WAYPOINT_HOLD, wp);
-        } catch (CloneNotSupportedException e) {
-            logger.warn("Waypoint clone not supported.");
-        }
+    public void hover(final float height) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(HOVER, height);
+            }
+        });
+    }
+    
+    public void waypoint(final float height) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                Waypoint wp;
+                try {
+                    wp = (Waypoint) currentLocation.clone();
+                    wp.altitude = getZeroGpsHeight() + height;
+                    state.transition(WAYPOINT_HOLD, wp);
+                } catch (CloneNotSupportedException e) {
+                    logger.warn("Waypoint clone not supported.");
+                }
+            }
+        });
+    }
+    
+    /**
+     * track flies the route through the given waypoints. Their altitudes are
+     * relative to the calibrated gps height.
+     */
+    public void track(final List<Waypoint> route) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                List<Waypoint> absolute = new ArrayList<Waypoint>(route.size());
+                for (Waypoint wp : route) {
+                    absolute.add(new Waypoint(getZeroGpsHeight() + wp.altitude,
+                            wp.latitude, wp.longitude));
+                }
+                state.transition(WAYPOINT_TRACK, absolute);
+            }
+        });
+    }
+    
+    /**
+     * fly replaces the running mission with the given plan.
+     */
+    public void fly(final MissionPlan plan) {
+        post(new Command() {
+            
+            public void execute() {
+                mission.start(plan);
+            }
+        });
     }
     
-    public synchronized void ground() throws ConnectionLostException {
-        state.transition(GROUND, null);
+    public void stopMission() {
+        post(new Command() {
+            
+            public void execute() {
+                mission.stop();
+            }
+        });
     }
     
-    public synchronized void land() throws ConnectionLostException {
-        state.transition(LANDING, null);
+    public void ground() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(GROUND, null);
+            }
+        });
     }
     
-    public synchronized void emergencyDescent() throws ConnectionLostException {
-        state.transition(EMERGENCY_LANDING, height);
+    public void land() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(LANDING, null);
+            }
+        });
     }
     
-    public synchronized void manualControl() throws ConnectionLostException {
-        state.transition(MANUAL_CONTROL, null);
+    public void emergencyDescent() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(EMERGENCY_LANDING, height);
+            }
+        });
     }
     
-    public synchronized void autoControl() throws ConnectionLostException {
-        state.transition(LANDING, null);
+    public void manualControl() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(MANUAL_CONTROL, null);
+            }
+        });
     }
     
-    public synchronized void abort() throws ConnectionLostException {
-        state.transition(FAILED, null);
+    public void autoControl() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(LANDING, null);
+            }
+        });
     }
     
-    public synchronized void stabilize(boolean b)
-            throws ConnectionLostException {
-        if (b) {
-            state.transition(STABILIZED_HOVER, goalHeight);
-        } else {
-            state.transition(HOVER, goalHeight);
-        }
+    public void abort() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(FAILED, null);
+            }
+        });
     }
     
-    public synchronized void forward(int speed) {
-        if (state.getType() == STABILIZED_HOVER) {
-            float angle = map(speed, minSpeed, maxSpeed, minTiltAngle,
-                    maxTiltAngle);
-            logger.info("Setting pitch angle to: " + angle);
-            autoElevator.setGoal(angle + getZeroLongitudinalDisplacement());
-        }
+    public void stabilize(final boolean b) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                if (b) {
+                    state.transition(STABILIZED_HOVER, goalHeight);
+                } else {
+                    state.transition(HOVER, goalHeight);
+                }
+            }
+        });
     }
     
-    public synchronized void sideways(int speed) {
-        if (state.getType() == STABILIZED_HOVER) {
-            float angle = map(speed, minSpeed, maxSpeed, minTiltAngle,
-                    maxTiltAngle);
-            logger.info("Setting roll angle to: " + angle);
-            autoAileron.setGoal(angle + getZeroLateralDisplacement());
-        }
+    /**
+     * autotune runs the relay experiment on one axis at the current hover
+     * height and applies the resulting gains.
+     */
+    public void autotune(final AutotuneState.Axis axis) {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(AUTOTUNE, new AutotuneState.Experiment(axis,
+                        goalHeight));
+            }
+        });
     }
     
-    public synchronized void rotate(int angle) {
-        if (state.getType() == STABILIZED_HOVER) {
-            float radian = map(angle, -180, 180, (float) -Math.PI,
-                    (float) Math.PI);
-            logger.info("Setting yaw angle to: " + radian);
-            autoRudder.setGoal(radian);
-        }
+    public void forward(final int speed) {
+        post(new Command() {
+            
+            public void execute() {
+                if (state.getType() == STABILIZED_HOVER) {
+                    float angle = map(speed, minSpeed, maxSpeed,
+                            minTiltAngle, maxTiltAngle);
+                    logger.info("Setting pitch angle to: " + angle);
+                    autoElevator.setGoal(angle
+                            + getZeroLongitudinalDisplacement());
+                }
+            }
+        });
+    }
+    
+    public void sideways(final int speed) {
+        post(new Command() {
+            
+            public void execute() {
+                if (state.getType() == STABILIZED_HOVER) {
+                    float angle = map(speed, minSpeed, maxSpeed,
+                            minTiltAngle, maxTiltAngle);
+                    logger.info("Setting roll angle to: " + angle);
+                    autoAileron.setGoal(angle + getZeroLateralDisplacement());
+                }
+            }
+        });
+    }
+    
+    public void rotate(final int angle) {
+        post(new Command() {
+            
+            public void execute() {
+                if (state.getType() == STABILIZED_HOVER) {
+                    float radian = map(angle, -180, 180, (float) -Math.PI,
+                            (float) Math.PI);
+                    logger.info("Setting yaw angle to: " + radian);
+                    autoRudder.setGoal(radian);
+                }
+            }
+        });
     }
     
     private float map(float value, float minIn, float maxIn, float minOut,
@@ -231,6 +433,15 @@ public class FlightComputer implements Runnable {
     }
     
     public void balance() {
+        post(new Command() {
+            
+            public void execute() {
+                zeroAngles();
+            }
+        });
+    }
+    
+    private void zeroAngles() {
         setZeroLateralDisplacement(getLateralDisplacement());
         setZeroLongitudinalDisplacement(getLongitudinalDisplacement());
     }
@@ -240,16 +451,46 @@ public class FlightComputer implements Runnable {
         setZeroGpsHeight(getGpsHeight());
         setZeroLatitude(getLatitude());
         setZeroLongitude(getLongitude());
-        balance();
+        zeroAngles();
     }
     
-    public void calibrateControls() throws ConnectionLostException {
-        state.transition(CALIBRATION, null);
+    public void calibrateControls() {
+        post(new Command() {
+            
+            public void execute() throws ConnectionLostException {
+                state.transition(CALIBRATION, null);
+            }
+        });
     }
     
-    public synchronized void run() {
+    public void run() {
         try {
-            time = System.currentTimeMillis();
+            time = Clock.nanoTime();
+            
+            // a configuration swapped in since the last tick
+            FlightConfiguration latest = FlightConfiguration.get();
+            if (latest != config) {
+                configure(latest);
+                logger.info("Configuration " + latest + " active");
+            }
+            
+            // commands posted since the last tick, in order
+            commands.drain();
+            
+            // a deadline missed since the last tick
+            if (failsafe) {
+                failsafe = false;
+                if (state.getType() != EMERGENCY_LANDING) {
+                    state.transition(EMERGENCY_LANDING, null);
+                }
+                
+                // the emergency landing owns the throttle from here on
+                ufo.releaseThrottle();
+            }
+            
+            // run the estimators and pid controls on all samples received
+            // since the last tick
+            dispatcher.dispatch(time);
             
             // the following state transitions can origin in any state
             
@@ -257,63 +498,49 @@ public class FlightComputer implements Runnable {
             if (rc.getControlMask() == RemoteControl.FULL_MANUAL
                     && state.getType() != MANUAL_CONTROL) {
                 logger.info("Manual control is engaged");
-                manualControl();
+                state.transition(MANUAL_CONTROL, null);
             }
             
             state.update();
+            mission.update();
+            
+            // all servo writes of this tick go out together
+            ufo.commit();
+            
+            snapshot.write(++ticks, this, outputs);
         } catch (ConnectionLostException e) {
             throw new RuntimeException(e);
         }
     }
     
     public boolean hasHeightSignal() {
-        return (time - lastTimeHeightSignal) < config.getEmergencyDelta();
+        return health.hasHeightSignal(time);
+    }
+    
+    public boolean hasOrientationSignal() {
+        return health.hasOrientationSignal(time);
     }
     
     public boolean hasGpsSignal() {
-        return (time - lastTimeGpsHeight) < config.getEmergencyDeltaGps();
+        return health.hasGpsSignal(time);
     }
     
     public float[] getHoverConf() {
         return hoverConf;
     }
     
-    public void setHoverConf(float[] hoverConf) {
-        this.hoverConf = hoverConf;
-    }
-    
     public float[] getLandingConf() {
         return landingConf;
     }
     
-    public void setLandingConf(float[] landingConf) {
-        this.landingConf = landingConf;
-    }
-    
     public float[] getOrientationConf() {
         return orientationConf;
     }
     
-    public void setOrientationConf(float[] orientationConf) {
-        this.orientationConf = orientationConf;
-    }
-    
     public float[] getGpsConf() {
         return gpsConf;
     }
     
-    public void setGpsConf(float[] gpsConf) {
-        this.gpsConf = gpsConf;
-    }
-    
-    public void setMinThrottle(int min) {
-        this.minThrottle = min;
-    }
-    
-    public void setMaxThrottle(int max) {
-        this.maxThrottle = max;
-    }
-    
     public float getLongitudinalDisplacement() {
         return longitudinalDisplacement;
     }
@@ -386,44 +613,114 @@ public class FlightComputer implements Runnable {
         return maxThrottle;
     }
     
-    public void setMinTilt(int minTilt) {
-        this.minTilt = minTilt;
-    }
-    
     public int getMinTilt() {
         return minTilt;
     }
     
-    public void setMaxTilt(int maxTilt) {
-        this.maxTilt = maxTilt;
-    }
-    
     public int getMaxTilt() {
         return maxTilt;
     }
     
-    public long getLastTimeOrientationSignal() {
-        return lastTimeOrientationSignal;
+    public void setExecutor(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
     }
     
-    public void setLastTimeOrientationSignal(long lastTimeOrientationSignal) {
-        this.lastTimeOrientationSignal = lastTimeOrientationSignal;
+    public ScheduledExecutorService getExecutor() {
+        return scheduler;
     }
     
-    public long getLastTimeHeightSignal() {
-        return lastTimeHeightSignal;
+    public SignalDispatcher getDispatcher() {
+        return dispatcher;
     }
     
-    public void setLastTimeHeightSignal(long lastTimeHeightSignal) {
-        this.lastTimeHeightSignal = lastTimeHeightSignal;
+    public void setDispatcher(SignalDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
     }
     
-    public void setExecutor(ScheduledExecutorService scheduler) {
-        this.scheduler = scheduler;
+    /**
+     * failsafe is called by the watchdog when a deadline is missed. The next
+     * tick enters the emergency landing. If the ticks themselves are late the
+     * emergency throttle is latched and committed right away, nobody else
+     * will; a late tick that resumes commits the latched throttle too, until
+     * the next tick has entered the emergency landing.
+     */
+    public void failsafe(FailsafeWatchdog.Source source) {
+        if (source == FailsafeWatchdog.Source.TICK) {
+            // latched before the flag, so the tick that reads the flag
+            // releases it
+            ufo.latchThrottle(getEmergencyDescentThrottle());
+            failsafe = true;
+            try {
+                ufo.commit();
+            } catch (ConnectionLostException e) {
+                logger.warn("Emergency throttle failed", e);
+            }
+        } else {
+            failsafe = true;
+        }
     }
     
-    public ScheduledExecutorService getExecutor() {
-        return scheduler;
+    /**
+     * @return The configuration of the current tick
+     */
+    public FlightConfiguration getConfig() {
+        return config;
+    }
+    
+    /**
+     * getSnapshot copies the state at the end of the last tick, it may be
+     * called from any thread.
+     * 
+     * @param into
+     *            Snapshot of the caller, overwritten
+     * @return false before the first tick, into is not valid then
+     */
+    public boolean getSnapshot(FlightSnapshot into) {
+        return snapshot.read(into);
+    }
+    
+    /**
+     * setOutputs sets the quad copter whose servo values go into the
+     * snapshots.
+     */
+    public void setOutputs(QuadCopter outputs) {
+        this.outputs = outputs;
+    }
+    
+    public FailsafeWatchdog getWatchdog() {
+        return watchdog;
+    }
+    
+    public void setWatchdog(FailsafeWatchdog watchdog) {
+        this.watchdog = watchdog;
+    }
+    
+    public ControlLoop getControlLoop() {
+        return controlLoop;
+    }
+    
+    public void setControlLoop(ControlLoop controlLoop) {
+        this.controlLoop = controlLoop;
+    }
+    
+    public HealthMonitor getHealth() {
+        return health;
+    }
+    
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+    
+    public LatencyHistogram getOutputLatency() {
+        return outputLatency;
+    }
+    
+    public SamplingPolicy getSamplingPolicy() {
+        return samplingPolicy;
+    }
+    
+    public void setSamplingPolicy(SamplingPolicy samplingPolicy) {
+        this.samplingPolicy = samplingPolicy;
     }
     
     public RemoteControl getRc() {
@@ -434,12 +731,39 @@ public class FlightComputer implements Runnable {
         this.rc = rc;
     }
     
+    public GeofenceMonitor getGeofence() {
+        return geofence;
+    }
+    
+    public void setGeofence(GeofenceMonitor geofence) {
+        this.geofence = geofence;
+    }
+    
+    public MissionExecutor getMission() {
+        return mission;
+    }
+    
+    public CommandMailbox getCommands() {
+        return commands;
+    }
+    
+    public TransitionTable getTransitions() {
+        return transitions;
+    }
+    
+    public void setTransitions(TransitionTable transitions) {
+        this.transitions = transitions;
+    }
+    
     public FlightState<?> getState() {
         return state;
     }
     
     public void setState(FlightState<?> state) {
         this.state = state;
+        if (samplingPolicy != null) {
+            samplingPolicy.apply(state.getType());
+        }
     }
     
     public float getHeight() {
@@ -450,6 +774,22 @@ public class FlightComputer implements Runnable {
         this.height = height;
     }
     
+    public float getAltitude() {
+        return altitude;
+    }
+    
+    public void setAltitude(float altitude) {
+        this.altitude = altitude;
+    }
+    
+    public float getVerticalSpeed() {
+        return verticalSpeed;
+    }
+    
+    public void setVerticalSpeed(float verticalSpeed) {
+        this.verticalSpeed = verticalSpeed;
+    }
+    
     public float getHeading() {
         return heading;
     }
@@ -474,14 +814,6 @@ public class FlightComputer implements Runnable {
         return currentLocation.altitude;
     }
     
-    public long getLastTimeGpsHeight() {
-        return lastTimeGpsHeight;
-    }
-    
-    public void setLastTimeGpsHeight(long lastTimeGpsHeight) {
-        this.lastTimeGpsHeight = lastTimeGpsHeight;
-    }
-    
     public float getZeroHeight() {
         return zeroHeight;
     }
@@ -498,6 +830,10 @@ public class FlightComputer implements Runnable {
         this.zeroLocation.altitude = zeroGpsHeight;
     }
     
+    public float getGoalHeight() {
+        return goalHeight;
+    }
+    
     public void setGoalHeight(float height) {
         this.goalHeight = height;
     }
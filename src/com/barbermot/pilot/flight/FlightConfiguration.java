@@ -1,281 +1,925 @@
 package com.barbermot.pilot.flight;
 
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import com.barbermot.pilot.flight.state.AutotuneState.Axis;
+import com.barbermot.pilot.flight.state.FlightState.Type;
 import com.barbermot.pilot.quad.QuadCopter;
 
+/**
+ * FlightConfiguration is an immutable, validated set of all settings. Every
+ * setting has a built in default that can be overridden by a properties file
+ * (FILE) or at run time. Keys are the lower case names of the settings with
+ * dots, e.g. "hover.conf = 57, 0.001, 35000, -600000, 4000000" or
+ * "pin.throttle.out = 12".
+ * 
+ * Changes never modify a configuration: a new one is built from the old
+ * overrides plus the change, validated and swapped in atomically with a new
+ * version. An invalid change leaves the current configuration in place.
+ * 
+ * The flight computer picks up a new version at the start of a tick, states
+ * read it through computer.getConfig(). Gains, limits and thresholds take
+ * effect from there (gains when a state engages its controls); pins, rates,
+ * capacities, threads and files are only read when the system is built.
+ */
 public class FlightConfiguration {
     
-    // Pulse IN
-    private final int             ultraSoundPin                   = 4;
-    private final int             aileronPinIn                    = 28;
-    private final int             rudderPinIn                     = 6;
-    private final int             throttlePinIn                   = 7;
-    private final int             elevatorPinIn                   = 27;
-    private final int             gainPinIn                       = 22;
-    
-    // PWM
-    private final int             aileronPinOut                   = 10;
-    private final int             rudderPinOut                    = 11;
-    private final int             throttlePinOut                  = 12;
-    private final int             elevatorPinOut                  = 13;
-    private final int             throttleMonitorPin              = 29;
-    private final int             gainPinOut                      = 14;
-    
-    // UART
-    private final int             rxPin                           = 9;
-    private final int             txPin                           = 3;
+    // overrides read when the system is built
+    public static final String                              FILE                = "/sdcard/barbermot/flight.properties";
+    
+    // keys of the settings made at run time
+    public static final String                              SIMULATION          = "simulation";
+    public static final String                              CONNECTION_TYPE     = "connection.type";
+    public static final String                              SERIAL_URL          = "serial.url";
+    public static final String                              SERIAL_PORT         = "serial.port";
+    public static final String                              REMOTE_CONTROL_PORT = "remote.control.port";
+    public static final String                              DEFAULT_GAIN        = "default.gain";
+    
+    public enum PinType {
+        ULTRA_SOUND, AILERON_IN, RUDDER_IN, THROTTLE_IN, ELEVATOR_IN, GAIN_IN, AILERON_OUT, RUDDER_OUT, THROTTLE_OUT, ELEVATOR_OUT, GAIN_OUT, RX, TX, THROTTLE_MONITOR
+    };
+    
+    public enum ConnectionType {
+        UART, TCP
+    }
+    
+    private static final Map<PinType, Integer>              DEFAULT_PINS;
+    
+    private static final AtomicReference<FlightConfiguration> current;
+    
+    static {
+        DEFAULT_PINS = new EnumMap<PinType, Integer>(PinType.class);
+        
+        // Pulse IN
+        DEFAULT_PINS.put(PinType.ULTRA_SOUND, 4);
+        DEFAULT_PINS.put(PinType.AILERON_IN, 28);
+        DEFAULT_PINS.put(PinType.RUDDER_IN, 6);
+        DEFAULT_PINS.put(PinType.THROTTLE_IN, 7);
+        DEFAULT_PINS.put(PinType.ELEVATOR_IN, 27);
+        DEFAULT_PINS.put(PinType.GAIN_IN, 22);
+        
+        // PWM
+        DEFAULT_PINS.put(PinType.AILERON_OUT, 10);
+        DEFAULT_PINS.put(PinType.RUDDER_OUT, 11);
+        DEFAULT_PINS.put(PinType.THROTTLE_OUT, 12);
+        DEFAULT_PINS.put(PinType.ELEVATOR_OUT, 13);
+        DEFAULT_PINS.put(PinType.THROTTLE_MONITOR, 29);
+        DEFAULT_PINS.put(PinType.GAIN_OUT, 14);
+        
+        // UART
+        DEFAULT_PINS.put(PinType.RX, 9);
+        DEFAULT_PINS.put(PinType.TX, 3);
+        
+        try {
+            current = new AtomicReference<FlightConfiguration>(
+                    new FlightConfiguration(new Properties(), 0, "defaults"));
+        } catch (ConfigurationException e) {
+            throw new IllegalStateException("Invalid defaults", e);
+        }
+    }
+    
+    private final Properties            properties;
+    private final Set<String>           keys;
+    private final int                   version;
+    private final String                source;
+    
+    private final Map<PinType, Integer> pinMap;
     
     // delay between status messages
-    private static final int      MIN_TIME_STATUS_MESSAGE         = 5000;
+    private final int                   minTimeStatusMessage;
     
     // values for the PID controller
-    private static final float[]  HOVER_CONF                      = { 57f,
-            0.001f, 35000f, -600000f, 4000000f                   };
-    private static final float[]  LANDING_CONF                    = { 0,
-            0.005f, 60000f, -1000000f, 1000000f                  };
-    private static final float[]  ORIENTATION_CONF                = { 50f,
-            0.07f, 350f, -600f, 400f                             };
-    private static final float[]  GPS_CONF                        = { 5.7f,
-            0.0007f, 35000f, -4000f, 4000f                       };
+    private final float[]               hoverConf;
+    private final float[]               landingConf;
+    
+    // tuned when orientation samples were stamped in ns; rescaled to the ms
+    // time base (integral x 1e6, derivative and integral bounds / 1e6) so the
+    // controls react exactly as before
+    private final float[]               orientationConf;
+    
+    // cascaded attitude control: the angle loop turns the angle error into a
+    // rate setpoint (rad/s, limited to maxAngleRate), the rate loop drives
+    // the servos. The rate loop runs every control tick, the angle loop every
+    // angleLoopDivider ticks (read when the controls are built). Roll, pitch
+    // and yaw have their own gains ("roll.angle.conf", set by autotune),
+    // angle.conf and rate.conf are the default for all of them.
+    private final Map<Axis, float[]>    angleConfs;
+    private final Map<Axis, float[]>    rateConfs;
+    private final float                 maxAngleRate;
+    private final int                   angleLoopDivider;
+    
+    private final float[]               gpsConf;
+    
+    // waypoint tracking: the controls chase a point this far (m) ahead on the
+    // leg, a waypoint closer than the acceptance radius (m) is reached
+    private final float                 trackLookahead;
+    private final float                 trackAcceptanceRadius;
+    
+    // relay autotuning: relay amplitude, hysteresis and the error that aborts
+    // the experiment; number of oscillations to average and time limit (ms)
+    private final float[]               autotuneThrottleRelay;
+    private final float[]               autotuneOrientationRelay;
+    private final int                   autotuneCycles;
+    private final long                  autotuneTimeout;
+    
+    // values for the altitude estimator: acceleration noise, ultrasound,
+    // barometer and gps variance, offset gain
+    private final float[]               altitudeConf;
     
     // delay between readings of the ultra sound module
-    private static final int      MIN_TIME_ULTRA_SOUND            = 100;
+    private final int                   minTimeUltraSound;
+    
+    // spike filter for the ultra sound: median window, largest accepted jump
+    // (m) and number of dropped readings before a jump is accepted
+    private final int                   ultraSoundMedian;
+    private final float                 ultraSoundMaxJump;
+    private final int                   ultraSoundMaxRejects;
+    
+    // median window for the barometer
+    private final int                   barometerMedian;
     
     // delay between readings of the gyro
-    private static final int      MIN_TIME_ORIENTATION            = 150;
+    private final int                   minTimeOrientation;
+    
+    // ticks per second of the control loop
+    private final int                   controlFrequency;
     
-    private static final long     MIN_TIME_FLIGHT_COMPUTER        = 100;
+    // slots per sensor ring between the sensor threads and the control loop
+    private final int                   sampleRingCapacity;
     
-    private static final long     MIN_TIME_RC_ENGAGEMENT          = 250;
+    // commands waiting for the control loop
+    private final int                   commandCapacity;
+    
+    // largest mission plan accepted for upload; distance to the goal height
+    // (m) at which a take off is complete
+    private final int                   missionMaxItems;
+    private final float                 missionAltitudeTolerance;
+    
+    private final long                  minTimeRcEngagement;
+    
+    // one rc frame; the pulse input stays open between reads
+    private final int                   minTimeRcPulse;
     
     // initial min/max throttle setting
-    private static final int      MIN_THROTTLE                    = QuadCopter.MIN_SPEED
-                                                                          + (QuadCopter.MAX_SPEED - QuadCopter.MIN_SPEED)
-                                                                          / 3;
-    private static final int      MAX_THROTTLE                    = QuadCopter.MAX_SPEED
-                                                                          - (QuadCopter.MAX_SPEED - QuadCopter.MIN_SPEED)
-                                                                          / 8;
+    private final int                   minThrottle;
+    private final int                   maxThrottle;
     
     // min/max for the automatic control of the aileron and elevator
-    private static final int      MIN_TILT                        = QuadCopter.MIN_SPEED / 2;
-    private static final int      MAX_TILT                        = QuadCopter.MAX_SPEED / 2;
+    private final int                   minTilt;
+    private final int                   maxTilt;
     
     // landings will cut the power once this height is reached
-    private static final float    THROTTLE_OFF_HEIGHT             = 0.1f;
+    private final float                 throttleOffHeight;
     
     // throttle setting for when we don't know the height anymore
-    private static final int      EMERGENCY_DESCENT               = QuadCopter.STOP_SPEED
-                                                                          - (QuadCopter.MAX_SPEED - QuadCopter.MIN_SPEED)
-                                                                          / 20;
-    private static final int      EMERGENCY_DESCENT_DELTA         = 20;
+    private final int                   emergencyDescent;
+    private final int                   emergencyDescentDelta;
+    
+    private final int                   emergencyDelta;
+    
+    private final int                   emergencyDeltaGps;
+    
+    // failsafe watchdog: check interval and the longest silence (ms) of the
+    // height and orientation signals, the control tick and the rc link
+    private final int                   watchdogPeriod;
+    private final int                   watchdogHeightDeadline;
+    private final int                   watchdogOrientationDeadline;
+    private final int                   watchdogTickDeadline;
+    private final int                   watchdogRcDeadline;
+    
+    private final int                   numberThreads;
+    
+    private final int                   minTimeGps;
+    
+    private final int                   minTimeBarometer;
+    
+    // sampling rates the flight states switch between (see SamplingPolicy)
+    private final int                   fastTimeUltraSound;
+    private final int                   slowTimeUltraSound;
+    private final int                   fastTimeOrientation;
+    private final int                   slowTimeOrientation;
+    private final int                   slowTimeGps;
+    private final int                   slowTimeBarometer;
+    
+    private final float                 minSpeed;
+    private final float                 maxSpeed;
+    
+    private final float                 minTiltAngle;
+    private final float                 maxTiltAngle;
+    
+    private final float                 maxHoverHeight;
+    
+    private final float                 calibrationHeight;
+    private final int                   throttleStepForCalibration;
+    private final long                  calibrationTimeStep;
+    private final long                  timeBetweenConnectionRetries;
+    
+    // binary sample trace of all signals
+    private final String                signalTraceFile;
+    
+    // binary trace of all pid updates
+    private final String                pidTraceFile;
+    private final int                   minTimeTraceFlush;
+    
+    // inclusion/exclusion polygons, see GeofenceLoader, and the state
+    // entered on a breach
+    private final String                geofenceFile;
+    private final Type                  geofenceAction;
+    
+    private final boolean               isSimulation;
+    private final ConnectionType        connectionType;
+    private final String                serialUrl;
+    private final int                   serialPort;
+    private final int                   remoteControlPort;
+    private final ConnectionType        remoteControlType;
+    private final int                   defaultGain;
+    
+    private FlightConfiguration(Properties properties, int version,
+            String source) throws ConfigurationException {
+        this.properties = properties;
+        this.keys = new HashSet<String>();
+        this.version = version;
+        this.source = source;
+        
+        Map<PinType, Integer> pins = new EnumMap<PinType, Integer>(
+                PinType.class);
+        for (PinType type : PinType.values()) {
+            pins.put(type, integer("pin."
+                    + type.name().toLowerCase().replace('_', '.'),
+                    DEFAULT_PINS.get(type)));
+        }
+        pinMap = Collections.unmodifiableMap(pins);
+        
+        minTimeStatusMessage = integer("min.time.status.message", 5000);
+        
+        hoverConf = array("hover.conf", new float[] { 57f, 0.001f, 35000f,
+                -600000f, 4000000f });
+        landingConf = array("landing.conf", new float[] { 0, 0.005f, 60000f,
+                -1000000f, 1000000f });
+        orientationConf = array("orientation.conf", new float[] { 50f,
+                70000f, 0.00035f, -0.0006f, 0.0004f });
+        float[] angleConf = array("angle.conf", new float[] { 4f, 0.0002f,
+                0f, -1000f, 1000f });
+        float[] rateConf = array("rate.conf", new float[] { 10f, 0.002f, 2f,
+                -5000f, 5000f });
+        checkPid("angle.conf", angleConf);
+        checkPid("rate.conf", rateConf);
+        angleConfs = new EnumMap<Axis, float[]>(Axis.class);
+        rateConfs = new EnumMap<Axis, float[]>(Axis.class);
+        for (Axis axis : new Axis[] { Axis.ROLL, Axis.PITCH, Axis.YAW }) {
+            angleConfs.put(axis, array(angleKey(axis), angleConf));
+            rateConfs.put(axis, array(rateKey(axis), rateConf));
+        }
+        maxAngleRate = number("max.angle.rate", 2f);
+        angleLoopDivider = integer("angle.loop.divider", 4);
+        gpsConf = array("gps.conf", new float[] { 5.7f, 0.0007f, 35000f,
+                -4000f, 4000f });
+        
+        trackLookahead = number("track.lookahead", 5f);
+        trackAcceptanceRadius = number("track.acceptance.radius", 2f);
+        
+        autotuneThrottleRelay = array("autotune.throttle.relay", new float[] {
+                10f, 0.05f, 1f });
+        autotuneOrientationRelay = array("autotune.orientation.relay",
+                new float[] { 20f, 0.02f, 0.5f });
+        autotuneCycles = integer("autotune.cycles", 4);
+        autotuneTimeout = integer("autotune.timeout", 60000);
+        
+        altitudeConf = array("altitude.conf", new float[] { 2f, 0.0025f,
+                0.25f, 4f, 0.02f });
+        
+        minTimeUltraSound = integer("min.time.ultra.sound", 100);
+        ultraSoundMedian = integer("ultra.sound.median", 3);
+        ultraSoundMaxJump = number("ultra.sound.max.jump", 0.5f);
+        ultraSoundMaxRejects = integer("ultra.sound.max.rejects", 5);
+        barometerMedian = integer("barometer.median", 5);
+        minTimeOrientation = integer("min.time.orientation", 150);
+        controlFrequency = integer("control.frequency", 200);
+        sampleRingCapacity = integer("sample.ring.capacity", 64);
+        commandCapacity = integer("command.capacity", 32);
+        missionMaxItems = integer("mission.max.items", 256);
+        missionAltitudeTolerance = number("mission.altitude.tolerance", 0.2f);
+        minTimeRcEngagement = integer("min.time.rc.engagement", 250);
+        minTimeRcPulse = integer("min.time.rc.pulse", 20);
+        
+        int range = QuadCopter.MAX_SPEED - QuadCopter.MIN_SPEED;
+        minThrottle = integer("min.throttle", QuadCopter.MIN_SPEED + range / 3);
+        maxThrottle = integer("max.throttle", QuadCopter.MAX_SPEED - range / 8);
+        minTilt = integer("min.tilt", QuadCopter.MIN_SPEED / 2);
+        maxTilt = integer("max.tilt", QuadCopter.MAX_SPEED / 2);
+        
+        throttleOffHeight = number("throttle.off.height", 0.1f);
+        emergencyDescent = integer("emergency.descent", QuadCopter.STOP_SPEED
+                - range / 20);
+        emergencyDescentDelta = integer("emergency.descent.delta", 20);
+        emergencyDelta = integer("emergency.delta", 1000);
+        emergencyDeltaGps = integer("emergency.delta.gps", 10000);
+        
+        watchdogPeriod = integer("watchdog.period", 10);
+        watchdogHeightDeadline = integer("watchdog.height.deadline",
+                emergencyDelta);
+        watchdogOrientationDeadline = integer("watchdog.orientation.deadline",
+                emergencyDelta);
+        watchdogTickDeadline = integer("watchdog.tick.deadline", 50);
+        watchdogRcDeadline = integer("watchdog.rc.deadline", 1000);
+        
+        numberThreads = integer("number.threads", 6);
+        minTimeGps = integer("min.time.gps", 100);
+        minTimeBarometer = integer("min.time.barometer", 50);
+        fastTimeUltraSound = integer("fast.time.ultra.sound", 50);
+        slowTimeUltraSound = integer("slow.time.ultra.sound", 500);
+        fastTimeOrientation = integer("fast.time.orientation", 0);
+        slowTimeOrientation = integer("slow.time.orientation", 100);
+        slowTimeGps = integer("slow.time.gps", 1000);
+        slowTimeBarometer = integer("slow.time.barometer", 500);
+        
+        minSpeed = number("min.speed", -100);
+        maxSpeed = number("max.speed", 100);
+        minTiltAngle = number("min.tilt.angle", (float) (-Math.PI / 4f));
+        maxTiltAngle = number("max.tilt.angle", (float) (Math.PI / 4f));
+        maxHoverHeight = number("max.hover.height", 3);
+        
+        calibrationHeight = number("calibration.height", 0.05f);
+        throttleStepForCalibration = integer("throttle.step.for.calibration",
+                5);
+        calibrationTimeStep = integer("calibration.time.step", 500);
+        timeBetweenConnectionRetries = integer(
+                "time.between.connection.retries", 1000);
+        
+        signalTraceFile = text("signal.trace.file",
+                "/sdcard/barbermot/signal.bin");
+        pidTraceFile = text("pid.trace.file", "/sdcard/barbermot/pid.bin");
+        minTimeTraceFlush = integer("min.time.trace.flush", 1000);
+        geofenceFile = text("geofence.file", "/sdcard/barbermot/fence.txt");
+        geofenceAction = type("geofence.action", Type.LANDING);
+        
+        isSimulation = Boolean.parseBoolean(text(SIMULATION, "false"));
+        connectionType = connection(CONNECTION_TYPE, ConnectionType.TCP);
+        serialUrl = text(SERIAL_URL, null);
+        serialPort = integer(SERIAL_PORT, 0);
+        remoteControlPort = integer(REMOTE_CONTROL_PORT, 0);
+        remoteControlType = connection("remote.control.type",
+                ConnectionType.TCP);
+        defaultGain = integer(DEFAULT_GAIN, QuadCopter.STOP_SPEED);
+        
+        validate();
+    }
+    
+    /*
+     * Checks the values that can be wrong on their own or together.
+     */
+    private void validate() throws ConfigurationException {
+        for (Object key : properties.keySet()) {
+            if (!keys.contains(key)) {
+                throw new ConfigurationException("Unknown setting: " + key);
+            }
+        }
+        
+        Set<Integer> used = new HashSet<Integer>();
+        for (PinType type : PinType.values()) {
+            int pin = pinMap.get(type);
+            check(pin >= 1 && pin <= 48, "pin " + type + " out of range");
+            check(used.add(pin), "pin " + pin + " used twice");
+        }
+        
+        checkPid("hover.conf", hoverConf);
+        checkPid("landing.conf", landingConf);
+        checkPid("orientation.conf", orientationConf);
+        for (Axis axis : angleConfs.keySet()) {
+            checkPid(angleKey(axis), angleConfs.get(axis));
+            checkPid(rateKey(axis), rateConfs.get(axis));
+        }
+        checkPid("gps.conf", gpsConf);
+        checkRelay("autotune.throttle.relay", autotuneThrottleRelay);
+        checkRelay("autotune.orientation.relay", autotuneOrientationRelay);
+        check(altitudeConf.length == 5, "altitude.conf needs 5 values");
+        for (float value : altitudeConf) {
+            check(value >= 0, "altitude.conf must not be negative");
+        }
+        
+        check(controlFrequency > 0 && controlFrequency <= 1000,
+                "control.frequency out of range");
+        check(angleLoopDivider > 0 && angleLoopDivider <= controlFrequency,
+                "angle.loop.divider out of range");
+        check(sampleRingCapacity > 0 && commandCapacity > 0,
+                "capacities must be positive");
+        check(missionMaxItems > 0 && missionMaxItems <= Short.MAX_VALUE,
+                "mission.max.items out of range");
+        check(numberThreads > 0, "number.threads must be positive");
+        check(minTimeUltraSound > 0 && minTimeOrientation > 0
+                && minTimeGps > 0 && minTimeBarometer > 0
+                && minTimeRcPulse > 0 && minTimeRcEngagement > 0
+                && minTimeStatusMessage > 0 && minTimeTraceFlush > 0,
+                "sample intervals must be positive");
+        check(fastTimeUltraSound >= 0 && slowTimeUltraSound >= 0
+                && fastTimeOrientation >= 0 && slowTimeOrientation >= 0
+                && slowTimeGps >= 0 && slowTimeBarometer >= 0,
+                "sample intervals must not be negative");
+        check(watchdogPeriod > 0 && watchdogHeightDeadline > watchdogPeriod
+                && watchdogOrientationDeadline > watchdogPeriod
+                && watchdogTickDeadline > watchdogPeriod
+                && watchdogRcDeadline > watchdogPeriod,
+                "watchdog deadlines must be longer than its period");
+        check(emergencyDelta > 0 && emergencyDeltaGps > 0,
+                "emergency deltas must be positive");
+        check(ultraSoundMedian > 0 && barometerMedian > 0,
+                "median windows must be positive");
+        check(autotuneCycles > 0 && autotuneTimeout > 0,
+                "autotune cycles and timeout must be positive");
+        
+        check(minThrottle < maxThrottle, "min.throttle >= max.throttle");
+        check(minTilt < maxTilt, "min.tilt >= max.tilt");
+        check(minSpeed < maxSpeed, "min.speed >= max.speed");
+        check(minTiltAngle < maxTiltAngle, "min.tilt.angle >= max.tilt.angle");
+        check(maxHoverHeight > 0 && throttleOffHeight >= 0
+                && calibrationHeight > 0, "heights out of range");
+        check(trackLookahead > 0 && trackAcceptanceRadius > 0,
+                "track distances must be positive");
+    }
+    
+    private static void checkPid(String key, float[] conf)
+            throws ConfigurationException {
+        check(conf.length == 5, key + " needs 5 values");
+        check(conf[3] <= conf[4], key + ": min integral above max");
+    }
+    
+    private static void checkRelay(String key, float[] conf)
+            throws ConfigurationException {
+        check(conf.length == 3, key + " needs 3 values");
+        check(conf[0] > 0 && conf[1] >= 0 && conf[2] > 0, key
+                + " out of range");
+    }
+    
+    private static void check(boolean condition, String message)
+            throws ConfigurationException {
+        if (!condition) {
+            throw new ConfigurationException(message);
+        }
+    }
+    
+    private String text(String key, String defaultValue) {
+        keys.add(key);
+        String value = properties.getProperty(key);
+        return value == null ? defaultValue : value.trim();
+    }
+    
+    private int integer(String key, int defaultValue)
+            throws ConfigurationException {
+        String value = text(key, null);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(key + ": not an integer", e);
+        }
+    }
+    
+    private float number(String key, float defaultValue)
+            throws ConfigurationException {
+        String value = text(key, null);
+        try {
+            return value == null ? defaultValue : Float.parseFloat(value);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(key + ": not a number", e);
+        }
+    }
+    
+    private float[] array(String key, float[] defaultValue)
+            throws ConfigurationException {
+        String value = text(key, null);
+        if (value == null) {
+            return defaultValue;
+        }
+        String[] fields = value.split("\\s*,\\s*");
+        float[] result = new float[fields.length];
+        try {
+            for (int i = 0; i < fields.length; ++i) {
+                result[i] = Float.parseFloat(fields[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException(key + ": not a list of numbers",
+                    e);
+        }
+        return result;
+    }
+    
+    private Type type(String key, Type defaultValue)
+            throws ConfigurationException {
+        String value = text(key, null);
+        try {
+            return value == null ? defaultValue : Type.valueOf(value
+                    .toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(key + ": unknown state", e);
+        }
+    }
+    
+    private ConnectionType connection(String key, ConnectionType defaultValue)
+            throws ConfigurationException {
+        String value = text(key, null);
+        try {
+            return value == null ? defaultValue : ConnectionType.valueOf(value
+                    .toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new ConfigurationException(key + ": unknown connection", e);
+        }
+    }
+    
+    /**
+     * @return The current configuration
+     */
+    public static FlightConfiguration get() {
+        return current.get();
+    }
+    
+    /**
+     * load reads overrides from a properties file on top of the current
+     * configuration and swaps the result in.
+     * 
+     * @return The new configuration
+     * @throws ConfigurationException
+     *             If the result is invalid, the current configuration stays
+     */
+    public static FlightConfiguration load(String file) throws IOException,
+            ConfigurationException {
+        Properties changes = new Properties();
+        InputStream in = new FileInputStream(file);
+        try {
+            changes.load(in);
+        } finally {
+            in.close();
+        }
+        return swap(changes, file);
+    }
+    
+    /**
+     * update changes one setting and swaps the result in.
+     * 
+     * @return The new configuration
+     * @throws ConfigurationException
+     *             If the result is invalid, the current configuration stays
+     */
+    public static FlightConfiguration update(String key, String value)
+            throws ConfigurationException {
+        Properties changes = new Properties();
+        changes.setProperty(key, value);
+        return swap(changes, key);
+    }
+    
+    /**
+     * update changes several settings at once and swaps the result in.
+     * 
+     * @return The new configuration
+     * @throws ConfigurationException
+     *             If the result is invalid, the current configuration stays
+     */
+    public static FlightConfiguration update(Properties changes)
+            throws ConfigurationException {
+        return swap(changes, "update");
+    }
+    
+    /**
+     * @return The values as a list setting, e.g. for update("hover.conf", ...)
+     */
+    public static String format(float[] values) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(values[i]);
+        }
+        return builder.toString();
+    }
+    
+    /**
+     * @return Key of the angle loop gains of a cascaded axis (roll, pitch or
+     *         yaw)
+     */
+    public static String angleKey(Axis axis) {
+        return axis.name().toLowerCase() + ".angle.conf";
+    }
+    
+    /**
+     * @return Key of the rate loop gains of a cascaded axis (roll, pitch or
+     *         yaw)
+     */
+    public static String rateKey(Axis axis) {
+        return axis.name().toLowerCase() + ".rate.conf";
+    }
+    
+    private static FlightConfiguration swap(Properties changes, String source)
+            throws ConfigurationException {
+        while (true) {
+            FlightConfiguration last = current.get();
+            Properties properties = new Properties();
+            properties.putAll(last.properties);
+            properties.putAll(changes);
+            
+            FlightConfiguration next = new FlightConfiguration(properties,
+                    last.version + 1, source);
+            if (current.compareAndSet(last, next)) {
+                return next;
+            }
+        }
+    }
+    
+    public int getVersion() {
+        return version;
+    }
+    
+    public String getSource() {
+        return source;
+    }
     
-    private static final int      EMERGENCY_DELTA                 = 1000;
+    public Map<PinType, Integer> getPinMap() {
+        return pinMap;
+    }
     
-    private static final int      EMERGENCY_DELTA_GPS             = 10000;
+    public int getMinTimeStatusMessage() {
+        return minTimeStatusMessage;
+    }
     
-    private static final int      NUM_THREADS                     = 6;
+    public float[] getHoverConf() {
+        return hoverConf.clone();
+    }
     
-    private static final int      MIN_TIME_GPS                    = 100;
+    public float[] getLandingConf() {
+        return landingConf.clone();
+    }
     
-    private static final float    MIN_SPEED                       = -100;
-    private static final float    MAX_SPEED                       = 100;
+    public float[] getOrientationConf() {
+        return orientationConf.clone();
+    }
     
-    private static final float    MIN_TILT_ANGLE                  = (float) (-Math.PI / 4f);
-    private static final float    MAX_TILT_ANGLE                  = (float) (Math.PI / 4f);
+    /**
+     * @return Gains of the angle loop of roll, pitch or yaw
+     */
+    public float[] getAngleConf(Axis axis) {
+        return angleConfs.get(axis).clone();
+    }
     
-    private static final float    MAX_HOVER_HEIGHT                = 3;
+    /**
+     * @return Gains of the rate loop of roll, pitch or yaw
+     */
+    public float[] getRateConf(Axis axis) {
+        return rateConfs.get(axis).clone();
+    }
     
-    private static final float    CALIBRATION_HEIGHT              = 0.05f;
-    private static final int      THROTTLE_STEP_FOR_CALIBRATION   = 5;
-    private static final long     CALIBRATION_TIME_STEP           = 500;
-    private static final long     TIME_BETWEEN_CONNECTION_RETRIES = 1000;
+    public float getMaxAngleRate() {
+        return maxAngleRate;
+    }
     
-    private Map<PinType, Integer> pinMap;
+    public int getAngleLoopDivider() {
+        return angleLoopDivider;
+    }
     
-    private boolean               isSimulation;
-    private ConnectionType        connectionType                  = ConnectionType.TCP;
-    private String                serialUrl;
-    private int                   serialPort;
-    private int                   remoteControlPort;
-    private ConnectionType        remoteControlType               = ConnectionType.TCP;
-    private int                   defaultGain                     = QuadCopter.STOP_SPEED;
+    public float[] getGpsConf() {
+        return gpsConf.clone();
+    }
     
-    public enum PinType {
-        ULTRA_SOUND, AILERON_IN, RUDDER_IN, THROTTLE_IN, ELEVATOR_IN, GAIN_IN, AILERON_OUT, RUDDER_OUT, THROTTLE_OUT, ELEVATOR_OUT, GAIN_OUT, RX, TX, THROTTLE_MONITOR
-    };
+    public float getTrackLookahead() {
+        return trackLookahead;
+    }
     
-    public enum ConnectionType {
-        UART, TCP
+    public float getTrackAcceptanceRadius() {
+        return trackAcceptanceRadius;
     }
     
-    private static FlightConfiguration config;
+    public float[] getAutotuneThrottleRelay() {
+        return autotuneThrottleRelay.clone();
+    }
     
-    private FlightConfiguration() {
-        pinMap = new EnumMap<PinType, Integer>(PinType.class);
-        pinMap.put(PinType.ULTRA_SOUND, ultraSoundPin);
-        pinMap.put(PinType.AILERON_IN, aileronPinIn);
-        pinMap.put(PinType.RUDDER_IN, rudderPinIn);
-        pinMap.put(PinType.THROTTLE_IN, throttlePinIn);
-        pinMap.put(PinType.ELEVATOR_IN, elevatorPinIn);
-        pinMap.put(PinType.GAIN_IN, gainPinIn);
-        pinMap.put(PinType.AILERON_OUT, aileronPinOut);
-        pinMap.put(PinType.RUDDER_OUT, rudderPinOut);
-        pinMap.put(PinType.THROTTLE_OUT, throttlePinOut);
-        pinMap.put(PinType.ELEVATOR_OUT, elevatorPinOut);
-        pinMap.put(PinType.GAIN_OUT, gainPinOut);
-        pinMap.put(PinType.RX, rxPin);
-        pinMap.put(PinType.TX, txPin);
-        pinMap.put(PinType.THROTTLE_MONITOR, throttleMonitorPin);
+    public float[] getAutotuneOrientationRelay() {
+        return autotuneOrientationRelay.clone();
     }
     
-    public static FlightConfiguration get() {
-        return config == null ? (config = new FlightConfiguration()) : config;
+    public int getAutotuneCycles() {
+        return autotuneCycles;
     }
     
-    public Map<PinType, Integer> getPinMap() {
-        return pinMap;
+    public long getAutotuneTimeout() {
+        return autotuneTimeout;
     }
     
-    public int getMinTimeStatusMessage() {
-        return MIN_TIME_STATUS_MESSAGE;
+    public float[] getAltitudeConf() {
+        return altitudeConf.clone();
     }
     
-    public float[] getHoverConf() {
-        return HOVER_CONF;
+    public int getMinTimeUltraSound() {
+        return minTimeUltraSound;
     }
     
-    public float[] getLandingConf() {
-        return LANDING_CONF;
+    public int getUltraSoundMedian() {
+        return ultraSoundMedian;
     }
     
-    public float[] getOrientationConf() {
-        return ORIENTATION_CONF;
+    public float getUltraSoundMaxJump() {
+        return ultraSoundMaxJump;
     }
     
-    public float[] getGpsConf() {
-        return GPS_CONF;
+    public int getUltraSoundMaxRejects() {
+        return ultraSoundMaxRejects;
     }
     
-    public int getMinTimeUltraSound() {
-        return MIN_TIME_ULTRA_SOUND;
+    public int getBarometerMedian() {
+        return barometerMedian;
     }
     
     public int getMinTimeOrientation() {
-        return MIN_TIME_ORIENTATION;
+        return minTimeOrientation;
     }
     
     public int getMinThrottle() {
-        return MIN_THROTTLE;
+        return minThrottle;
     }
     
     public int getMaxThrottle() {
-        return MAX_THROTTLE;
+        return maxThrottle;
     }
     
     public int getMinTilt() {
-        return MIN_TILT;
+        return minTilt;
     }
     
     public int getMaxTilt() {
-        return MAX_TILT;
+        return maxTilt;
     }
     
     public float getThrottleOffHeight() {
-        return THROTTLE_OFF_HEIGHT;
+        return throttleOffHeight;
     }
     
     public int getEmergencyDescent() {
-        return EMERGENCY_DESCENT;
+        return emergencyDescent;
     }
     
     public int getEmergencyDescentDelta() {
-        return EMERGENCY_DESCENT_DELTA;
+        return emergencyDescentDelta;
     }
     
     public int getEmergencyDelta() {
-        return EMERGENCY_DELTA;
+        return emergencyDelta;
+    }
+    
+    public int getWatchdogPeriod() {
+        return watchdogPeriod;
+    }
+    
+    public int getWatchdogHeightDeadline() {
+        return watchdogHeightDeadline;
+    }
+    
+    public int getWatchdogOrientationDeadline() {
+        return watchdogOrientationDeadline;
+    }
+    
+    public int getWatchdogTickDeadline() {
+        return watchdogTickDeadline;
+    }
+    
+    public int getWatchdogRcDeadline() {
+        return watchdogRcDeadline;
     }
     
     public int getEmergencyDeltaGps() {
-        return EMERGENCY_DELTA_GPS;
+        return emergencyDeltaGps;
     }
     
     public int getNumberThreads() {
-        return NUM_THREADS;
+        return numberThreads;
+    }
+    
+    public int getControlFrequency() {
+        return controlFrequency;
     }
     
-    public long getMinTimeFlightComputer() {
-        return MIN_TIME_FLIGHT_COMPUTER;
+    public int getCommandCapacity() {
+        return commandCapacity;
+    }
+    
+    public int getMissionMaxItems() {
+        return missionMaxItems;
+    }
+    
+    public float getMissionAltitudeTolerance() {
+        return missionAltitudeTolerance;
+    }
+    
+    public int getSampleRingCapacity() {
+        return sampleRingCapacity;
     }
     
     public long getMinTimeRcEngagement() {
-        return MIN_TIME_RC_ENGAGEMENT;
+        return minTimeRcEngagement;
+    }
+    
+    public int getMinTimeRcPulse() {
+        return minTimeRcPulse;
     }
     
     public int getMinTimeGps() {
-        return MIN_TIME_GPS;
+        return minTimeGps;
+    }
+    
+    public int getMinTimeBarometer() {
+        return minTimeBarometer;
+    }
+    
+    public int getFastTimeUltraSound() {
+        return fastTimeUltraSound;
+    }
+    
+    public int getSlowTimeUltraSound() {
+        return slowTimeUltraSound;
+    }
+    
+    public int getFastTimeOrientation() {
+        return fastTimeOrientation;
+    }
+    
+    public int getSlowTimeOrientation() {
+        return slowTimeOrientation;
+    }
+    
+    public int getSlowTimeGps() {
+        return slowTimeGps;
+    }
+    
+    public int getSlowTimeBarometer() {
+        return slowTimeBarometer;
     }
     
     public float getMinSpeed() {
-        return MIN_SPEED;
+        return minSpeed;
     }
     
     public float getMaxSpeed() {
-        return MAX_SPEED;
+        return maxSpeed;
     }
     
     public float getMaxTiltAngle() {
-        return MAX_TILT_ANGLE;
+        return maxTiltAngle;
     }
     
     public float getMinTiltAngle() {
-        return MIN_TILT_ANGLE;
+        return minTiltAngle;
     }
     
     public float getCalibrationHeight() {
-        return CALIBRATION_HEIGHT;
+        return calibrationHeight;
     }
     
     public int getThrottleStepForCalibration() {
-        return THROTTLE_STEP_FOR_CALIBRATION;
+        return throttleStepForCalibration;
     }
     
     public float getMaxHoverHeight() {
-        return MAX_HOVER_HEIGHT;
+        return maxHoverHeight;
     }
     
     public long getCalibrationTimeStep() {
-        return CALIBRATION_TIME_STEP;
+        return calibrationTimeStep;
     }
     
-    public void setSimulation(boolean isSimulation) {
-        this.isSimulation = isSimulation;
+    public String getSignalTraceFile() {
+        return signalTraceFile;
     }
     
-    public boolean isSimulation() {
-        return isSimulation;
+    public String getPidTraceFile() {
+        return pidTraceFile;
     }
     
-    public void setConnectionType(ConnectionType connectionType) {
-        this.connectionType = connectionType;
+    public String getGeofenceFile() {
+        return geofenceFile;
     }
     
-    public ConnectionType getConnectionType() {
-        return connectionType;
+    public Type getGeofenceAction() {
+        return geofenceAction;
     }
     
-    public void setSerialUrl(String serialUrl) {
-        this.serialUrl = serialUrl;
+    public int getMinTimeTraceFlush() {
+        return minTimeTraceFlush;
     }
     
-    public String getSerialUrl() {
-        return serialUrl;
+    public boolean isSimulation() {
+        return isSimulation;
+    }
+    
+    public ConnectionType getConnectionType() {
+        return connectionType;
     }
     
-    public void setSerialPort(int serialPort) {
-        this.serialPort = serialPort;
+    public String getSerialUrl() {
+        return serialUrl;
     }
     
     public int getSerialPort() {
@@ -283,11 +927,7 @@ public class FlightConfiguration {
     }
     
     public long getWaitBetweenConnectionRetries() {
-        return TIME_BETWEEN_CONNECTION_RETRIES;
-    }
-    
-    public void setRemoteControlPort(int port) {
-        remoteControlPort = port;
+        return timeBetweenConnectionRetries;
     }
     
     public int getRemoteControlPort() {
@@ -302,7 +942,8 @@ public class FlightConfiguration {
         return defaultGain;
     }
     
-    public void setDefaultGain(int gain) {
-        defaultGain = gain;
+    @Override
+    public String toString() {
+        return "version " + version + " (" + source + ")";
     }
 }
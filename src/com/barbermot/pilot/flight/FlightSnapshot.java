@@ -0,0 +1,52 @@
+package com.barbermot.pilot.flight;
+
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * FlightSnapshot is a copy of the state of the flight computer at the end of
+ * one tick. Readers on other threads (logger, watchdog) keep an instance of
+ * their own and refresh it with FlightComputer.getSnapshot, which copies
+ * the values of the last tick as one consistent set without locking the
+ * control path. Neither side allocates per tick.
+ */
+public class FlightSnapshot {
+    
+    public long  tick;
+    public long  time;
+    public Type  state;
+    public char  controlMask;
+    
+    public float height;
+    public float altitude;
+    public float verticalSpeed;
+    public float goalHeight;
+    
+    public float longitudinalDisplacement;
+    public float lateralDisplacement;
+    public float heading;
+    
+    public float gpsHeight;
+    public float latitude;
+    public float longitude;
+    
+    public int   throttle;
+    public int   elevator;
+    public int   aileron;
+    public int   rudder;
+    
+    /**
+     * One line of tab separated values: state, time (ms), rc mask, height,
+     * fused altitude, vertical speed, forward and sideways angle, heading,
+     * gps height, latitude, longitude and the servo outputs.
+     */
+    @Override
+    public String toString() {
+        return String
+                .format("st: %s\tms: %d\trc: %h\th: %f\talt: %f\tvz: %f\tdy: %f\tdx: %f\tdz: %f\tgh: %f\tlat: %f\tlon: %f\tt: %d\te: %d\ta: %d\tr: %d",
+                        state, Clock.millis(time), controlMask, height,
+                        altitude, verticalSpeed, longitudinalDisplacement,
+                        lateralDisplacement, heading, gpsHeight, latitude,
+                        longitude, throttle, elevator, aileron, rudder);
+    }
+}
@@ -147,6 +147,12 @@ public class FlightThread extends Thread {
                     logger.warn("Timeout while shutting down.");
                 }
             }
+            if (computer != null && computer.getControlLoop() != null) {
+                if (!computer.getControlLoop().awaitTermination(60,
+                        TimeUnit.SECONDS)) {
+                    logger.warn("Timeout while shutting down control loop.");
+                }
+            }
         } catch (InterruptedException e) {
             logger.info("InterruptedException caught");
         }
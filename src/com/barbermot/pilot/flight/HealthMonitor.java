@@ -0,0 +1,96 @@
+package com.barbermot.pilot.flight;
+
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_HEIGHT;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_LAT;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.GPS_LON;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.PITCH;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.ROLL;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.ULTRASOUND;
+import static com.barbermot.pilot.flight.HealthMonitor.Channel.YAW;
+
+import java.util.EnumMap;
+
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.Signal;
+import com.barbermot.pilot.signal.SignalHealth;
+
+/**
+ * HealthMonitor keeps the health of every signal the flight computer relies
+ * on. The state guards ask it whether a group of signals is still alive and
+ * the logger exports the statistics.
+ */
+public class HealthMonitor {
+    
+    public enum Channel {
+        ULTRASOUND, ROLL, PITCH, YAW, GPS_HEIGHT, GPS_LAT, GPS_LON, BAROMETER
+    };
+    
+    private EnumMap<Channel, SignalHealth> map;
+    private FlightConfiguration            config;
+    
+    public HealthMonitor() {
+        map = new EnumMap<Channel, SignalHealth>(Channel.class);
+        config = FlightConfiguration.get();
+    }
+    
+    /**
+     * Creates the health of a channel. The returned listener has to be
+     * registered with the samples of the source.
+     */
+    public SignalHealth add(Channel channel, Signal source) {
+        SignalHealth health = new SignalHealth(channel.name().toLowerCase(),
+                source);
+        map.put(channel, health);
+        return health;
+    }
+    
+    public void setConfiguration(FlightConfiguration config) {
+        this.config = config;
+    }
+    
+    public SignalHealth get(Channel channel) {
+        return map.get(channel);
+    }
+    
+    /**
+     * @return true if the channel delivered a sample less than timeout ns
+     *         before time
+     */
+    public boolean isAlive(Channel channel, long time, long timeout) {
+        SignalHealth health = map.get(channel);
+        return health != null && health.isAlive(time, timeout);
+    }
+    
+    public boolean hasHeightSignal(long time) {
+        long timeout = Clock.nanos(config.getEmergencyDelta());
+        return isAlive(ULTRASOUND, time, timeout);
+    }
+    
+    public boolean hasOrientationSignal(long time) {
+        long timeout = Clock.nanos(config.getEmergencyDelta());
+        return isAlive(ROLL, time, timeout) && isAlive(PITCH, time, timeout)
+                && isAlive(YAW, time, timeout);
+    }
+    
+    public boolean hasGpsSignal(long time) {
+        long timeout = Clock.nanos(config.getEmergencyDeltaGps());
+        return isAlive(GPS_HEIGHT, time, timeout)
+                && isAlive(GPS_LAT, time, timeout)
+                && isAlive(GPS_LON, time, timeout);
+    }
+    
+    /**
+     * @return One line of statistics per channel
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (SignalHealth health : map.values()) {
+            if (sb.length() > 0) {
+                sb.append('\n');
+            }
+            sb.append("health: ").append(health);
+        }
+        return sb.toString();
+    }
+}
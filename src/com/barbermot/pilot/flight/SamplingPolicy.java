@@ -0,0 +1,87 @@
+package com.barbermot.pilot.flight;
+
+import static com.barbermot.pilot.flight.state.FlightState.Type.AUTOTUNE;
+import static com.barbermot.pilot.flight.state.FlightState.Type.CALIBRATION;
+import static com.barbermot.pilot.flight.state.FlightState.Type.EMERGENCY_LANDING;
+import static com.barbermot.pilot.flight.state.FlightState.Type.FAILED;
+import static com.barbermot.pilot.flight.state.FlightState.Type.GROUND;
+import static com.barbermot.pilot.flight.state.FlightState.Type.LANDING;
+import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_HOLD;
+import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_TRACK;
+import static com.barbermot.pilot.signal.SignalGroup.BAROMETER;
+import static com.barbermot.pilot.signal.SignalGroup.GPS;
+import static com.barbermot.pilot.signal.SignalGroup.ORIENTATION;
+import static com.barbermot.pilot.signal.SignalGroup.ULTRASOUND;
+
+import java.util.EnumMap;
+
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.signal.SignalGroup;
+import com.barbermot.pilot.signal.SignalManager;
+
+/**
+ * SamplingPolicy changes the sampling intervals of the signals with the flight
+ * state. Everything is sampled slowly on the ground, the ultrasound is fast
+ * close to the ground (calibration, landings) and while autotuning, gps is
+ * fast while navigating. Only intervals that differ from the previous state
+ * are changed.
+ */
+public class SamplingPolicy {
+    
+    private SignalManager        manager;
+    private EnumMap<Type, int[]> intervals;
+    private int[]                current;
+    
+    public SamplingPolicy(SignalManager manager) {
+        this.manager = manager;
+        
+        FlightConfiguration config = FlightConfiguration.get();
+        
+        intervals = new EnumMap<Type, int[]>(Type.class);
+        for (Type t : Type.values()) {
+            int[] interval = new int[SignalGroup.values().length];
+            interval[ULTRASOUND.ordinal()] = config.getMinTimeUltraSound();
+            interval[ORIENTATION.ordinal()] = config.getFastTimeOrientation();
+            interval[GPS.ordinal()] = config.getSlowTimeGps();
+            interval[BAROMETER.ordinal()] = config.getMinTimeBarometer();
+            intervals.put(t, interval);
+        }
+        
+        for (Type t : new Type[] { GROUND, FAILED }) {
+            setInterval(t, ULTRASOUND, config.getSlowTimeUltraSound());
+            setInterval(t, ORIENTATION, config.getSlowTimeOrientation());
+            setInterval(t, BAROMETER, config.getSlowTimeBarometer());
+        }
+        
+        for (Type t : new Type[] { CALIBRATION, LANDING, EMERGENCY_LANDING,
+                AUTOTUNE }) {
+            setInterval(t, ULTRASOUND, config.getFastTimeUltraSound());
+        }
+        
+        for (Type t : new Type[] { WAYPOINT_HOLD, WAYPOINT_TRACK }) {
+            setInterval(t, GPS, config.getMinTimeGps());
+        }
+    }
+    
+    public void setInterval(Type type, SignalGroup group, int interval) {
+        intervals.get(type)[group.ordinal()] = interval;
+    }
+    
+    public int getInterval(Type type, SignalGroup group) {
+        return intervals.get(type)[group.ordinal()];
+    }
+    
+    /**
+     * Switches the signals to the intervals of the given flight state.
+     */
+    public void apply(Type type) {
+        int[] next = intervals.get(type);
+        for (SignalGroup group : SignalGroup.values()) {
+            int i = group.ordinal();
+            if (current == null || current[i] != next[i]) {
+                manager.setInterval(group, next[i]);
+            }
+        }
+        current = next;
+    }
+}
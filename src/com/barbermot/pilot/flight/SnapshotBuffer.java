@@ -0,0 +1,126 @@
+package com.barbermot.pilot.flight;
+
+import static com.barbermot.pilot.quad.QuadCopter.Direction.LATERAL;
+import static com.barbermot.pilot.quad.QuadCopter.Direction.LONGITUDINAL;
+import static com.barbermot.pilot.quad.QuadCopter.Direction.ROTATIONAL;
+import static com.barbermot.pilot.quad.QuadCopter.Direction.VERTICAL;
+
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.quad.QuadCopter;
+
+/**
+ * SnapshotBuffer is the one preallocated copy of the flight state the control
+ * loop writes at the end of every tick, guarded by a seqlock: the writer makes
+ * the sequence odd, stores the values and makes it even again. A reader
+ * copies the values into its own FlightSnapshot and retries if the sequence
+ * was odd or changed meanwhile.
+ * 
+ * All fields are volatile. Volatile accesses are never reordered against each
+ * other, which is what keeps the copy between the two reads of the sequence;
+ * with plain fields the reads could move past the second one.
+ */
+class SnapshotBuffer {
+    
+    private volatile int   sequence;
+    
+    private volatile long  tick;
+    private volatile long  time;
+    private volatile Type  state;
+    private volatile char  controlMask;
+    
+    private volatile float height;
+    private volatile float altitude;
+    private volatile float verticalSpeed;
+    private volatile float goalHeight;
+    
+    private volatile float longitudinalDisplacement;
+    private volatile float lateralDisplacement;
+    private volatile float heading;
+    
+    private volatile float gpsHeight;
+    private volatile float latitude;
+    private volatile float longitude;
+    
+    private volatile int   throttle;
+    private volatile int   elevator;
+    private volatile int   aileron;
+    private volatile int   rudder;
+    
+    /**
+     * Reads all values, may only be called on the control loop.
+     * 
+     * @param outputs
+     *            The servos as written
+     */
+    void write(long tick, FlightComputer computer, QuadCopter outputs) {
+        sequence = sequence + 1;
+        
+        this.tick = tick;
+        this.time = computer.getTime();
+        this.state = computer.getState().getType();
+        this.controlMask = computer.getRc().getControlMask();
+        
+        this.height = computer.getHeight();
+        this.altitude = computer.getAltitude();
+        this.verticalSpeed = computer.getVerticalSpeed();
+        this.goalHeight = computer.getGoalHeight();
+        
+        this.longitudinalDisplacement = computer.getLongitudinalDisplacement();
+        this.lateralDisplacement = computer.getLateralDisplacement();
+        this.heading = computer.getHeading();
+        
+        this.gpsHeight = computer.getGpsHeight();
+        this.latitude = computer.getLatitude();
+        this.longitude = computer.getLongitude();
+        
+        this.throttle = outputs.read(VERTICAL);
+        this.elevator = outputs.read(LONGITUDINAL);
+        this.aileron = outputs.read(LATERAL);
+        this.rudder = outputs.read(ROTATIONAL);
+        
+        sequence = sequence + 1;
+    }
+    
+    /**
+     * Copies the values of the last write, from any thread.
+     * 
+     * @return false if nothing was written yet
+     */
+    boolean read(FlightSnapshot into) {
+        while (true) {
+            int before = sequence;
+            if ((before & 1) == 0) {
+                into.tick = tick;
+                into.time = time;
+                into.state = state;
+                into.controlMask = controlMask;
+                
+                into.height = height;
+                into.altitude = altitude;
+                into.verticalSpeed = verticalSpeed;
+                into.goalHeight = goalHeight;
+                
+                into.longitudinalDisplacement = longitudinalDisplacement;
+                into.lateralDisplacement = lateralDisplacement;
+                into.heading = heading;
+                
+                into.gpsHeight = gpsHeight;
+                into.latitude = latitude;
+                into.longitude = longitude;
+                
+                into.throttle = throttle;
+                into.elevator = elevator;
+                into.aileron = aileron;
+                into.rudder = rudder;
+                
+                if (sequence == before) {
+                    return before != 0;
+                }
+            }
+            
+            // the writer is in the middle of a tick, it takes well under a
+            // microsecond
+            Thread.yield();
+        }
+    }
+}
@@ -2,9 +2,12 @@ package com.barbermot.pilot.flight;
 
 public class Waypoint implements Cloneable {
     
-    public float altitude;
-    public float latitude;
-    public float longitude;
+    // meters per degree of latitude, and of longitude at the equator
+    public static final float METERS_PER_DEGREE = 111320f;
+    
+    public float              altitude;
+    public float              latitude;
+    public float              longitude;
     
     public Waypoint(float alt, float lat, float lon) {
         altitude = alt;
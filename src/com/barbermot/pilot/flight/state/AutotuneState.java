@@ -0,0 +1,194 @@
+package com.barbermot.pilot.flight.state;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.EnumMap;
+import java.util.Properties;
+
+import com.barbermot.pilot.flight.ConfigurationException;
+import com.barbermot.pilot.flight.FlightConfiguration;
+import com.barbermot.pilot.pid.AutoControl;
+import com.barbermot.pilot.pid.RelayAutotuner;
+import com.barbermot.pilot.quad.QuadCopter;
+import com.barbermot.pilot.rc.RemoteControl;
+
+/**
+ * AutotuneState runs the relay experiment on one axis while hovering. The
+ * throttle keeps the hover height unless the throttle itself is tuned. When
+ * the experiment succeeds the new gains replace the configuration of the axis
+ * (hover.conf for the throttle, the angle and rate loop gains of the cascade
+ * for roll, pitch and yaw) and the copter returns to hover once the new
+ * configuration is active.
+ */
+public class AutotuneState extends FlightState<AutotuneState.Experiment> {
+    
+    public enum Axis {
+        THROTTLE, ROLL, PITCH, YAW
+    };
+    
+    /**
+     * Experiment names the axis to tune and the height to hover at.
+     */
+    public static class Experiment {
+        
+        public final Axis  axis;
+        public final float height;
+        
+        public Experiment(Axis axis, float height) {
+            this.axis = axis;
+            this.height = height;
+        }
+    }
+    
+    private AutoControl                   autoThrottle;
+    private EnumMap<Axis, RelayAutotuner> tuners;
+    
+    private Axis                          axis;
+    private RelayAutotuner                tuner;
+    private float                         height;
+    private char                          controlMask;
+    private FlightConfiguration           tuned;
+    
+    public AutotuneState() {
+        tuners = new EnumMap<Axis, RelayAutotuner>(Axis.class);
+    }
+    
+    @Override
+    public boolean guard(Experiment arg) throws ConnectionLostException {
+        return computer.isCalibrated()
+                && computer.hasHeightSignal()
+                && (arg.axis == Axis.THROTTLE || computer
+                        .hasOrientationSignal()) && tuners.containsKey(arg.axis);
+    }
+    
+    @Override
+    public void enter(Experiment arg) throws ConnectionLostException {
+        logger.info("Entering autotune state: " + arg.axis);
+        
+        this.axis = arg.axis;
+        this.tuner = tuners.get(axis);
+        this.height = arg.height;
+        this.tuned = null;
+        
+        controlMask = computer.getRc().getControlMask();
+        computer.getRc().setControlMask(
+                (char) (controlMask & ~getMask(axis)));
+        
+        if (axis != Axis.THROTTLE) {
+            autoThrottle.setConfiguration(computer.getHoverConf());
+            autoThrottle.setGoal(height);
+            autoThrottle.engage(true);
+            computer.setAutoThrottle(autoThrottle);
+        }
+        computer.setGoalHeight(height);
+        
+        switch (axis) {
+            case THROTTLE:
+                tuner.start(height);
+                break;
+            case ROLL:
+                tuner.start(computer.getZeroLateralDisplacement());
+                break;
+            case PITCH:
+                tuner.start(computer.getZeroLongitudinalDisplacement());
+                break;
+            case YAW:
+                tuner.start(computer.getHeading());
+                break;
+        }
+    }
+    
+    @Override
+    public void exit() throws ConnectionLostException {
+        tuner.stop();
+        
+        if (axis != Axis.THROTTLE) {
+            autoThrottle.engage(false);
+            computer.setAutoThrottle(null);
+        }
+        computer.setGoalHeight(0);
+        
+        switch (axis) {
+            case ROLL:
+                computer.getUfo().aileron(QuadCopter.STOP_SPEED);
+                break;
+            case PITCH:
+                computer.getUfo().elevator(QuadCopter.STOP_SPEED);
+                break;
+            case YAW:
+                computer.getUfo().rudder(QuadCopter.STOP_SPEED);
+                break;
+            default:
+                break;
+        }
+        computer.getRc().setControlMask(controlMask);
+    }
+    
+    @Override
+    public void update() throws ConnectionLostException {
+        if (!computer.hasHeightSignal()) {
+            transition(Type.EMERGENCY_LANDING, null);
+        } else if (tuner.isFailed()) {
+            logger.warn("Autotune of " + axis + " failed");
+            transition(Type.HOVER, height);
+        } else if (tuned != null) {
+            // hover engages its controls with the configuration of the tick
+            if (computer.getConfig().getVersion() >= tuned.getVersion()) {
+                transition(Type.HOVER, height);
+            }
+        } else if (tuner.isDone()) {
+            apply();
+            if (tuned == null) {
+                transition(Type.HOVER, height);
+            }
+        }
+    }
+    
+    private void apply() {
+        FlightConfiguration config = computer.getConfig();
+        Properties changes = new Properties();
+        if (axis == Axis.THROTTLE) {
+            changes.setProperty("hover.conf", FlightConfiguration
+                    .format(tuner.getConfiguration(config.getHoverConf())));
+        } else {
+            changes.setProperty(FlightConfiguration.angleKey(axis),
+                    FlightConfiguration.format(tuner
+                            .getAngleConfiguration(config.getAngleConf(axis))));
+            changes.setProperty(FlightConfiguration.rateKey(axis),
+                    FlightConfiguration.format(tuner
+                            .getRateConfiguration(config.getRateConf(axis))));
+        }
+        
+        try {
+            tuned = FlightConfiguration.update(changes);
+            logger.info("Autotuned " + axis + ": " + changes);
+        } catch (ConfigurationException e) {
+            logger.warn("Autotuned gains of " + axis + " rejected", e);
+        }
+    }
+    
+    private char getMask(Axis axis) {
+        switch (axis) {
+            case ROLL:
+                return RemoteControl.AILERON_MASK;
+            case PITCH:
+                return RemoteControl.ELEVATOR_MASK;
+            case YAW:
+                return RemoteControl.RUDDER_MASK;
+            default:
+                return RemoteControl.THROTTLE_MASK;
+        }
+    }
+    
+    public AutoControl getAutoThrottle() {
+        return autoThrottle;
+    }
+    
+    public void setAutoThrottle(AutoControl autoThrottle) {
+        this.autoThrottle = autoThrottle;
+    }
+    
+    public void setTuner(Axis axis, RelayAutotuner tuner) {
+        tuners.put(axis, tuner);
+    }
+}
@@ -4,12 +4,13 @@ import ioio.lib.api.exception.ConnectionLostException;
 
 import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.quad.QuadCopter;
+import com.barbermot.pilot.signal.Clock;
 
 public class CalibrationState extends FlightState<Void> {
     
     int        currentThrottle;
     QuadCopter ufo;
-    long       lastAdjustmentMillis;
+    long       lastAdjustmentTime;
     
     @Override
     public boolean guard(Void arg) throws ConnectionLostException {
@@ -20,6 +21,7 @@ public class CalibrationState extends FlightState<Void> {
     public void enter(Void arg) throws ConnectionLostException {
         currentThrottle = -100;
         computer.getUfo().throttle(currentThrottle);
+        lastAdjustmentTime = computer.getTime();
     }
     
     @Override
@@ -31,19 +33,19 @@ public class CalibrationState extends FlightState<Void> {
             transition(Type.EMERGENCY_LANDING, null);
         }
         
-        if ((computer.getHeight() - computer.getZeroHeight()) > FlightConfiguration
-                .get().getCalibrationHeight()) {
+        FlightConfiguration config = computer.getConfig();
+        if ((computer.getHeight() - computer.getZeroHeight()) > config
+                .getCalibrationHeight()) {
             computer.setZeroThrottle(currentThrottle
-                    - FlightConfiguration.get().getThrottleStepForCalibration());
+                    - config.getThrottleStepForCalibration());
             transition(Type.LANDING, null);
         } else {
-            long millis = System.currentTimeMillis();
-            if ((millis - lastAdjustmentMillis) > FlightConfiguration.get()
-                    .getCalibrationTimeStep()) {
-                currentThrottle += FlightConfiguration.get()
-                        .getThrottleStepForCalibration();
+            long time = computer.getTime();
+            if ((time - lastAdjustmentTime) > Clock.nanos(config
+                    .getCalibrationTimeStep())) {
+                currentThrottle += config.getThrottleStepForCalibration();
                 computer.getUfo().throttle(currentThrottle);
-                lastAdjustmentMillis = millis;
+                lastAdjustmentTime = time;
             }
         }
     }
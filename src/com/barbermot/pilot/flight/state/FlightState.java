@@ -2,8 +2,6 @@ package com.barbermot.pilot.flight.state;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import java.util.EnumMap;
-
 import org.apache.log4j.Logger;
 
 import com.barbermot.pilot.flight.FlightComputer;
@@ -12,36 +10,21 @@ public abstract class FlightState<T> {
     
     // Flight computer states
     public enum Type {
-        GROUND, HOVER, STABILIZED_HOVER, WAYPOINT_HOLD, WAYPOINT_TRACK, LANDING, FAILED, EMERGENCY_LANDING, MANUAL_CONTROL, CALIBRATION
+        GROUND, HOVER, STABILIZED_HOVER, WAYPOINT_HOLD, WAYPOINT_TRACK, LANDING, FAILED, EMERGENCY_LANDING, MANUAL_CONTROL, CALIBRATION, AUTOTUNE
     };
     
-    protected static Logger                 logger = Logger.getLogger("FlightState");
-    private Type                            type;
-    protected EnumMap<Type, FlightState<?>> map;
-    protected FlightComputer                computer;
-    
-    public FlightState() {
-        map = new EnumMap<Type, FlightState<?>>(Type.class);
-    }
+    protected static Logger   logger = Logger.getLogger("FlightState");
+    private Type              type;
+    protected TransitionTable transitions;
+    protected FlightComputer  computer;
     
-    @SuppressWarnings("unchecked")
+    /**
+     * transition leaves this state for the state of the given type, if that
+     * transition is legal and the next state's guard accepts the argument.
+     */
     public <D> void transition(Type nextType, D arg)
             throws ConnectionLostException {
-        String transitionTag = "from:" + type + "\tto:" + nextType;
-        logger.info("transiting: " + transitionTag);
-        if (map.containsKey(nextType)) {
-            FlightState<D> nextState = (FlightState<D>) map.get(nextType);
-            if (!nextState.guard(arg)) {
-                logger.warn("entry condition failed for: " + transitionTag);
-            } else {
-                exit();
-                computer.setState(nextState);
-                nextState.enter(arg);
-                logger.info("transited: " + transitionTag);
-            }
-        } else {
-            logger.warn("Illegal transition: " + transitionTag);
-        }
+        transitions.transition(this, nextType, arg);
     }
     
     public void setType(Type type) {
@@ -60,9 +43,12 @@ public abstract class FlightState<T> {
         return type;
     }
     
-    public void addTransition(FlightState<?> s) {
-        logger.debug("adding transition: " + this.type + " -> " + s.getType());
-        map.put(s.getType(), s);
+    public TransitionTable getTransitions() {
+        return transitions;
+    }
+    
+    public void setTransitions(TransitionTable transitions) {
+        this.transitions = transitions;
     }
     
     public abstract boolean guard(T arg) throws ConnectionLostException;
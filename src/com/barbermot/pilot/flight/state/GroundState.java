@@ -2,7 +2,6 @@ package com.barbermot.pilot.flight.state;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.quad.QuadCopter;
 import com.barbermot.pilot.rc.RemoteControl;
 
@@ -13,8 +12,7 @@ public class GroundState extends FlightState<Void> {
         computer.getUfo().aileron(QuadCopter.STOP_SPEED);
         computer.getUfo().rudder(QuadCopter.STOP_SPEED);
         computer.getUfo().elevator(QuadCopter.STOP_SPEED);
-        computer.getUfo()
-                .adjustGain(FlightConfiguration.get().getDefaultGain());
+        computer.getUfo().adjustGain(computer.getConfig().getDefaultGain());
     }
     
     @Override
@@ -2,7 +2,6 @@ package com.barbermot.pilot.flight.state;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.pid.AutoControl;
 
 public class HoverState extends FlightState<Float> {
@@ -20,7 +19,7 @@ public class HoverState extends FlightState<Float> {
     @Override
     public boolean guard(Float height) throws ConnectionLostException {
         return computer.isCalibrated()
-                && height <= FlightConfiguration.get().getMaxHoverHeight()
+                && height <= computer.getConfig().getMaxHoverHeight()
                 && computer.hasHeightSignal();
     }
     
@@ -2,7 +2,6 @@ package com.barbermot.pilot.flight.state;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.pid.AutoControl;
 
 public class LandingState extends FlightState<Void> {
@@ -47,7 +46,7 @@ public class LandingState extends FlightState<Void> {
         
         // turn off throttle when close to ground
         if (computer.getHeight() <= computer.getZeroHeight()
-                + FlightConfiguration.get().getThrottleOffHeight()) {
+                + computer.getConfig().getThrottleOffHeight()) {
             transition(Type.GROUND, null);
         }
     }
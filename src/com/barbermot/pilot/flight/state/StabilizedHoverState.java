@@ -2,15 +2,17 @@ package com.barbermot.pilot.flight.state;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import com.barbermot.pilot.pid.AutoControl;
+import com.barbermot.pilot.flight.FlightConfiguration;
+import com.barbermot.pilot.flight.state.AutotuneState.Axis;
+import com.barbermot.pilot.pid.CascadedAutoControl;
 import com.barbermot.pilot.quad.QuadCopter;
 import com.barbermot.pilot.rc.RemoteControl;
 
 public class StabilizedHoverState extends HoverState {
     
-    private AutoControl autoElevator;
-    private AutoControl autoRudder;
-    private AutoControl autoAileron;
+    private CascadedAutoControl autoElevator;
+    private CascadedAutoControl autoRudder;
+    private CascadedAutoControl autoAileron;
     
     public void stabilize(boolean engage) throws ConnectionLostException {
         char mask = RemoteControl.AILERON_MASK | RemoteControl.ELEVATOR_MASK
@@ -27,9 +29,13 @@ public class StabilizedHoverState extends HoverState {
         }
         computer.getRc().setControlMask(controlMask);
         
-        autoElevator.setConfiguration(computer.getOrientationConf());
-        autoAileron.setConfiguration(computer.getOrientationConf());
-        autoRudder.setConfiguration(computer.getOrientationConf());
+        FlightConfiguration config = computer.getConfig();
+        autoElevator.setConfiguration(config.getAngleConf(Axis.PITCH),
+                config.getRateConf(Axis.PITCH), config.getMaxAngleRate());
+        autoAileron.setConfiguration(config.getAngleConf(Axis.ROLL),
+                config.getRateConf(Axis.ROLL), config.getMaxAngleRate());
+        autoRudder.setConfiguration(config.getAngleConf(Axis.YAW),
+                config.getRateConf(Axis.YAW), config.getMaxAngleRate());
         
         autoElevator.setGoal(computer.getZeroLongitudinalDisplacement());
         autoAileron.setGoal(computer.getZeroLateralDisplacement());
@@ -58,27 +64,27 @@ public class StabilizedHoverState extends HoverState {
         stabilize(false);
     }
     
-    public AutoControl getAutoElevator() {
+    public CascadedAutoControl getAutoElevator() {
         return autoElevator;
     }
     
-    public void setAutoElevator(AutoControl autoElevator) {
+    public void setAutoElevator(CascadedAutoControl autoElevator) {
         this.autoElevator = autoElevator;
     }
     
-    public AutoControl getAutoRudder() {
+    public CascadedAutoControl getAutoRudder() {
         return autoRudder;
     }
     
-    public void setAutoRudder(AutoControl autoRudder) {
+    public void setAutoRudder(CascadedAutoControl autoRudder) {
         this.autoRudder = autoRudder;
     }
     
-    public AutoControl getAutoAileron() {
+    public CascadedAutoControl getAutoAileron() {
         return autoAileron;
     }
     
-    public void setAutoAileron(AutoControl autoAileron) {
+    public void setAutoAileron(CascadedAutoControl autoAileron) {
         this.autoAileron = autoAileron;
     }
 }
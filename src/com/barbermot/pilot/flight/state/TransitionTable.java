@@ -0,0 +1,180 @@
+package com.barbermot.pilot.flight.state;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * TransitionTable holds the legal transitions between the flight states in a
+ * matrix indexed by the ordinals of the source and target type. The log
+ * messages of every pair are built up front, so a transition neither
+ * allocates nor looks anything up but the matrix entry.
+ * 
+ * For every pair the table counts the transitions, the entries refused by the
+ * guard and the time spent in guard, exit and entry.
+ */
+public class TransitionTable {
+    
+    private static final Logger    logger = Logger.getLogger("FlightState");
+    
+    private final int              size;
+    private final FlightState<?>[] states;
+    private final FlightState<?>[] targets;
+    
+    private final String[]         transiting;
+    private final String[]         transited;
+    private final String[]         refused;
+    private final String[]         illegal;
+    
+    private final AtomicLongArray  counts;
+    private final AtomicLongArray  rejects;
+    private final AtomicLongArray  nanos;
+    private final AtomicLongArray  max;
+    
+    public TransitionTable() {
+        Type[] types = Type.values();
+        size = types.length;
+        
+        states = new FlightState<?>[size];
+        targets = new FlightState<?>[size * size];
+        
+        transiting = new String[size * size];
+        transited = new String[size * size];
+        refused = new String[size * size];
+        illegal = new String[size * size];
+        for (Type from : types) {
+            for (Type to : types) {
+                String tag = "from:" + from + "\tto:" + to;
+                int i = index(from, to);
+                transiting[i] = "transiting: " + tag;
+                transited[i] = "transited: " + tag;
+                refused[i] = "entry condition failed for: " + tag;
+                illegal[i] = "Illegal transition: " + tag;
+            }
+        }
+        
+        counts = new AtomicLongArray(size * size);
+        rejects = new AtomicLongArray(size * size);
+        nanos = new AtomicLongArray(size * size);
+        max = new AtomicLongArray(size * size);
+    }
+    
+    private int index(Type from, Type to) {
+        return from.ordinal() * size + to.ordinal();
+    }
+    
+    /**
+     * addState makes a state known to the table. States have to be added
+     * before the transitions between them.
+     */
+    public void addState(FlightState<?> state) {
+        states[state.getType().ordinal()] = state;
+        state.setTransitions(this);
+    }
+    
+    /**
+     * add allows the transition between two states.
+     */
+    public void add(Type from, Type to) {
+        logger.debug("adding transition: " + from + " -> " + to);
+        targets[index(from, to)] = states[to.ordinal()];
+    }
+    
+    public boolean isLegal(Type from, Type to) {
+        return targets[index(from, to)] != null;
+    }
+    
+    /**
+     * transition leaves the current state for the state of the given type, if
+     * the transition is legal and the guard of the next state accepts the
+     * argument.
+     * 
+     * @return true if the transition took place
+     */
+    @SuppressWarnings("unchecked")
+    public <D> boolean transition(FlightState<?> current, Type nextType, D arg)
+            throws ConnectionLostException {
+        int i = index(current.getType(), nextType);
+        logger.info(transiting[i]);
+        
+        FlightState<D> nextState = (FlightState<D>) targets[i];
+        if (nextState == null) {
+            logger.warn(illegal[i]);
+            return false;
+        }
+        
+        long start = Clock.nanoTime();
+        if (!nextState.guard(arg)) {
+            rejects.incrementAndGet(i);
+            logger.warn(refused[i]);
+            return false;
+        }
+        
+        current.exit();
+        current.getComputer().setState(nextState);
+        nextState.enter(arg);
+        
+        long time = Clock.nanoTime() - start;
+        counts.incrementAndGet(i);
+        nanos.addAndGet(i, time);
+        if (time > max.get(i)) {
+            max.set(i, time);
+        }
+        
+        logger.info(transited[i]);
+        return true;
+    }
+    
+    public long getCount(Type from, Type to) {
+        return counts.get(index(from, to));
+    }
+    
+    public long getRejects(Type from, Type to) {
+        return rejects.get(index(from, to));
+    }
+    
+    /**
+     * @return Number of times the state was entered, from any state
+     */
+    public long getEntries(Type to) {
+        long entries = 0;
+        for (Type from : Type.values()) {
+            entries += counts.get(index(from, to));
+        }
+        return entries;
+    }
+    
+    /**
+     * Lists all pairs that were used: transitions/refusals, mean and max time
+     * in us.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Type from : Type.values()) {
+            for (Type to : Type.values()) {
+                int i = index(from, to);
+                long count = counts.get(i);
+                long rejected = rejects.get(i);
+                if (count == 0 && rejected == 0) {
+                    continue;
+                }
+                if (builder.length() > 0) {
+                    builder.append("\t");
+                }
+                builder.append(from).append(">").append(to).append(": ")
+                        .append(count).append("/").append(rejected);
+                if (count > 0) {
+                    builder.append(" ").append(nanos.get(i) / count / 1000)
+                            .append("/").append(max.get(i) / 1000);
+                }
+            }
+        }
+        return builder.toString();
+    }
+}
@@ -6,16 +6,20 @@ import com.barbermot.pilot.flight.Waypoint;
 import com.barbermot.pilot.pid.AutoControl;
 import com.barbermot.pilot.rc.RemoteControl;
 
+/**
+ * WaypointHoldState keeps the copter at a waypoint (absolute gps altitude):
+ * the gps controls hold its latitude and longitude, the throttle its altitude
+ * and the heading stays north. Entering the state again with another waypoint
+ * moves the hold.
+ */
 public class WaypointHoldState extends FlightState<Waypoint> {
     
-    private AutoControl autoUltraSoundThrottle;
-    private AutoControl autoGpsThrottle;
+    // consumes the fused altitude estimate
+    private AutoControl autoThrottle;
     private AutoControl autoElevator;
     private AutoControl autoRudder;
     private AutoControl autoAileron;
     
-    private boolean     gpsActive;
-    
     private void switchAutoControl(boolean on) throws ConnectionLostException {
         char mask = RemoteControl.AILERON_MASK | RemoteControl.ELEVATOR_MASK
                 | RemoteControl.RUDDER_MASK;
@@ -36,19 +40,15 @@ public class WaypointHoldState extends FlightState<Waypoint> {
     
     @Override
     public void enter(Waypoint arg) throws ConnectionLostException {
-        logger.info("Entering waypoint hold state");
+        logger.info("Entering waypoint hold state: " + arg.latitude + ", "
+                + arg.longitude);
         
         switchAutoControl(true);
         
-        autoUltraSoundThrottle.setConfiguration(computer.getHoverConf());
-        autoUltraSoundThrottle.setGoal(arg.altitude
-                - computer.getZeroGpsHeight());
-        autoUltraSoundThrottle.engage(false);
-        
-        autoGpsThrottle.setConfiguration(computer.getGpsConf());
-        autoGpsThrottle.setGoal(arg.altitude);
-        autoGpsThrottle.engage(true);
-        computer.setAutoThrottle(autoGpsThrottle);
+        autoThrottle.setConfiguration(computer.getHoverConf());
+        autoThrottle.setGoal(arg.altitude - computer.getZeroGpsHeight());
+        autoThrottle.engage(true);
+        computer.setAutoThrottle(autoThrottle);
         computer.setGoalHeight(arg.altitude);
         
         autoRudder.setConfiguration(computer.getOrientationConf());
@@ -56,24 +56,21 @@ public class WaypointHoldState extends FlightState<Waypoint> {
         autoRudder.engage(true);
         computer.setAutoRudder(autoRudder);
         
-        autoElevator.setConfiguration(computer.getOrientationConf());
-        autoElevator.setGoal(computer.getZeroLatitude());
+        autoElevator.setConfiguration(computer.getGpsConf());
+        autoElevator.setGoal(arg.latitude);
         autoElevator.engage(true);
         computer.setAutoElevator(autoElevator);
         
-        autoAileron.setConfiguration(computer.getOrientationConf());
-        autoAileron.setGoal(computer.getZeroLongitude());
+        autoAileron.setConfiguration(computer.getGpsConf());
+        autoAileron.setGoal(arg.longitude);
         autoAileron.engage(true);
-        
-        gpsActive = true;
+        computer.setAutoAileron(autoAileron);
     }
     
     @Override
     public void exit() throws ConnectionLostException {
-        autoUltraSoundThrottle.engage(false);
-        autoUltraSoundThrottle.setGoal(0);
-        autoGpsThrottle.engage(false);
-        autoGpsThrottle.setGoal(0);
+        autoThrottle.engage(false);
+        autoThrottle.setGoal(0);
         
         autoRudder.engage(false);
         autoElevator.engage(false);
@@ -89,39 +86,18 @@ public class WaypointHoldState extends FlightState<Waypoint> {
     
     @Override
     public void update() throws ConnectionLostException {
-        if (computer.hasHeightSignal()) {
-            if (gpsActive) {
-                gpsActive = false;
-                autoGpsThrottle.engage(false);
-                autoUltraSoundThrottle.engage(true);
-                computer.setAutoThrottle(autoUltraSoundThrottle);
-            }
-        } else if (computer.hasGpsSignal()) {
-            if (!gpsActive) {
-                gpsActive = true;
-                autoUltraSoundThrottle.engage(false);
-                autoGpsThrottle.engage(true);
-                computer.setAutoThrottle(autoGpsThrottle);
-            }
-        } else {
+        // the altitude estimate needs either ultrasound or gps
+        if (!computer.hasHeightSignal() && !computer.hasGpsSignal()) {
             transition(Type.EMERGENCY_LANDING, null);
         }
     }
     
-    public AutoControl getAutoUltraSoundThrottle() {
-        return autoUltraSoundThrottle;
-    }
-    
-    public void setAutoUltraSoundThrottle(AutoControl autoUltraSoundThrottle) {
-        this.autoUltraSoundThrottle = autoUltraSoundThrottle;
-    }
-    
-    public AutoControl getAutoGpsThrottle() {
-        return autoGpsThrottle;
+    public AutoControl getAutoThrottle() {
+        return autoThrottle;
     }
     
-    public void setAutoGpsThrottle(AutoControl autoGpsThrottle) {
-        this.autoGpsThrottle = autoGpsThrottle;
+    public void setAutoThrottle(AutoControl autoThrottle) {
+        this.autoThrottle = autoThrottle;
     }
     
     public AutoControl getAutoElevator() {
@@ -1,25 +1,246 @@
 package com.barbermot.pilot.flight.state;
 
+import static com.barbermot.pilot.flight.Waypoint.METERS_PER_DEGREE;
 import ioio.lib.api.exception.ConnectionLostException;
 
+import java.util.List;
+
 import com.barbermot.pilot.flight.Waypoint;
+import com.barbermot.pilot.pid.AutoControl;
+import com.barbermot.pilot.rc.RemoteControl;
 
-public class WaypointTrackState extends FlightState<Waypoint> {
+/**
+ * WaypointTrackState flies a route of waypoints (absolute gps altitudes) with
+ * a lookahead guidance law: the position is projected onto the current leg
+ * and the gps controls chase the point a fixed distance ahead of the
+ * projection. Once the end of a leg is within the acceptance radius the next
+ * leg starts, after the last one the copter holds the final waypoint.
+ * 
+ * Positions are mapped to meters in a flat projection around the start of a
+ * leg. Everything that only depends on the leg - the scale of a degree of
+ * longitude, direction, length and bearing - is computed once when the leg
+ * starts, a tick costs a handful of multiplications.
+ */
+public class WaypointTrackState extends FlightState<List<Waypoint>> {
+    
+    private AutoControl autoThrottle;
+    private AutoControl autoElevator;
+    private AutoControl autoRudder;
+    private AutoControl autoAileron;
+    
+    private float       lookahead;
+    private float       acceptanceRadius;
+    
+    private Waypoint[]  route;
+    private int         leg;
+    
+    // the current leg
+    private float       startLatitude;
+    private float       startLongitude;
+    private float       startAltitude;
+    private float       climb;
+    private float       metersPerLongitude;
+    private float       north;
+    private float       east;
+    private float       length;
+    private float       bearing;
+    
+    // unit direction of the leg in degrees per meter
+    private float       latitudePerMeter;
+    private float       longitudePerMeter;
+    
+    private void switchAutoControl(boolean on) throws ConnectionLostException {
+        char mask = RemoteControl.AILERON_MASK | RemoteControl.ELEVATOR_MASK
+                | RemoteControl.RUDDER_MASK;
+        char controlMask = computer.getRc().getControlMask();
+        
+        if (on) {
+            controlMask = (char) (controlMask & ~mask);
+        } else {
+            controlMask = (char) (controlMask | mask);
+        }
+        computer.getRc().setControlMask(controlMask);
+    }
     
     @Override
-    public boolean guard(Waypoint arg) throws ConnectionLostException {
-        return true;
+    public boolean guard(List<Waypoint> arg) throws ConnectionLostException {
+        return computer.isCalibrated() && computer.hasGpsSignal()
+                && arg != null && !arg.isEmpty();
     }
     
     @Override
-    public void enter(Waypoint arg) throws ConnectionLostException {
-        logger.info("Entering waypoint track state");
+    public void enter(List<Waypoint> arg) throws ConnectionLostException {
+        logger.info("Entering waypoint track state: " + arg.size()
+                + " waypoints");
+        
+        route = arg.toArray(new Waypoint[arg.size()]);
+        lookahead = computer.getConfig().getTrackLookahead();
+        acceptanceRadius = computer.getConfig().getTrackAcceptanceRadius();
+        
+        switchAutoControl(true);
+        
+        // the first leg starts where we are
+        startLeg(0, computer.getLatitude(), computer.getLongitude(),
+                computer.getGpsHeight());
+        
+        autoThrottle.setConfiguration(computer.getHoverConf());
+        autoThrottle.setGoal(startAltitude - computer.getZeroGpsHeight());
+        autoThrottle.engage(true);
+        computer.setAutoThrottle(autoThrottle);
+        computer.setGoalHeight(route[route.length - 1].altitude);
+        
+        // heading stays north, elevator and aileron move along the axes
+        autoRudder.setConfiguration(computer.getOrientationConf());
+        autoRudder.setGoal(0);
+        autoRudder.engage(true);
+        computer.setAutoRudder(autoRudder);
+        
+        autoElevator.setConfiguration(computer.getGpsConf());
+        autoElevator.setGoal(startLatitude);
+        autoElevator.engage(true);
+        computer.setAutoElevator(autoElevator);
+        
+        autoAileron.setConfiguration(computer.getGpsConf());
+        autoAileron.setGoal(startLongitude);
+        autoAileron.engage(true);
+        computer.setAutoAileron(autoAileron);
     }
     
     @Override
-    public void exit() throws ConnectionLostException {}
+    public void exit() throws ConnectionLostException {
+        autoThrottle.engage(false);
+        autoThrottle.setGoal(0);
+        
+        autoRudder.engage(false);
+        autoElevator.engage(false);
+        autoAileron.engage(false);
+        
+        computer.setAutoThrottle(null);
+        computer.setAutoRudder(null);
+        computer.setAutoElevator(null);
+        computer.setAutoAileron(null);
+        computer.setGoalHeight(0);
+        
+        route = null;
+        switchAutoControl(false);
+    }
     
     @Override
-    public void update() throws ConnectionLostException {}
+    public void update() throws ConnectionLostException {
+        // the altitude estimate needs either ultrasound or gps
+        if (!computer.hasHeightSignal() && !computer.hasGpsSignal()) {
+            transition(Type.EMERGENCY_LANDING, null);
+            return;
+        }
+        
+        float y = (computer.getLatitude() - startLatitude) * METERS_PER_DEGREE;
+        float x = (computer.getLongitude() - startLongitude)
+                * metersPerLongitude;
+        
+        // distance to the end of the leg
+        float dy = north * length - y;
+        float dx = east * length - x;
+        if (dx * dx + dy * dy < acceptanceRadius * acceptanceRadius) {
+            Waypoint reached = route[leg];
+            logger.info("Reached waypoint " + leg);
+            if (leg + 1 == route.length) {
+                transition(Type.WAYPOINT_HOLD, reached);
+                return;
+            }
+            startLeg(leg + 1, reached.latitude, reached.longitude,
+                    reached.altitude);
+            y = (computer.getLatitude() - startLatitude) * METERS_PER_DEGREE;
+            x = (computer.getLongitude() - startLongitude) * metersPerLongitude;
+        }
+        
+        // lookahead point on the leg
+        float along = x * east + y * north + lookahead;
+        if (along > length) {
+            along = length;
+        } else if (along < 0) {
+            along = 0;
+        }
+        
+        autoElevator.trackGoal(startLatitude + along * latitudePerMeter);
+        autoAileron.trackGoal(startLongitude + along * longitudePerMeter);
+        if (length > 0) {
+            autoThrottle.trackGoal(startAltitude + climb * along / length
+                    - computer.getZeroGpsHeight());
+        }
+    }
+    
+    /*
+     * Caches the geometry of the leg from the given start to route[leg].
+     */
+    private void startLeg(int leg, float latitude, float longitude,
+            float altitude) {
+        Waypoint end = route[leg];
+        
+        this.leg = leg;
+        startLatitude = latitude;
+        startLongitude = longitude;
+        startAltitude = altitude;
+        climb = end.altitude - altitude;
+        metersPerLongitude = (float) (METERS_PER_DEGREE * Math.cos(Math
+                .toRadians(latitude)));
+        
+        float y = (end.latitude - latitude) * METERS_PER_DEGREE;
+        float x = (end.longitude - longitude) * metersPerLongitude;
+        length = (float) Math.sqrt(x * x + y * y);
+        bearing = (float) Math.atan2(x, y);
+        
+        if (length > 0) {
+            north = y / length;
+            east = x / length;
+        } else {
+            north = 0;
+            east = 0;
+        }
+        latitudePerMeter = north / METERS_PER_DEGREE;
+        longitudePerMeter = metersPerLongitude > 0 ? east / metersPerLongitude
+                : 0;
+        
+        logger.info(String.format("Leg %d: %.1f m, bearing %.1f", leg, length,
+                Math.toDegrees(bearing)));
+    }
+    
+    public int getLeg() {
+        return leg;
+    }
+    
+    public float getBearing() {
+        return bearing;
+    }
     
+    public AutoControl getAutoThrottle() {
+        return autoThrottle;
+    }
+    
+    public void setAutoThrottle(AutoControl autoThrottle) {
+        this.autoThrottle = autoThrottle;
+    }
+    
+    public AutoControl getAutoElevator() {
+        return autoElevator;
+    }
+    
+    public void setAutoElevator(AutoControl autoElevator) {
+        this.autoElevator = autoElevator;
+    }
+    
+    public AutoControl getAutoRudder() {
+        return autoRudder;
+    }
+    
+    public void setAutoRudder(AutoControl autoRudder) {
+        this.autoRudder = autoRudder;
+    }
+    
+    public AutoControl getAutoAileron() {
+        return autoAileron;
+    }
+    
+    public void setAutoAileron(AutoControl autoAileron) {
+        this.autoAileron = autoAileron;
+    }
 }
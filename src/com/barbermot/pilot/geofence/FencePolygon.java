@@ -0,0 +1,198 @@
+package com.barbermot.pilot.geofence;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * FencePolygon is a closed polygon in local metric coordinates with a grid
+ * index for fast containment checks.
+ * 
+ * The bounding box is split into cells. For every cell the index stores
+ * whether its center lies inside the polygon and which edges touch the cell.
+ * A point is inside if the segment from the point to the center of its cell
+ * crosses the polygon an even number of times and the center is inside, or
+ * an odd number of times and the center is outside. Only the few edges of
+ * one cell are tested, independent of the size of the polygon.
+ */
+public class FencePolygon {
+    
+    private final float[] x;
+    private final float[] y;
+    private final float   ceiling;
+    
+    private float         minX;
+    private float         minY;
+    private float         maxX;
+    private float         maxY;
+    
+    private int           columns;
+    private int           rows;
+    private float         cellWidth;
+    private float         cellHeight;
+    
+    // edges of cell c: edges[offsets[c]] to edges[offsets[c + 1] - 1]
+    private boolean[]     centers;
+    private int[]         offsets;
+    private int[]         edges;
+    
+    /**
+     * @param x
+     *            East coordinates of the vertices in m
+     * @param y
+     *            North coordinates of the vertices in m
+     * @param ceiling
+     *            Altitude limit in m
+     */
+    public FencePolygon(float[] x, float[] y, float ceiling) {
+        if (x.length < 3 || x.length != y.length) {
+            throw new IllegalArgumentException("Polygon needs three vertices");
+        }
+        
+        // closed: the last vertex repeats the first
+        int n = x.length;
+        this.x = new float[n + 1];
+        this.y = new float[n + 1];
+        System.arraycopy(x, 0, this.x, 0, n);
+        System.arraycopy(y, 0, this.y, 0, n);
+        this.x[n] = x[0];
+        this.y[n] = y[0];
+        this.ceiling = ceiling;
+        
+        buildIndex(n);
+    }
+    
+    private void buildIndex(int n) {
+        minX = maxX = x[0];
+        minY = maxY = y[0];
+        for (int i = 1; i < n; ++i) {
+            minX = Math.min(minX, x[i]);
+            maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]);
+            maxY = Math.max(maxY, y[i]);
+        }
+        
+        // about one edge per cell and row
+        columns = rows = (int) Math.ceil(Math.sqrt(n));
+        cellWidth = Math.max(maxX - minX, 1f) / columns;
+        cellHeight = Math.max(maxY - minY, 1f) / rows;
+        
+        List<List<Integer>> cells = new ArrayList<List<Integer>>();
+        for (int c = 0; c < columns * rows; ++c) {
+            cells.add(new ArrayList<Integer>());
+        }
+        
+        // an edge goes to all cells its bounding box overlaps
+        for (int e = 0; e < n; ++e) {
+            int fromColumn = column(Math.min(x[e], x[e + 1]));
+            int toColumn = column(Math.max(x[e], x[e + 1]));
+            int fromRow = row(Math.min(y[e], y[e + 1]));
+            int toRow = row(Math.max(y[e], y[e + 1]));
+            for (int r = fromRow; r <= toRow; ++r) {
+                for (int c = fromColumn; c <= toColumn; ++c) {
+                    cells.get(r * columns + c).add(e);
+                }
+            }
+        }
+        
+        centers = new boolean[columns * rows];
+        offsets = new int[columns * rows + 1];
+        int total = 0;
+        for (int c = 0; c < cells.size(); ++c) {
+            total += cells.get(c).size();
+        }
+        edges = new int[total];
+        
+        int k = 0;
+        for (int r = 0; r < rows; ++r) {
+            for (int c = 0; c < columns; ++c) {
+                int cell = r * columns + c;
+                centers[cell] = scan(centerX(c), centerY(r));
+                offsets[cell] = k;
+                for (int e : cells.get(cell)) {
+                    edges[k++] = e;
+                }
+            }
+        }
+        offsets[columns * rows] = k;
+    }
+    
+    /*
+     * Crossing number test against all edges, only used to build the index.
+     */
+    private boolean scan(float px, float py) {
+        boolean inside = false;
+        for (int e = 0; e < x.length - 1; ++e) {
+            if ((y[e] > py) != (y[e + 1] > py)
+                    && px < (x[e + 1] - x[e]) * (py - y[e]) / (y[e + 1] - y[e])
+                            + x[e]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+    
+    /**
+     * @return true if the point (in m) lies inside the polygon
+     */
+    public boolean contains(float px, float py) {
+        if (px < minX || px > maxX || py < minY || py > maxY) {
+            return false;
+        }
+        
+        int c = column(px);
+        int r = row(py);
+        int cell = r * columns + c;
+        float cx = centerX(c);
+        float cy = centerY(r);
+        
+        boolean inside = centers[cell];
+        for (int k = offsets[cell]; k < offsets[cell + 1]; ++k) {
+            int e = edges[k];
+            if (crosses(px, py, cx, cy, x[e], y[e], x[e + 1], y[e + 1])) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+    
+    /*
+     * Segments p-q and a-b cross. A vertex on p-q counts on one side only, so
+     * the two edges meeting there are counted consistently.
+     */
+    private static boolean crosses(float px, float py, float qx, float qy,
+            float ax, float ay, float bx, float by) {
+        return (side(ax, ay, bx, by, px, py) > 0) != (side(ax, ay, bx, by, qx,
+                qy) > 0)
+                && (side(px, py, qx, qy, ax, ay) > 0) != (side(px, py, qx, qy,
+                        bx, by) > 0);
+    }
+    
+    private static float side(float ax, float ay, float bx, float by,
+            float px, float py) {
+        return (bx - ax) * (py - ay) - (by - ay) * (px - ax);
+    }
+    
+    private int column(float px) {
+        return Math.min((int) ((px - minX) / cellWidth), columns - 1);
+    }
+    
+    private int row(float py) {
+        return Math.min((int) ((py - minY) / cellHeight), rows - 1);
+    }
+    
+    private float centerX(int column) {
+        return minX + (column + 0.5f) * cellWidth;
+    }
+    
+    private float centerY(int row) {
+        return minY + (row + 0.5f) * cellHeight;
+    }
+    
+    public float getCeiling() {
+        return ceiling;
+    }
+    
+    public int getVertexCount() {
+        return x.length - 1;
+    }
+}
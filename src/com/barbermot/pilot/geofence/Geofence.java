@@ -0,0 +1,114 @@
+package com.barbermot.pilot.geofence;
+
+import static com.barbermot.pilot.flight.Waypoint.METERS_PER_DEGREE;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geofence is the allowed flight area: the union of the inclusion polygons
+ * (each up to its ceiling) minus the exclusion polygons (each from the
+ * ground up to its ceiling). Without inclusion polygons the area is
+ * unbounded.
+ * 
+ * Polygons are projected to meters around the origin once, when they are
+ * added. A check maps the fix with two multiplications and then only looks at
+ * the grid cells of the polygons whose bounding box contains it.
+ */
+public class Geofence {
+    
+    public enum Breach {
+        NONE, OUTSIDE, CEILING, EXCLUDED
+    };
+    
+    private final float              originLatitude;
+    private final float              originLongitude;
+    private final float              metersPerLongitude;
+    
+    private final List<FencePolygon> inclusions;
+    private final List<FencePolygon> exclusions;
+    
+    public Geofence(float originLatitude, float originLongitude) {
+        this.originLatitude = originLatitude;
+        this.originLongitude = originLongitude;
+        this.metersPerLongitude = (float) (METERS_PER_DEGREE * Math.cos(Math
+                .toRadians(originLatitude)));
+        this.inclusions = new ArrayList<FencePolygon>();
+        this.exclusions = new ArrayList<FencePolygon>();
+    }
+    
+    public void addInclusion(float[] latitudes, float[] longitudes,
+            float ceiling) {
+        inclusions.add(project(latitudes, longitudes, ceiling));
+    }
+    
+    public void addExclusion(float[] latitudes, float[] longitudes,
+            float ceiling) {
+        exclusions.add(project(latitudes, longitudes, ceiling));
+    }
+    
+    private FencePolygon project(float[] latitudes, float[] longitudes,
+            float ceiling) {
+        float[] x = new float[longitudes.length];
+        float[] y = new float[latitudes.length];
+        for (int i = 0; i < x.length; ++i) {
+            x[i] = (longitudes[i] - originLongitude) * metersPerLongitude;
+        }
+        for (int i = 0; i < y.length; ++i) {
+            y[i] = (latitudes[i] - originLatitude) * METERS_PER_DEGREE;
+        }
+        return new FencePolygon(x, y, ceiling);
+    }
+    
+    /**
+     * check tests a position against the fence.
+     * 
+     * @param altitude
+     *            Height above the take off point in m
+     * @return NONE if the position is allowed, otherwise the kind of breach
+     */
+    public Breach check(float latitude, float longitude, float altitude) {
+        float x = (longitude - originLongitude) * metersPerLongitude;
+        float y = (latitude - originLatitude) * METERS_PER_DEGREE;
+        
+        for (int i = 0; i < exclusions.size(); ++i) {
+            FencePolygon polygon = exclusions.get(i);
+            if (altitude < polygon.getCeiling() && polygon.contains(x, y)) {
+                return Breach.EXCLUDED;
+            }
+        }
+        
+        if (inclusions.isEmpty()) {
+            return Breach.NONE;
+        }
+        
+        Breach breach = Breach.OUTSIDE;
+        for (int i = 0; i < inclusions.size(); ++i) {
+            FencePolygon polygon = inclusions.get(i);
+            if (polygon.contains(x, y)) {
+                if (altitude <= polygon.getCeiling()) {
+                    return Breach.NONE;
+                }
+                breach = Breach.CEILING;
+            }
+        }
+        return breach;
+    }
+    
+    public int getVertexCount() {
+        int count = 0;
+        for (FencePolygon polygon : inclusions) {
+            count += polygon.getVertexCount();
+        }
+        for (FencePolygon polygon : exclusions) {
+            count += polygon.getVertexCount();
+        }
+        return count;
+    }
+    
+    @Override
+    public String toString() {
+        return inclusions.size() + " inclusions, " + exclusions.size()
+                + " exclusions, " + getVertexCount() + " vertices";
+    }
+}
@@ -0,0 +1,97 @@
+package com.barbermot.pilot.geofence;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * GeofenceLoader reads a fence from a text file. A line "include <ceiling>"
+ * or "exclude [<ceiling>]" starts a polygon, the following lines
+ * "<latitude> <longitude>" are its vertices. Ceilings are in m above the take
+ * off point, an exclusion without ceiling reaches all the way up. Empty lines
+ * and lines starting with # are ignored.
+ * 
+ * The first vertex of the file is the origin of the metric projection.
+ */
+public class GeofenceLoader {
+    
+    public static Geofence load(String file) throws IOException {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            return load(in);
+        } finally {
+            in.close();
+        }
+    }
+    
+    public static Geofence load(BufferedReader in) throws IOException {
+        List<float[]> vertices = new ArrayList<float[]>();
+        List<Integer> starts = new ArrayList<Integer>();
+        List<Boolean> included = new ArrayList<Boolean>();
+        List<Float> ceilings = new ArrayList<Float>();
+        
+        String line;
+        int number = 0;
+        while ((line = in.readLine()) != null) {
+            ++number;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            
+            String[] f = line.split("\\s+");
+            try {
+                if (f[0].equalsIgnoreCase("include")
+                        || f[0].equalsIgnoreCase("exclude")) {
+                    boolean include = f[0].equalsIgnoreCase("include");
+                    if ((include && f.length != 2) || f.length > 2) {
+                        throw new IOException("line " + number
+                                + ": bad polygon header");
+                    }
+                    starts.add(vertices.size());
+                    included.add(include);
+                    ceilings.add(f.length == 2 ? Float.parseFloat(f[1])
+                            : Float.POSITIVE_INFINITY);
+                } else if (f.length == 2 && !starts.isEmpty()) {
+                    vertices.add(new float[] { Float.parseFloat(f[0]),
+                            Float.parseFloat(f[1]) });
+                } else {
+                    throw new IOException("line " + number
+                            + ": vertex expected");
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("line " + number + ": " + e.getMessage());
+            }
+        }
+        
+        if (vertices.isEmpty()) {
+            throw new IOException("no polygons");
+        }
+        
+        Geofence fence = new Geofence(vertices.get(0)[0], vertices.get(0)[1]);
+        starts.add(vertices.size());
+        for (int p = 0; p < included.size(); ++p) {
+            int start = starts.get(p);
+            int size = starts.get(p + 1) - start;
+            if (size < 3) {
+                throw new IOException("polygon " + p + ": " + size
+                        + " vertices");
+            }
+            
+            float[] latitudes = new float[size];
+            float[] longitudes = new float[size];
+            for (int i = 0; i < size; ++i) {
+                latitudes[i] = vertices.get(start + i)[0];
+                longitudes[i] = vertices.get(start + i)[1];
+            }
+            if (included.get(p)) {
+                fence.addInclusion(latitudes, longitudes, ceilings.get(p));
+            } else {
+                fence.addExclusion(latitudes, longitudes, ceilings.get(p));
+            }
+        }
+        return fence;
+    }
+}
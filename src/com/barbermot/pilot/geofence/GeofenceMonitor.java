@@ -0,0 +1,141 @@
+package com.barbermot.pilot.geofence;
+
+import static com.barbermot.pilot.flight.state.FlightState.Type.EMERGENCY_LANDING;
+import static com.barbermot.pilot.flight.state.FlightState.Type.FAILED;
+import static com.barbermot.pilot.flight.state.FlightState.Type.GROUND;
+import static com.barbermot.pilot.flight.state.FlightState.Type.LANDING;
+import static com.barbermot.pilot.flight.state.FlightState.Type.MANUAL_CONTROL;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import org.apache.log4j.Logger;
+
+import com.barbermot.pilot.flight.FlightComputer;
+import com.barbermot.pilot.flight.Waypoint;
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.geofence.Geofence.Breach;
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.SignalListener;
+
+/**
+ * GeofenceMonitor checks every gps fix against the fence. On a breach the
+ * flight computer is sent to the configured state: WAYPOINT_HOLD holds the
+ * last fix inside the fence, HOVER hovers at the current altitude, any other
+ * state is entered without argument. A running mission is stopped.
+ * 
+ * Being in the state of the action already is not enough: a hold entered for
+ * any other reason may well hold a point outside the fence. The action is
+ * taken once per breach, unless the state was entered again since, e.g. by a
+ * command.
+ * 
+ * States the pilot or a landing already own (ground, manual control,
+ * landings) are left alone. The monitor listens to the longitude on the
+ * control loop, after the flight computer has taken the new fix.
+ */
+public class GeofenceMonitor implements SignalListener {
+    
+    private static final Logger logger = Logger.getLogger("Geofence");
+    
+    private FlightComputer      computer;
+    private Geofence            fence;
+    private Type                action;
+    
+    private volatile Breach     breach;
+    private Waypoint            safe;
+    
+    // entries of the action state after the monitor took the action, -1 if
+    // it has not acted on the current breach
+    private long                acted;
+    
+    private volatile long       checks;
+    private volatile long       maxNanos;
+    
+    public GeofenceMonitor(FlightComputer computer, Geofence fence,
+            Type action) {
+        this.computer = computer;
+        this.fence = fence;
+        this.action = action;
+        this.breach = Breach.NONE;
+        this.acted = -1;
+        logger.info("Geofence: " + fence + ", breach action: " + action);
+    }
+    
+    @Override
+    public void update(float value, long time) throws ConnectionLostException {
+        float latitude = computer.getLatitude();
+        float longitude = computer.getLongitude();
+        
+        long start = Clock.nanoTime();
+        Breach next = fence.check(latitude, longitude, computer.getAltitude());
+        long nanos = Clock.nanoTime() - start;
+        
+        ++checks;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        
+        if (next == Breach.NONE) {
+            if (safe == null) {
+                safe = new Waypoint(0, 0, 0);
+            }
+            safe.altitude = computer.getGpsHeight();
+            safe.latitude = latitude;
+            safe.longitude = longitude;
+            breach = next;
+            acted = -1;
+            return;
+        }
+        
+        if (next != breach) {
+            logger.warn("Geofence breach: " + next + " at " + latitude + " "
+                    + longitude);
+        }
+        breach = next;
+        
+        Type type = computer.getState().getType();
+        if (type == GROUND || type == FAILED || type == MANUAL_CONTROL
+                || type == LANDING || type == EMERGENCY_LANDING) {
+            return;
+        }
+        if (type == action
+                && computer.getTransitions().getEntries(action) == acted) {
+            return;
+        }
+        
+        computer.getMission().stop();
+        switch (action) {
+            case WAYPOINT_HOLD:
+                if (safe != null) {
+                    transition(new Waypoint(safe.altitude, safe.latitude,
+                            safe.longitude));
+                } else {
+                    computer.getTransitions().transition(computer.getState(),
+                            LANDING, null);
+                }
+                break;
+            case HOVER:
+                transition(computer.getAltitude());
+                break;
+            default:
+                transition(null);
+                break;
+        }
+        
+        acted = computer.getTransitions().getEntries(action);
+    }
+    
+    private <D> void transition(D arg) throws ConnectionLostException {
+        computer.getTransitions().transition(computer.getState(), action, arg);
+    }
+    
+    public Breach getBreach() {
+        return breach;
+    }
+    
+    /**
+     * Current breach, number of checks and the longest check in us.
+     */
+    @Override
+    public String toString() {
+        return breach + " " + checks + " " + maxNanos / 1000;
+    }
+}
@@ -0,0 +1,88 @@
+package com.barbermot.pilot.logger;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts latencies (in nanoseconds) in power of two buckets:
+ * bucket i holds the latencies below 2^i ns. Recording does not allocate and
+ * the counts can be read from any thread while the control loop records.
+ */
+public class LatencyHistogram {
+    
+    public static final int BUCKETS = 32;
+    
+    private AtomicLongArray counts;
+    private volatile long   max;
+    
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+    
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos);
+        if (bucket >= BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+        counts.incrementAndGet(bucket);
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+    
+    public long getCount(int bucket) {
+        return counts.get(bucket);
+    }
+    
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+    
+    public long getMax() {
+        return max;
+    }
+    
+    /**
+     * @param fraction
+     *            Fraction of the samples (0 to 1) that have to be below the
+     *            returned value
+     * @return Upper bound of the bucket the percentile falls into in ns
+     */
+    public long getPercentile(double fraction) {
+        long count = getCount();
+        long target = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += counts.get(i);
+            if (seen >= target && seen > 0) {
+                return 1L << i;
+            }
+        }
+        return 0;
+    }
+    
+    /**
+     * @return Percentiles and all non empty buckets in microseconds
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("n: %d\tp50: %d\tp99: %d\tmax: %d\t|",
+                getCount(), getPercentile(0.5) / 1000,
+                getPercentile(0.99) / 1000, max / 1000));
+        for (int i = 0; i < BUCKETS; ++i) {
+            long count = counts.get(i);
+            if (count > 0) {
+                sb.append(String.format(" <%d: %d", ((1L << i) + 999) / 1000,
+                        count));
+            }
+        }
+        return sb.toString();
+    }
+}
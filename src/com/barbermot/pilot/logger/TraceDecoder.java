@@ -0,0 +1,90 @@
+package com.barbermot.pilot.logger;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+
+import com.barbermot.pilot.pid.MultiAxisControl;
+import com.barbermot.pilot.signal.Signal;
+
+/**
+ * TraceDecoder turns the binary traces drained by the TraceWriters into tab
+ * separated text, one record per line. It runs offline on the copied files:
+ * 
+ * TraceDecoder signal signal.bin (time, signal id, value)
+ * 
+ * TraceDecoder pid pid.bin (time, axis, goal, value, P, I, D, output)
+ */
+public class TraceDecoder {
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2
+                || !(args[0].equals("signal") || args[0].equals("pid"))) {
+            System.err.println("usage: TraceDecoder signal|pid <file>");
+            System.exit(1);
+        }
+        
+        DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(args[1])));
+        try {
+            if (args[0].equals("signal")) {
+                decodeSignal(in, System.out);
+            } else {
+                decodePid(in, System.out);
+            }
+        } finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * Decodes the records written by Signal.notifyListeners.
+     */
+    public static int decodeSignal(DataInputStream in, PrintStream out)
+            throws IOException {
+        byte[] record = new byte[Signal.TRACE_RECORD_SIZE];
+        ByteBuffer r = ByteBuffer.wrap(record);
+        int count = 0;
+        while (read(in, record)) {
+            out.println(r.getLong(0) + "\t" + r.getInt(12) + "\t"
+                    + r.getFloat(8));
+            ++count;
+        }
+        return count;
+    }
+    
+    /**
+     * Decodes the records written by MultiAxisControl.
+     */
+    public static int decodePid(DataInputStream in, PrintStream out)
+            throws IOException {
+        byte[] record = new byte[MultiAxisControl.TRACE_RECORD_SIZE];
+        ByteBuffer r = ByteBuffer.wrap(record);
+        int count = 0;
+        while (read(in, record)) {
+            out.println(String.format("%d\t%d\t%f\t%f\t%f\t%f\t%f\t%f",
+                    r.getLong(0), r.getInt(8), r.getFloat(12), r.getFloat(16),
+                    r.getFloat(20), r.getFloat(24), r.getFloat(28),
+                    r.getFloat(32)));
+            ++count;
+        }
+        return count;
+    }
+    
+    /*
+     * Reads a full record, a truncated record at the end is dropped.
+     */
+    private static boolean read(DataInputStream in, byte[] record)
+            throws IOException {
+        try {
+            in.readFully(record);
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.barbermot.pilot.logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TraceRing is a preallocated ring of fixed size binary records. Writers claim
+ * a record and store primitives straight into the backing buffer, so tracing
+ * doesn't allocate on the sensor or control threads. Once the ring wraps the
+ * oldest records are overwritten.
+ * 
+ * A writer claims a sequence, stores the record and commits it. The claim
+ * marks the slot busy with an atomic swap, which also keeps the stores of the
+ * record behind it; the commit publishes the record with a release store of
+ * its sequence into the slot's marker. The drain only copies a record whose
+ * marker holds its sequence before the copy and still holds it after: a writer
+ * that wraps onto the slot during the copy has made it busy first, so a torn
+ * record is dropped. Records that are claimed but not committed yet stop the
+ * drain until the next call.
+ */
+public class TraceRing {
+    
+    // marker of a slot that is claimed and being written
+    private static final long     BUSY = -1;
+    
+    private final ByteBuffer      buffer;
+    private final byte[]          data;
+    private final int             recordSize;
+    private final int             capacity;
+    private final int             mask;
+    private final AtomicLong      sequence;
+    private final AtomicLongArray committed;
+    private final byte[]          copy;
+    private long                  drained;
+    
+    /**
+     * @param recordSize
+     *            Size of a single record in bytes
+     * @param capacity
+     *            Number of records in the ring, rounded up to a power of two
+     */
+    public TraceRing(int recordSize, int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.recordSize = recordSize;
+        this.capacity = size;
+        this.mask = size - 1;
+        this.data = new byte[recordSize * size];
+        this.buffer = ByteBuffer.wrap(data);
+        this.sequence = new AtomicLong();
+        this.committed = new AtomicLongArray(size);
+        this.copy = new byte[recordSize * size];
+        for (int i = 0; i < size; ++i) {
+            committed.set(i, BUSY);
+        }
+    }
+    
+    /**
+     * claim reserves the next record in the ring.
+     * 
+     * @return Sequence of the record, to be used with offset and commit
+     */
+    public long claim() {
+        long claimed = sequence.getAndIncrement();
+        // a full fence: the record's stores can't move ahead of it
+        committed.getAndSet((int) (claimed & mask), BUSY);
+        return claimed;
+    }
+    
+    /**
+     * @return Byte offset of the record, to be used with the put methods
+     */
+    public int offset(long claimed) {
+        return (int) (claimed & mask) * recordSize;
+    }
+    
+    /**
+     * commit publishes a record once all its fields are stored.
+     */
+    public void commit(long claimed) {
+        committed.lazySet((int) (claimed & mask), claimed);
+    }
+    
+    public void putLong(int offset, long value) {
+        buffer.putLong(offset, value);
+    }
+    
+    public void putInt(int offset, int value) {
+        buffer.putInt(offset, value);
+    }
+    
+    public void putFloat(int offset, float value) {
+        buffer.putFloat(offset, value);
+    }
+    
+    public int getRecordSize() {
+        return recordSize;
+    }
+    
+    /**
+     * writeTo copies all records committed since the last call to the stream.
+     * Records that were overwritten before they could be drained are lost.
+     * 
+     * @param out
+     *            Stream receiving the raw records (big endian)
+     * @return Number of records written
+     * @throws IOException
+     */
+    public synchronized int writeTo(OutputStream out) throws IOException {
+        long head = sequence.get();
+        if (head - drained > capacity) {
+            drained = head - capacity;
+        }
+        
+        int count = 0;
+        while (drained < head) {
+            int slot = (int) (drained & mask);
+            long marker = committed.get(slot);
+            if (marker < drained) {
+                // claimed, not committed yet
+                break;
+            }
+            if (marker == drained) {
+                System.arraycopy(data, slot * recordSize, copy, count
+                        * recordSize, recordSize);
+                // a full fence too, so the copy is done before the re-check
+                if (committed.compareAndSet(slot, drained, drained)) {
+                    ++count;
+                }
+            }
+            ++drained;
+        }
+        out.write(copy, 0, count * recordSize);
+        return count;
+    }
+}
@@ -0,0 +1,34 @@
+package com.barbermot.pilot.logger;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * TraceWriter is a periodic task that drains a TraceRing into a file.
+ * 
+ */
+public class TraceWriter implements Runnable {
+    
+    private static final Logger logger = Logger.getLogger("TraceWriter");
+    
+    private TraceRing           ring;
+    private OutputStream        out;
+    
+    public TraceWriter(TraceRing ring, String fileName) throws IOException {
+        this.ring = ring;
+        this.out = new FileOutputStream(fileName, true);
+    }
+    
+    @Override
+    public void run() {
+        try {
+            ring.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            logger.warn("Couldn't write trace.", e);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.barbermot.pilot.mission;
+
+import java.io.BufferedReader;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * MissionCodec converts mission plans from and to the binary upload format
+ * (big endian):
+ * 
+ * magic (int), version (byte), count (short), count items of action (byte),
+ * altitude, latitude, longitude (float) and duration (int), CRC32 of all
+ * preceding bytes (int).
+ * 
+ * A 50 waypoint survey takes 861 bytes. On the ground, plans are written
+ * from text, one item per line:
+ * 
+ * MissionCodec plan.txt plan.bin (action altitude latitude longitude
+ * duration)
+ */
+public class MissionCodec {
+    
+    public static final int  MAGIC       = 0x4d504c4e;
+    public static final byte VERSION     = 1;
+    
+    public static final int  HEADER_SIZE = 7;
+    public static final int  ITEM_SIZE   = 17;
+    public static final int  CRC_SIZE    = 4;
+    
+    /**
+     * @return The size of the encoded plan with count items in bytes
+     */
+    public static int size(int count) {
+        return HEADER_SIZE + count * ITEM_SIZE + CRC_SIZE;
+    }
+    
+    public static byte[] encode(MissionPlan plan) {
+        ByteBuffer buffer = ByteBuffer.allocate(size(plan.size()));
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        buffer.putShort((short) plan.size());
+        for (int i = 0; i < plan.size(); ++i) {
+            MissionItem item = plan.get(i);
+            buffer.put((byte) item.action.ordinal());
+            buffer.putFloat(item.altitude);
+            buffer.putFloat(item.latitude);
+            buffer.putFloat(item.longitude);
+            buffer.putInt(item.duration);
+        }
+        buffer.putInt(checksum(buffer.array(), buffer.position()));
+        return buffer.array();
+    }
+    
+    /**
+     * decode checks and unpacks an uploaded plan.
+     * 
+     * @throws MissionFormatException
+     *             If the data is truncated, corrupt or of another version
+     */
+    public static MissionPlan decode(byte[] data, int length)
+            throws MissionFormatException {
+        if (length < size(0)) {
+            throw new MissionFormatException("truncated: " + length);
+        }
+        
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+        if (buffer.getInt(length - CRC_SIZE) != checksum(data, length
+                - CRC_SIZE)) {
+            throw new MissionFormatException("checksum mismatch");
+        }
+        if (buffer.getInt() != MAGIC) {
+            throw new MissionFormatException("not a mission plan");
+        }
+        byte version = buffer.get();
+        if (version != VERSION) {
+            throw new MissionFormatException("unknown version: " + version);
+        }
+        int count = buffer.getShort();
+        if (count < 0 || length != size(count)) {
+            throw new MissionFormatException("bad item count: " + count);
+        }
+        
+        MissionItem.Action[] actions = MissionItem.Action.values();
+        List<MissionItem> items = new ArrayList<MissionItem>(count);
+        for (int i = 0; i < count; ++i) {
+            int action = buffer.get();
+            if (action < 0 || action >= actions.length) {
+                throw new MissionFormatException("unknown action: " + action);
+            }
+            items.add(new MissionItem(actions[action], buffer.getFloat(),
+                    buffer.getFloat(), buffer.getFloat(), buffer.getInt()));
+        }
+        return new MissionPlan(items);
+    }
+    
+    private static int checksum(byte[] data, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        return (int) crc.getValue();
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: MissionCodec <plan.txt> <plan.bin>");
+            System.exit(1);
+        }
+        
+        List<MissionItem> items = new ArrayList<MissionItem>();
+        BufferedReader in = new BufferedReader(new FileReader(args[0]));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) {
+                    continue;
+                }
+                String[] f = line.split("\\s+");
+                items.add(new MissionItem(MissionItem.Action.valueOf(f[0]
+                        .toUpperCase()), Float.parseFloat(f[1]),
+                        Float.parseFloat(f[2]), Float.parseFloat(f[3]),
+                        Integer.parseInt(f[4])));
+            }
+        } finally {
+            in.close();
+        }
+        
+        byte[] data = encode(new MissionPlan(items));
+        OutputStream out = new FileOutputStream(args[1]);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        System.err.println("wrote " + items.size() + " items (" + data.length
+                + " bytes) to " + args[1]);
+    }
+}
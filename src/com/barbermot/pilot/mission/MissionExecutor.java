@@ -0,0 +1,221 @@
+package com.barbermot.pilot.mission;
+
+import static com.barbermot.pilot.flight.Waypoint.METERS_PER_DEGREE;
+import static com.barbermot.pilot.flight.state.FlightState.Type.GROUND;
+import static com.barbermot.pilot.flight.state.FlightState.Type.HOVER;
+import static com.barbermot.pilot.flight.state.FlightState.Type.LANDING;
+import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_HOLD;
+import static com.barbermot.pilot.flight.state.FlightState.Type.WAYPOINT_TRACK;
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import com.barbermot.pilot.flight.FlightComputer;
+import com.barbermot.pilot.flight.Waypoint;
+import com.barbermot.pilot.flight.state.FlightState.Type;
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * MissionExecutor works through a mission plan on board. Every step is a
+ * transition of the flight computer, the executor only watches the state and
+ * starts the next step when the current one is done. Consecutive track items
+ * are flown as one route. The time of a hold only starts once the copter is
+ * within the acceptance radius of the position it holds.
+ * 
+ * If a step is refused or the flight computer leaves the state of a step for
+ * any other reason (manual control, emergency landing, a command), the
+ * mission is aborted and the computer stays where it is.
+ * 
+ * start, stop and update run on the control loop.
+ */
+public class MissionExecutor {
+    
+    private static final Logger  logger = Logger.getLogger("Mission");
+    
+    private FlightComputer       computer;
+    private float                tolerance;
+    
+    private volatile MissionPlan plan;
+    private volatile int         index;
+    
+    // first item after the current step
+    private int                  next;
+    private boolean              started;
+    
+    // state the step runs in and the one it ends in, if any
+    private Type                 running;
+    private Type                 done;
+    
+    // position of a hold step, and when the hold is over (0 while still on
+    // the way, or if the hold has no duration)
+    private Waypoint             hold;
+    private long                 deadline;
+    
+    /**
+     * @param tolerance
+     *            Distance to the goal height at which a take off is complete
+     */
+    public MissionExecutor(FlightComputer computer, float tolerance) {
+        this.computer = computer;
+        this.tolerance = tolerance;
+    }
+    
+    public void start(MissionPlan plan) {
+        logger.info("Mission started: " + plan.size() + " items");
+        this.index = 0;
+        this.started = false;
+        this.plan = plan.size() > 0 ? plan : null;
+    }
+    
+    public void stop() {
+        if (plan != null) {
+            logger.info("Mission stopped at item " + index);
+            plan = null;
+        }
+    }
+    
+    public void update() throws ConnectionLostException {
+        if (plan == null) {
+            return;
+        }
+        
+        if (!started) {
+            begin(plan.get(index));
+            return;
+        }
+        
+        Type type = computer.getState().getType();
+        if (type == done) {
+            advance();
+        } else if (type != running) {
+            logger.warn("Mission aborted at item " + index + " in " + type);
+            plan = null;
+        } else if (done == null && isComplete(plan.get(index))) {
+            advance();
+        }
+    }
+    
+    private void begin(MissionItem item) throws ConnectionLostException {
+        logger.info("Mission item " + index + ": " + item);
+        
+        started = true;
+        next = index + 1;
+        hold = null;
+        deadline = 0;
+        
+        boolean ok;
+        switch (item.action) {
+            case TAKEOFF:
+                running = HOVER;
+                done = null;
+                ok = transition(HOVER, item.altitude);
+                break;
+            case HOLD:
+                running = WAYPOINT_HOLD;
+                done = null;
+                hold = waypoint(item);
+                ok = transition(WAYPOINT_HOLD, hold);
+                break;
+            case TRACK:
+                List<Waypoint> route = new ArrayList<Waypoint>();
+                while (next < plan.size()
+                        && plan.get(next).action == MissionItem.Action.TRACK) {
+                    ++next;
+                }
+                for (int i = index; i < next; ++i) {
+                    route.add(waypoint(plan.get(i)));
+                }
+                running = WAYPOINT_TRACK;
+                done = WAYPOINT_HOLD;
+                ok = transition(WAYPOINT_TRACK, route);
+                break;
+            case LAND:
+                running = LANDING;
+                done = GROUND;
+                ok = transition(LANDING, null);
+                break;
+            case LOITER:
+                running = WAYPOINT_HOLD;
+                done = null;
+                hold = new Waypoint(computer.getGpsHeight(),
+                        computer.getLatitude(), computer.getLongitude());
+                ok = transition(WAYPOINT_HOLD, hold);
+                break;
+            default:
+                ok = false;
+                break;
+        }
+        
+        if (!ok) {
+            logger.warn("Mission aborted, item " + index + " refused");
+            plan = null;
+        }
+    }
+    
+    private boolean isComplete(MissionItem item) {
+        switch (item.action) {
+            case TAKEOFF:
+                return Math.abs(computer.getAltitude() - item.altitude)
+                        < tolerance;
+            case HOLD:
+            case LOITER:
+                if (item.duration <= 0) {
+                    return false;
+                }
+                if (deadline == 0 && isAtHold()) {
+                    deadline = computer.getTime() + Clock.nanos(item.duration);
+                }
+                return deadline != 0 && computer.getTime() - deadline >= 0;
+            default:
+                return false;
+        }
+    }
+    
+    private boolean isAtHold() {
+        float radius = computer.getConfig().getTrackAcceptanceRadius();
+        float y = (computer.getLatitude() - hold.latitude) * METERS_PER_DEGREE;
+        float x = (float) ((computer.getLongitude() - hold.longitude)
+                * METERS_PER_DEGREE * Math.cos(Math.toRadians(hold.latitude)));
+        return x * x + y * y < radius * radius;
+    }
+    
+    private void advance() {
+        index = next;
+        started = false;
+        if (index == plan.size()) {
+            logger.info("Mission complete");
+            plan = null;
+        }
+    }
+    
+    private <D> boolean transition(Type type, D arg)
+            throws ConnectionLostException {
+        return computer.getTransitions().transition(computer.getState(), type,
+                arg);
+    }
+    
+    private Waypoint waypoint(MissionItem item) {
+        return new Waypoint(computer.getZeroGpsHeight() + item.altitude,
+                item.latitude, item.longitude);
+    }
+    
+    public boolean isActive() {
+        return plan != null;
+    }
+    
+    public int getIndex() {
+        return index;
+    }
+    
+    /**
+     * Current item and size of the plan.
+     */
+    @Override
+    public String toString() {
+        MissionPlan plan = this.plan;
+        return plan == null ? "idle" : index + "/" + plan.size();
+    }
+}
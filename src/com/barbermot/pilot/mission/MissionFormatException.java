@@ -0,0 +1,9 @@
+package com.barbermot.pilot.mission;
+
+@SuppressWarnings("serial")
+public class MissionFormatException extends Exception {
+    
+    public MissionFormatException(String message) {
+        super(message);
+    }
+}
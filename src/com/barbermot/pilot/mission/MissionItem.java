@@ -0,0 +1,44 @@
+package com.barbermot.pilot.mission;
+
+/**
+ * MissionItem is one step of a mission plan. Altitudes are relative: the
+ * height above ground for take off, the height above the calibrated gps
+ * altitude for waypoints. Durations are in ms.
+ */
+public class MissionItem {
+    
+    public enum Action {
+        // climb to altitude and hover
+        TAKEOFF,
+        // hold the waypoint for duration
+        HOLD,
+        // fly to the waypoint, consecutive items form one route
+        TRACK,
+        // land and wait on the ground
+        LAND,
+        // hold the current position for duration, 0 holds until the next
+        // command
+        LOITER
+    };
+    
+    public final Action action;
+    public final float  altitude;
+    public final float  latitude;
+    public final float  longitude;
+    public final int    duration;
+    
+    public MissionItem(Action action, float altitude, float latitude,
+            float longitude, int duration) {
+        this.action = action;
+        this.altitude = altitude;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.duration = duration;
+    }
+    
+    @Override
+    public String toString() {
+        return action + " " + altitude + " " + latitude + " " + longitude
+                + " " + duration;
+    }
+}
@@ -0,0 +1,24 @@
+package com.barbermot.pilot.mission;
+
+import java.util.List;
+
+/**
+ * MissionPlan is the immutable, ordered list of items the MissionExecutor
+ * works through.
+ */
+public class MissionPlan {
+    
+    private final MissionItem[] items;
+    
+    public MissionPlan(List<MissionItem> items) {
+        this.items = items.toArray(new MissionItem[items.size()]);
+    }
+    
+    public int size() {
+        return items.length;
+    }
+    
+    public MissionItem get(int i) {
+        return items[i];
+    }
+}
@@ -2,13 +2,19 @@ package com.barbermot.pilot.parser;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 import org.apache.log4j.Logger;
 
+import com.barbermot.pilot.flight.ConfigurationException;
 import com.barbermot.pilot.flight.FlightComputer;
 import com.barbermot.pilot.flight.FlightConfiguration;
+import com.barbermot.pilot.flight.Waypoint;
+import com.barbermot.pilot.flight.state.AutotuneState;
 import com.barbermot.pilot.quad.QuadCopterImpl;
 
 public class Parser {
@@ -44,7 +50,14 @@ public class Parser {
                 case 'J':
                     if (scanner.hasNextInt()) {
                         x = scanner.nextInt();
-                        FlightConfiguration.get().setDefaultGain(x);
+                        try {
+                            FlightConfiguration.update(
+                                    FlightConfiguration.DEFAULT_GAIN,
+                                    String.valueOf(x));
+                        } catch (ConfigurationException e) {
+                            logger.warn(e.getMessage());
+                            fail(cmd);
+                        }
                     } else {
                         fail(cmd);
                     }
@@ -155,6 +168,30 @@ public class Parser {
                     }
                     break;
                 
+                // Command "Y <float> <float> <float> ..." tracks the route of
+                // waypoints given as altitude, latitude, longitude
+                case 'y':
+                case 'Y': {
+                    List<Waypoint> route = new ArrayList<Waypoint>();
+                    while (scanner.hasNextFloat()) {
+                        f = scanner.nextFloat();
+                        if (!scanner.hasNextFloat()) {
+                            break;
+                        }
+                        float lat = scanner.nextFloat();
+                        if (!scanner.hasNextFloat()) {
+                            break;
+                        }
+                        route.add(new Waypoint(f, lat, scanner.nextFloat()));
+                    }
+                    if (!route.isEmpty() && !scanner.hasNext()) {
+                        computer.track(route);
+                    } else {
+                        fail(cmd);
+                    }
+                }
+                    break;
+                
                 // Command "H <float>" hovers the thing at altitude <float>
                 case 'h':
                 case 'H':
@@ -184,7 +221,8 @@ public class Parser {
                     break;
                 
                 // Command "C .... " sets the configuration for a particular pid
-                // controller
+                // controller: hover (1), landing (2), orientation (3) or gps
+                // (4)
                 case 'C':
                 case 'c': {
                     int type;
@@ -207,28 +245,48 @@ public class Parser {
                         return;
                     }
                     
-                    float[] conf = { proportional, integral, derivative, min,
-                            max };
+                    String key;
                     switch (type) {
                         case 1:
-                            computer.setHoverConf(conf);
+                            key = "hover.conf";
                             break;
                         case 2:
-                            computer.setLandingConf(conf);
+                            key = "landing.conf";
                             break;
                         case 3:
-                            computer.setOrientationConf(conf);
+                            key = "orientation.conf";
                             break;
                         case 4:
-                            computer.setGpsConf(conf);
+                            key = "gps.conf";
                             break;
                         default:
                             fail(cmd);
-                            break;
+                            return;
                     }
+                    
+                    float[] conf = { proportional, integral, derivative, min,
+                            max };
+                    update(cmd, key, FlightConfiguration.format(conf));
                 }
                     break;
                 
+                // Command "U <int>" autotunes throttle (0), roll (1), pitch
+                // (2) or yaw (3) while hovering
+                case 'u':
+                case 'U':
+                    if (scanner.hasNextInt()) {
+                        x = scanner.nextInt();
+                        AutotuneState.Axis[] axes = AutotuneState.Axis.values();
+                        if (x >= 0 && x < axes.length) {
+                            computer.autotune(axes[x]);
+                        } else {
+                            fail(cmd);
+                        }
+                    } else {
+                        fail(cmd);
+                    }
+                    break;
+                
                 // Disengage auto throttle
                 case 'd':
                 case 'D':
@@ -252,28 +310,46 @@ public class Parser {
                     }
                     break;
                 
-                // Set minimum throttle
+                // Command "M <int>" sets the minimum throttle
                 case 'm':
                 case 'M':
                     if (scanner.hasNextInt()) {
                         x = scanner.nextInt();
-                        computer.setMinThrottle(x);
+                        update(cmd, "min.throttle", Integer.toString(x));
                     } else {
                         fail(cmd);
                     }
                     break;
                 
-                // Set maximum throttle
+                // Command "N <int>" sets the maximum throttle
                 case 'n':
                 case 'N':
                     if (scanner.hasNextInt()) {
                         x = scanner.nextInt();
-                        computer.setMaxThrottle(x);
+                        update(cmd, "max.throttle", Integer.toString(x));
                     } else {
                         fail(cmd);
                     }
                     break;
                 
+                // v [<file>] reloads the configuration, the flight computer
+                // picks it up on the next tick
+                case 'v':
+                case 'V':
+                    String file = scanner.hasNext() ? scanner.next()
+                            : FlightConfiguration.FILE;
+                    try {
+                        logger.info("Configuration "
+                                + FlightConfiguration.load(file));
+                    } catch (IOException e) {
+                        logger.warn("Cannot read " + file, e);
+                        fail(cmd);
+                    } catch (ConfigurationException e) {
+                        logger.warn(e.getMessage());
+                        fail(cmd);
+                    }
+                    break;
+                
                 // Commands "X" stops the thing
                 case 'x':
                 case 'X':
@@ -290,4 +366,17 @@ public class Parser {
     public void fail(String cmd) {
         logger.warn("Failed to execute command:" + cmd);
     }
+    
+    /*
+     * Changes a setting through the configuration, so it is validated and
+     * later swaps keep it. The flight computer picks it up on the next tick.
+     */
+    private void update(String cmd, String key, String value) {
+        try {
+            FlightConfiguration.update(key, value);
+        } catch (ConfigurationException e) {
+            logger.warn(e.getMessage());
+            fail(cmd);
+        }
+    }
 }
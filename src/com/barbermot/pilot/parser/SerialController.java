@@ -9,7 +9,11 @@ import java.io.PrintStream;
 import org.apache.log4j.Logger;
 
 import com.barbermot.pilot.flight.FlightComputer;
+import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.io.Connection;
+import com.barbermot.pilot.mission.MissionCodec;
+import com.barbermot.pilot.mission.MissionFormatException;
+import com.barbermot.pilot.mission.MissionPlan;
 
 /**
  * SerialController is a tasks that waits for user input and relays commands to
@@ -21,6 +25,7 @@ public class SerialController implements Runnable {
     private static final Logger logger = Logger.getLogger("SerialController");
     private long                startSleep;
     private long                sleepTime;
+    private FlightComputer      computer;
     private Parser              parser;
     private Connection          connection;
     private PrintStream         printer;
@@ -30,6 +35,7 @@ public class SerialController implements Runnable {
     public SerialController(FlightComputer computer, char delim,
             Connection connection) throws ConnectionLostException, IOException {
         this.connection = connection;
+        this.computer = computer;
         this.parser = new Parser(computer);
         this.delim = delim;
         this.in = connection.getInputStream();
@@ -102,9 +108,55 @@ public class SerialController implements Runnable {
                 } catch (NumberFormatException e) {
                     parser.fail(cmd);
                 }
+            } else if (cmd.charAt(0) == 'p' || cmd.charAt(0) == 'P') {
+                upload(cmd);
             } else {
                 parser.doCmd(cmd);
             }
         }
     }
+    
+    /*
+     * Command "P <int>" is followed by a mission plan of <int> bytes in the
+     * binary format of MissionCodec, "P 0" stops the running mission.
+     */
+    private void upload(String cmd) throws IOException {
+        int length;
+        try {
+            length = Integer.parseInt(cmd.substring(1).trim());
+        } catch (NumberFormatException e) {
+            parser.fail(cmd);
+            return;
+        }
+        
+        if (length == 0) {
+            computer.stopMission();
+            return;
+        }
+        
+        int max = MissionCodec.size(FlightConfiguration.get()
+                .getMissionMaxItems());
+        if (length < 0 || length > max) {
+            printer.println("Mission rejected: more than " + max + " bytes");
+            return;
+        }
+        
+        byte[] data = new byte[length];
+        for (int read = 0; read < length;) {
+            int n = in.read(data, read, length - read);
+            if (n == -1) {
+                throw new IOException("EOS");
+            }
+            read += n;
+        }
+        
+        try {
+            MissionPlan plan = MissionCodec.decode(data, length);
+            computer.fly(plan);
+            printer.println("Mission accepted: " + plan.size() + " items");
+        } catch (MissionFormatException e) {
+            logger.warn("Mission rejected: " + e.getMessage());
+            printer.println("Mission rejected: " + e.getMessage());
+        }
+    }
 }
@@ -11,96 +11,42 @@ import com.barbermot.pilot.signal.SignalListener;
  * trying to achieve a specified goal by making adjustments to the control it is
  * given.
  * 
+ * The state of the controller lives in one axis of a MultiAxisControl, which
+ * computes the adjustments for all axes on the control tick. AutoControl only
+ * hands the samples of its signal to that axis. Goals and gains may be set
+ * from any thread, they take effect with the next tick.
+ * 
  */
 public class AutoControl implements SignalListener {
     
-    protected Logger        logger;
-    private ControlListener control;
-    private float           proportional;
-    private float           integral;
-    private float           derivative;
-    private float           lastError;
-    private long            lastTime;
-    private float           cummulativeError;
-    private float           maxCummulative;
-    private float           minCummulative;
-    private boolean         engaged;
-    private boolean         isFirst;
-    protected float         goal;
-    
-    public AutoControl(ControlListener control) {
-        this(control, Logger.getLogger("AutoControl"));
-    }
-    
-    public AutoControl(ControlListener control, Logger logger) {
-        this.control = control;
-        this.isFirst = true;
-        this.logger = logger;
+    protected Logger                 logger;
+    protected final MultiAxisControl engine;
+    protected final int              axis;
+    
+    public AutoControl(MultiAxisControl engine, ControlListener control) {
+        this(engine, control, Logger.getLogger("AutoControl"));
     }
     
-    @Override
-    public void update(float value, long time) throws ConnectionLostException {
-        if (engaged) {
-            
-            if (isFirst) {
-                isFirst = false;
-                lastTime = time;
-                lastError = computeError(value);
-                cummulativeError = 0;
-                return;
-            }
-            
-            float pTotal;
-            float iTotal;
-            float dTotal;
-            
-            float timeDelta = time - lastTime;
-            
-            if (timeDelta <= 0) {
-                logger.trace("Message from the past: " + timeDelta);
-                return;
-            }
-            
-            float error = computeError(value);
-            float errorDelta = error - lastError;
-            
-            // simple adjustment proportional to the error
-            pTotal = proportional * error;
-            
-            // reacts to the length of an error
-            cummulativeError += error * timeDelta;
-            if (cummulativeError > maxCummulative) {
-                cummulativeError = maxCummulative;
-            } else if (cummulativeError < minCummulative) {
-                cummulativeError = minCummulative;
-            }
-            iTotal = integral * cummulativeError;
-            
-            // adjustment to react to the closing speed
-            dTotal = derivative * (errorDelta / timeDelta);
-            
-            float gTotal = pTotal + iTotal + dTotal;
-            
-            lastError = error;
-            lastTime = time;
-            
-            control.adjust(gTotal);
-            logger.info(String.format("%d\t%f\t%f\t%f\t%f\t%f", time, goal,
-                    value, pTotal, iTotal, dTotal));
-        }
+    public AutoControl(MultiAxisControl engine, ControlListener control,
+            Logger logger) {
+        this(engine, control, logger, MultiAxisControl.LINEAR);
     }
     
     /**
-     * Implementation interface to specify the method to compute the error
-     * (difference between signal value and goal). Default implementation simply
-     * subtracts the value from the goal.
-     * 
-     * @param value
-     *            Current signal value
-     * @return Directed (signed) error
+     * @param mode
+     *            How the error (difference between signal value and goal) is
+     *            computed, one of MultiAxisControl.LINEAR, RADIAN or GPS
      */
-    protected float computeError(float value) {
-        return goal - value;
+    protected AutoControl(MultiAxisControl engine, ControlListener control,
+            Logger logger, int mode) {
+        this.engine = engine;
+        this.logger = logger;
+        this.axis = engine.add(control, logger, mode);
+    }
+    
+    @Override
+    public void update(float value, long time) throws ConnectionLostException {
+        engine.sample(axis, value, time);
     }
     
     /**
@@ -113,61 +59,72 @@ public class AutoControl implements SignalListener {
      *            derivative, min integral, max integral
      */
     public void setConfiguration(float[] conf) {
-        proportional = conf[0];
-        integral = conf[1];
-        derivative = conf[2];
-        minCummulative = conf[3];
-        maxCummulative = conf[4];
-        isFirst = true;
+        engine.setConfiguration(axis, conf);
+    }
+    
+    /**
+     * @param n
+     *            Update the controller only every n-th control tick
+     */
+    public void setDivider(int n) {
+        engine.setDivider(axis, n);
     }
     
     public float getProportional() {
-        return proportional;
+        return engine.getProportional(axis);
     }
     
     public void setProportional(float proportional) {
-        this.proportional = proportional;
+        engine.setProportional(axis, proportional);
     }
     
     public float getIntegral() {
-        return integral;
+        return engine.getIntegral(axis);
     }
     
     public void setIntegral(float integral) {
-        this.integral = integral;
+        engine.setIntegral(axis, integral);
     }
     
     public float getDerivative() {
-        return derivative;
+        return engine.getDerivative(axis);
     }
     
     public void setDerivative(float derivative) {
-        this.derivative = derivative;
+        engine.setDerivative(axis, derivative);
     }
     
     public float getMaxCummulative() {
-        return maxCummulative;
+        return engine.getMaxCummulative(axis);
     }
     
     public void setMaxCummulative(float max) {
-        this.maxCummulative = max;
+        engine.setMaxCummulative(axis, max);
     }
     
     public float getMinCummulative() {
-        return minCummulative;
+        return engine.getMinCummulative(axis);
     }
     
     public void setMinCummulative(float min) {
-        this.minCummulative = min;
+        engine.setMinCummulative(axis, min);
     }
     
     public float getGoal() {
-        return goal;
+        return engine.getGoal(axis);
     }
     
     public void setGoal(float goal) {
-        this.goal = goal;
-        isFirst = true;
+        engine.setGoal(axis, goal);
+    }
+    
+    /**
+     * trackGoal moves the goal without restarting the controller. It is meant
+     * for goals that change continuously, like the setpoint of an inner loop,
+     * and may only be called on the control loop.
+     */
+    public void trackGoal(float goal) {
+        engine.trackGoal(axis, goal);
     }
     
     /**
@@ -179,10 +136,10 @@ public class AutoControl implements SignalListener {
      */
     public void engage(boolean engaged) {
         logger.info(engaged ? "engaged" : "disengaged");
-        this.engaged = engaged;
+        engine.engage(axis, engaged);
     }
     
     public boolean isEngaged() {
-        return engaged;
+        return engine.isEngaged(axis);
     }
 }
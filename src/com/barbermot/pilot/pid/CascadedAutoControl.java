@@ -0,0 +1,94 @@
+package com.barbermot.pilot.pid;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * CascadedAutoControl controls an angle through its rate. The outer loop (this
+ * controller) listens to the angle and turns the angle error into a rate
+ * setpoint. The inner loop listens to the angular rate and drives the actual
+ * control. The inner loop reacts to disturbances long before they show up as
+ * an angle error.
+ * 
+ * The inner loop runs on every control tick with the latest rate sample. It
+ * cannot usefully run faster: the servo outputs are committed once per tick,
+ * so updates in between would never reach the motors. The outer loop runs
+ * only every n-th tick (setDivider), which gives the cascade its
+ * separation: the rate loop settles on a setpoint before the angle loop moves
+ * it again.
+ * 
+ * Both loops have to be fed their signals; the inner loop is available
+ * through getRateControl. The inner loop is added to the engine first, so a new
+ * rate setpoint takes effect on the tick after the angle update.
+ */
+public class CascadedAutoControl extends RadianAutoControl {
+    
+    private Setpoint setpoint;
+    
+    /*
+     * Hands the output of the angle loop to the rate loop as its goal.
+     */
+    private static class Setpoint implements ControlListener {
+        
+        private AutoControl rate;
+        private float       maxRate;
+        
+        Setpoint(AutoControl rate) {
+            this.rate = rate;
+        }
+        
+        @Override
+        public void adjust(float x) throws ConnectionLostException {
+            if (x > maxRate) {
+                x = maxRate;
+            } else if (x < -maxRate) {
+                x = -maxRate;
+            }
+            rate.trackGoal(x);
+        }
+    }
+    
+    public CascadedAutoControl(MultiAxisControl engine,
+            ControlListener control, Logger logger, Logger rateLogger) {
+        this(engine, new Setpoint(new AutoControl(engine, control, rateLogger)),
+                logger);
+    }
+    
+    private CascadedAutoControl(MultiAxisControl engine, Setpoint setpoint,
+            Logger logger) {
+        super(engine, setpoint, logger);
+        this.setpoint = setpoint;
+    }
+    
+    /**
+     * setConfiguration sets the configuration of both loops.
+     * 
+     * @param angleConf
+     *            PID configuration of the angle loop (output in rad/s)
+     * @param rateConf
+     *            PID configuration of the rate loop
+     * @param maxRate
+     *            Limit of the rate setpoint in rad/s
+     */
+    public void setConfiguration(float[] angleConf, float[] rateConf,
+            float maxRate) {
+        setConfiguration(angleConf);
+        setpoint.rate.setConfiguration(rateConf);
+        setpoint.maxRate = maxRate;
+    }
+    
+    @Override
+    public void engage(boolean engaged) {
+        super.engage(engaged);
+        setpoint.rate.setGoal(0);
+        setpoint.rate.engage(engaged);
+    }
+    
+    /**
+     * @return The inner loop. It has to listen to the angular rate.
+     */
+    public AutoControl getRateControl() {
+        return setpoint.rate;
+    }
+}
@@ -0,0 +1,465 @@
+package com.barbermot.pilot.pid;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.apache.log4j.Logger;
+
+import com.barbermot.pilot.logger.LatencyHistogram;
+import com.barbermot.pilot.logger.TraceRing;
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.TickListener;
+
+/**
+ * MultiAxisControl runs the PID loops of all axes. Gains, integrators and the
+ * last errors of every axis are kept in primitive arrays indexed by the axis
+ * number. The AutoControls are thin handles on one axis each: they only store
+ * the latest sample, and every control tick updates all engaged axes that have
+ * a new sample in one pass. An axis with a divider of n is only updated every
+ * n-th tick, which lets the outer loop of a cascade run slower than the inner
+ * one.
+ * 
+ * Every update is traced in binary (time, axis, goal, value, P, I, D, output)
+ * into a preallocated TraceRing; the TraceDecoder turns the drained file back
+ * into text.
+ * 
+ * Axes are added while the system is built. Goals, gains and engagement can be
+ * changed from any thread: the setters publish an immutable snapshot of the
+ * axis parameters, and the control loop picks up the latest snapshot at the
+ * start of the next tick. Changes therefore apply atomically between two
+ * updates, and the control loop itself never takes a lock.
+ */
+public class MultiAxisControl implements TickListener {
+    
+    /*
+     * Parameters of one axis. A snapshot is never modified once it is
+     * published; setters publish a modified copy. restarts counts the changes
+     * that restart the controller.
+     */
+    private static final class Parameters {
+        
+        float   proportional;
+        float   integral;
+        float   derivative;
+        float   minCummulative;
+        float   maxCummulative;
+        float   goal;
+        boolean engaged;
+        int     divider;
+        int     restarts;
+        
+        Parameters copy() {
+            Parameters copy = new Parameters();
+            copy.proportional = proportional;
+            copy.integral = integral;
+            copy.derivative = derivative;
+            copy.minCummulative = minCummulative;
+            copy.maxCummulative = maxCummulative;
+            copy.goal = goal;
+            copy.engaged = engaged;
+            copy.divider = divider;
+            copy.restarts = restarts;
+            return copy;
+        }
+    }
+    
+    public static final int                  LINEAR            = 0;
+    public static final int                  RADIAN            = 1;
+    public static final int                  GPS               = 2;
+    
+    public static final int                  TRACE_RECORD_SIZE = 36;
+    private static final int                 TRACE_CAPACITY    = 1 << 13;
+    
+    private static final int                 CAPACITY          = 16;
+    
+    private int                              size;
+    
+    private float[]                          proportional;
+    private float[]                          integral;
+    private float[]                          derivative;
+    private float[]                          minCummulative;
+    private float[]                          maxCummulative;
+    
+    private float[]                          goal;
+    private float[]                          lastError;
+    private long[]                           lastTime;
+    private float[]                          cummulativeError;
+    
+    private float[]                          value;
+    private long[]                           time;
+    private boolean[]                        fresh;
+    
+    private boolean[]                        engaged;
+    private boolean[]                        isFirst;
+    private int[]                            mode;
+    private int[]                            divider;
+    private long                             ticks;
+    
+    private ControlListener[]                controls;
+    private Logger[]                         loggers;
+    
+    // latest parameters per axis, and the ones the arrays above hold
+    private AtomicReferenceArray<Parameters> parameters;
+    private Parameters[]                     active;
+    
+    private LatencyHistogram                 latency;
+    private final TraceRing                  trace;
+    
+    public MultiAxisControl() {
+        trace = new TraceRing(TRACE_RECORD_SIZE, TRACE_CAPACITY);
+        proportional = new float[CAPACITY];
+        integral = new float[CAPACITY];
+        derivative = new float[CAPACITY];
+        minCummulative = new float[CAPACITY];
+        maxCummulative = new float[CAPACITY];
+        goal = new float[CAPACITY];
+        lastError = new float[CAPACITY];
+        lastTime = new long[CAPACITY];
+        cummulativeError = new float[CAPACITY];
+        value = new float[CAPACITY];
+        time = new long[CAPACITY];
+        fresh = new boolean[CAPACITY];
+        engaged = new boolean[CAPACITY];
+        isFirst = new boolean[CAPACITY];
+        mode = new int[CAPACITY];
+        divider = new int[CAPACITY];
+        controls = new ControlListener[CAPACITY];
+        loggers = new Logger[CAPACITY];
+        active = new Parameters[CAPACITY];
+        parameters = new AtomicReferenceArray<Parameters>(CAPACITY);
+    }
+    
+    /**
+     * add creates a new axis.
+     * 
+     * @param control
+     *            Control the output of the axis is sent to
+     * @param logger
+     *            Logger of the axis
+     * @param mode
+     *            How the error is computed: LINEAR, RADIAN or GPS
+     * @return The number of the new axis
+     */
+    public synchronized int add(ControlListener control, Logger logger,
+            int mode) {
+        if (size == controls.length) {
+            grow(2 * size);
+        }
+        controls[size] = control;
+        loggers[size] = logger;
+        this.mode[size] = mode;
+        Parameters initial = new Parameters();
+        initial.divider = 1;
+        parameters.set(size, initial);
+        logger.info("traced as axis " + size);
+        return size++;
+    }
+    
+    private void grow(int capacity) {
+        proportional = Arrays.copyOf(proportional, capacity);
+        integral = Arrays.copyOf(integral, capacity);
+        derivative = Arrays.copyOf(derivative, capacity);
+        minCummulative = Arrays.copyOf(minCummulative, capacity);
+        maxCummulative = Arrays.copyOf(maxCummulative, capacity);
+        goal = Arrays.copyOf(goal, capacity);
+        lastError = Arrays.copyOf(lastError, capacity);
+        lastTime = Arrays.copyOf(lastTime, capacity);
+        cummulativeError = Arrays.copyOf(cummulativeError, capacity);
+        value = Arrays.copyOf(value, capacity);
+        time = Arrays.copyOf(time, capacity);
+        fresh = Arrays.copyOf(fresh, capacity);
+        engaged = Arrays.copyOf(engaged, capacity);
+        isFirst = Arrays.copyOf(isFirst, capacity);
+        mode = Arrays.copyOf(mode, capacity);
+        divider = Arrays.copyOf(divider, capacity);
+        controls = Arrays.copyOf(controls, capacity);
+        loggers = Arrays.copyOf(loggers, capacity);
+        active = Arrays.copyOf(active, capacity);
+        
+        AtomicReferenceArray<Parameters> grown;
+        grown = new AtomicReferenceArray<Parameters>(capacity);
+        for (int i = 0; i < size; ++i) {
+            grown.set(i, parameters.get(i));
+        }
+        parameters = grown;
+    }
+    
+    /**
+     * sample stores the latest reading of an axis. It is picked up with the
+     * next tick; earlier readings of the same tick are superseded.
+     */
+    public void sample(int axis, float value, long time) {
+        if (engaged[axis]) {
+            this.value[axis] = value;
+            this.time[axis] = time;
+            fresh[axis] = true;
+        }
+    }
+    
+    @Override
+    public void tick(long now) throws ConnectionLostException {
+        for (int i = 0; i < size; ++i) {
+            Parameters next = parameters.get(i);
+            if (next != active[i]) {
+                apply(i, next);
+            }
+        }
+        
+        ++ticks;
+        for (int i = 0; i < size; ++i) {
+            if (fresh[i] && engaged[i] && ticks % divider[i] == 0) {
+                fresh[i] = false;
+                update(i);
+            }
+        }
+    }
+    
+    /*
+     * Copies a new parameter snapshot into the arrays used by the update.
+     */
+    private void apply(int i, Parameters next) {
+        Parameters previous = active[i];
+        active[i] = next;
+        
+        proportional[i] = next.proportional;
+        integral[i] = next.integral;
+        derivative[i] = next.derivative;
+        minCummulative[i] = next.minCummulative;
+        maxCummulative[i] = next.maxCummulative;
+        divider[i] = next.divider;
+        
+        if (previous == null || previous.restarts != next.restarts) {
+            goal[i] = next.goal;
+            isFirst[i] = true;
+        }
+        
+        if (engaged[i] != next.engaged) {
+            engaged[i] = next.engaged;
+            fresh[i] = false;
+        }
+    }
+    
+    private void update(int i) throws ConnectionLostException {
+        float value = this.value[i];
+        long time = this.time[i];
+        
+        if (isFirst[i]) {
+            isFirst[i] = false;
+            lastTime[i] = time;
+            lastError[i] = computeError(i, value);
+            cummulativeError[i] = 0;
+            return;
+        }
+        
+        // sample times are in ns, the gains are tuned for ms
+        float timeDelta = (time - lastTime[i]) / (float) Clock.NANOS_PER_MILLI;
+        
+        if (timeDelta <= 0) {
+            loggers[i].trace("Message from the past: " + timeDelta);
+            return;
+        }
+        
+        float error = computeError(i, value);
+        float errorDelta = error - lastError[i];
+        
+        // simple adjustment proportional to the error
+        float pTotal = proportional[i] * error;
+        
+        // reacts to the length of an error
+        float cummulative = cummulativeError[i] + error * timeDelta;
+        if (cummulative > maxCummulative[i]) {
+            cummulative = maxCummulative[i];
+        } else if (cummulative < minCummulative[i]) {
+            cummulative = minCummulative[i];
+        }
+        cummulativeError[i] = cummulative;
+        float iTotal = integral[i] * cummulative;
+        
+        // adjustment to react to the closing speed
+        float dTotal = derivative[i] * (errorDelta / timeDelta);
+        
+        lastError[i] = error;
+        lastTime[i] = time;
+        
+        float output = pTotal + iTotal + dTotal;
+        controls[i].adjust(output);
+        if (latency != null) {
+            latency.record(Clock.nanoTime() - time);
+        }
+        
+        long record = trace.claim();
+        int offset = trace.offset(record);
+        trace.putLong(offset, time);
+        trace.putInt(offset + 8, i);
+        trace.putFloat(offset + 12, goal[i]);
+        trace.putFloat(offset + 16, value);
+        trace.putFloat(offset + 20, pTotal);
+        trace.putFloat(offset + 24, iTotal);
+        trace.putFloat(offset + 28, dTotal);
+        trace.putFloat(offset + 32, output);
+        trace.commit(record);
+    }
+    
+    private float computeError(int i, float value) {
+        return computeError(mode[i], goal[i], value);
+    }
+    
+    /*
+     * Directed (signed) difference between signal value and goal.
+     */
+    static float computeError(int mode, float goal, float value) {
+        switch (mode) {
+            case RADIAN:
+                float left = goal - value;
+                float right = (float) (goal < value ? goal
+                        - (value - 2 * Math.PI) : goal - (value + 2 * Math.PI));
+                return Math.abs(left) < Math.abs(right) ? left : right;
+            case GPS:
+                // approximate to meters in our lat/lon
+                return (goal - value) * 1000;
+            default:
+                return goal - value;
+        }
+    }
+    
+    /**
+     * setConfiguration sets the PID factors and the integral limits of an
+     * axis.
+     * 
+     * @param conf
+     *            Array of five float values: proportianal, integral,
+     *            derivative, min integral, max integral
+     */
+    public synchronized void setConfiguration(int axis, float[] conf) {
+        Parameters next = parameters.get(axis).copy();
+        next.proportional = conf[0];
+        next.integral = conf[1];
+        next.derivative = conf[2];
+        next.minCummulative = conf[3];
+        next.maxCummulative = conf[4];
+        ++next.restarts;
+        parameters.set(axis, next);
+    }
+    
+    public float getProportional(int axis) {
+        return parameters.get(axis).proportional;
+    }
+    
+    public synchronized void setProportional(int axis, float proportional) {
+        Parameters next = parameters.get(axis).copy();
+        next.proportional = proportional;
+        parameters.set(axis, next);
+    }
+    
+    public float getIntegral(int axis) {
+        return parameters.get(axis).integral;
+    }
+    
+    public synchronized void setIntegral(int axis, float integral) {
+        Parameters next = parameters.get(axis).copy();
+        next.integral = integral;
+        parameters.set(axis, next);
+    }
+    
+    public float getDerivative(int axis) {
+        return parameters.get(axis).derivative;
+    }
+    
+    public synchronized void setDerivative(int axis, float derivative) {
+        Parameters next = parameters.get(axis).copy();
+        next.derivative = derivative;
+        parameters.set(axis, next);
+    }
+    
+    public float getMaxCummulative(int axis) {
+        return parameters.get(axis).maxCummulative;
+    }
+    
+    public synchronized void setMaxCummulative(int axis, float max) {
+        Parameters next = parameters.get(axis).copy();
+        next.maxCummulative = max;
+        parameters.set(axis, next);
+    }
+    
+    public float getMinCummulative(int axis) {
+        return parameters.get(axis).minCummulative;
+    }
+    
+    public synchronized void setMinCummulative(int axis, float min) {
+        Parameters next = parameters.get(axis).copy();
+        next.minCummulative = min;
+        parameters.set(axis, next);
+    }
+    
+    /**
+     * @return The goal last set with setGoal, goals moved with trackGoal are
+     *         not reflected
+     */
+    public float getGoal(int axis) {
+        return parameters.get(axis).goal;
+    }
+    
+    public synchronized void setGoal(int axis, float goal) {
+        Parameters next = parameters.get(axis).copy();
+        next.goal = goal;
+        ++next.restarts;
+        parameters.set(axis, next);
+    }
+    
+    /**
+     * trackGoal moves the goal of an axis right away. Unlike the other setters
+     * it may only be called on the control loop, e.g. by the output of another
+     * axis.
+     */
+    public void trackGoal(int axis, float goal) {
+        this.goal[axis] = goal;
+    }
+    
+    public synchronized void engage(int axis, boolean engaged) {
+        Parameters next = parameters.get(axis).copy();
+        next.engaged = engaged;
+        parameters.set(axis, next);
+    }
+    
+    public boolean isEngaged(int axis) {
+        return parameters.get(axis).engaged;
+    }
+    
+    /**
+     * setDivider makes an axis update only every n-th control tick, with the
+     * latest sample it got since its last update. The default is 1, every
+     * tick.
+     */
+    public synchronized void setDivider(int axis, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Divider must be positive: "
+                    + n);
+        }
+        Parameters next = parameters.get(axis).copy();
+        next.divider = n;
+        parameters.set(axis, next);
+    }
+    
+    public int getDivider(int axis) {
+        return parameters.get(axis).divider;
+    }
+    
+    /**
+     * @param latency
+     *            Histogram to record the time from the sample's origin to the
+     *            adjusted control in
+     */
+    public void setLatency(LatencyHistogram latency) {
+        this.latency = latency;
+    }
+    
+    public TraceRing getTrace() {
+        return trace;
+    }
+    
+    public int size() {
+        return size;
+    }
+}
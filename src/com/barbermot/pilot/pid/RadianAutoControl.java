@@ -4,19 +4,12 @@ import org.apache.log4j.Logger;
 
 public class RadianAutoControl extends AutoControl {
     
-    public RadianAutoControl(ControlListener control) {
-        super(control);
+    public RadianAutoControl(MultiAxisControl engine, ControlListener control) {
+        this(engine, control, Logger.getLogger("AutoControl"));
     }
     
-    public RadianAutoControl(ControlListener control, Logger logger) {
-        super(control, logger);
-    }
-    
-    @Override
-    public float computeError(float value) {
-        float left = goal - value;
-        float right = (float) (goal < value ? goal - (value - 2 * Math.PI)
-                : goal - (value + 2 * Math.PI));
-        return Math.abs(left) < Math.abs(right) ? left : right;
+    public RadianAutoControl(MultiAxisControl engine, ControlListener control,
+            Logger logger) {
+        super(engine, control, logger, MultiAxisControl.RADIAN);
     }
 }
@@ -0,0 +1,229 @@
+package com.barbermot.pilot.pid;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import org.apache.log4j.Logger;
+
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.SignalListener;
+
+/**
+ * RelayAutotuner identifies the ultimate gain and period of a control axis
+ * with the relay feedback experiment of Astrom and Hagglund. Instead of a PID
+ * controller a relay with hysteresis drives the control, which makes the
+ * signal oscillate around the goal. From the period and amplitude of the
+ * oscillation PID gains are computed with the Ziegler-Nichols rules.
+ * 
+ * The gains are in the units AutoControl uses: time deltas in ms.
+ */
+public class RelayAutotuner implements SignalListener {
+    
+    private ControlListener  control;
+    private Logger           logger;
+    private int              mode;
+    
+    private float            relay;
+    private float            hysteresis;
+    private float            maxError;
+    private int              cycles;
+    private long             timeout;
+    
+    private float            goal;
+    private volatile boolean engaged;
+    private volatile boolean done;
+    private volatile boolean failed;
+    
+    private boolean          high;
+    private long             startTime;
+    private long             lastRise;
+    private int              count;
+    private float            maxInCycle;
+    private float            minInCycle;
+    private long             periodSum;
+    private float            amplitudeSum;
+    
+    private float            ultimateGain;
+    private float            ultimatePeriod;
+    
+    /**
+     * @param mode
+     *            How the error is computed, one of MultiAxisControl.LINEAR,
+     *            RADIAN or GPS
+     * @param conf
+     *            Array of three float values: relay amplitude, hysteresis and
+     *            the error at which the experiment is aborted
+     * @param cycles
+     *            Number of oscillations to average
+     * @param timeout
+     *            Time limit of the experiment in ms
+     */
+    public RelayAutotuner(ControlListener control, Logger logger, int mode,
+            float[] conf, int cycles, long timeout) {
+        this.control = control;
+        this.logger = logger;
+        this.mode = mode;
+        this.relay = conf[0];
+        this.hysteresis = conf[1];
+        this.maxError = conf[2];
+        this.cycles = cycles;
+        this.timeout = Clock.nanos(timeout);
+    }
+    
+    /**
+     * start begins a new experiment around the goal. The relay takes over the
+     * control with the next sample.
+     */
+    public void start(float goal) {
+        this.goal = goal;
+        high = true;
+        startTime = 0;
+        lastRise = 0;
+        count = 0;
+        periodSum = 0;
+        amplitudeSum = 0;
+        maxInCycle = -Float.MAX_VALUE;
+        minInCycle = Float.MAX_VALUE;
+        done = false;
+        failed = false;
+        logger.info("autotune started");
+        engaged = true;
+    }
+    
+    public void stop() {
+        engaged = false;
+    }
+    
+    @Override
+    public void update(float value, long time) throws ConnectionLostException {
+        if (!engaged) {
+            return;
+        }
+        
+        if (startTime == 0) {
+            startTime = time;
+        }
+        
+        float error = MultiAxisControl.computeError(mode, goal, value);
+        
+        if (Math.abs(error) > maxError || time - startTime > timeout) {
+            logger.warn("autotune aborted, error: " + error);
+            fail();
+            return;
+        }
+        
+        maxInCycle = Math.max(maxInCycle, error);
+        minInCycle = Math.min(minInCycle, error);
+        
+        if (high && error < -hysteresis) {
+            high = false;
+        } else if (!high && error > hysteresis) {
+            high = true;
+            rise(time);
+        }
+        
+        if (engaged) {
+            control.adjust(high ? relay : -relay);
+        }
+    }
+    
+    /*
+     * A full oscillation ends with every switch to the high relay output. The
+     * first one is skipped, it still contains the step to the goal.
+     */
+    private void rise(long time) {
+        if (lastRise != 0) {
+            periodSum += time - lastRise;
+            amplitudeSum += (maxInCycle - minInCycle) / 2;
+            ++count;
+        }
+        lastRise = time;
+        maxInCycle = -Float.MAX_VALUE;
+        minInCycle = Float.MAX_VALUE;
+        
+        if (count == cycles) {
+            float amplitude = amplitudeSum / count;
+            float noise = Math.min(hysteresis, amplitude);
+            
+            ultimatePeriod = periodSum / (float) count / Clock.NANOS_PER_MILLI;
+            ultimateGain = (float) (4 * relay / (Math.PI * Math.sqrt(amplitude
+                    * amplitude - noise * noise)));
+            
+            if (Float.isInfinite(ultimateGain) || Float.isNaN(ultimateGain)) {
+                logger.warn("autotune failed, no oscillation");
+                fail();
+                return;
+            }
+            logger.info("autotune done, ultimate gain: " + ultimateGain
+                    + " period (ms): " + ultimatePeriod);
+            engaged = false;
+            done = true;
+        }
+    }
+    
+    private void fail() {
+        engaged = false;
+        failed = true;
+    }
+    
+    /**
+     * getConfiguration computes the PID configuration (classic Ziegler-Nichols)
+     * from the identified ultimate gain and period.
+     * 
+     * @param current
+     *            Current configuration, the limits of the integral are kept
+     * @return Array of five float values: proportianal, integral, derivative,
+     *         min integral, max integral
+     */
+    public float[] getConfiguration(float[] current) {
+        return new float[] { 0.6f * ultimateGain,
+                1.2f * ultimateGain / ultimatePeriod,
+                0.075f * ultimateGain * ultimatePeriod, current[3], current[4] };
+    }
+    
+    /**
+     * getAngleConfiguration and getRateConfiguration split the
+     * Ziegler-Nichols controller over the two loops of a cascade. The
+     * derivative of the angle error is the negative rate, so the derivative
+     * gain becomes the proportional gain of the rate loop (rate in rad/s, the
+     * derivative works on rad/ms). The angle loop multiplies the angle error
+     * into a rate setpoint such that both together give the proportional
+     * gain, and the rate loop integrates so that both together give the
+     * integral gain. The angle loop is P only.
+     * 
+     * @param current
+     *            Current configuration of the loop, the limits of the
+     *            integral are kept
+     */
+    public float[] getAngleConfiguration(float[] current) {
+        return new float[] { 8000f / ultimatePeriod, 0, 0, current[3],
+                current[4] };
+    }
+    
+    /**
+     * @see #getAngleConfiguration(float[])
+     */
+    public float[] getRateConfiguration(float[] current) {
+        return new float[] { 0.000075f * ultimateGain * ultimatePeriod,
+                0.00015f * ultimateGain, 0, current[3], current[4] };
+    }
+    
+    public float getUltimateGain() {
+        return ultimateGain;
+    }
+    
+    public float getUltimatePeriod() {
+        return ultimatePeriod;
+    }
+    
+    public boolean isEngaged() {
+        return engaged;
+    }
+    
+    public boolean isDone() {
+        return done;
+    }
+    
+    public boolean isFailed() {
+        return failed;
+    }
+}
@@ -38,6 +38,25 @@ public abstract class QuadCopter {
     public abstract void writeRaw(Direction d, int ms)
             throws ConnectionLostException;
     
+    /**
+     * commit sends the values written since the last commit to the servos.
+     * The control loop calls it once per tick.
+     */
+    public abstract void commit() throws ConnectionLostException;
+    
+    /**
+     * latchThrottle overrides the throttle: every commit sends the given speed
+     * until releaseThrottle, whatever is written to the throttle meanwhile.
+     * It may be called from any thread.
+     */
+    public abstract void latchThrottle(int speed);
+    
+    /**
+     * releaseThrottle ends a latchThrottle, the next commit sends the last
+     * written throttle again.
+     */
+    public abstract void releaseThrottle();
+    
     public void move(int x, int y, int z, int r) throws ConnectionLostException {
         move(LONGITUDINAL, x);
         move(LATERAL, y);
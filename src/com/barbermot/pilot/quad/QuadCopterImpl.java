@@ -8,11 +8,25 @@ import ioio.lib.api.IOIO;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import com.barbermot.pilot.logger.LatencyHistogram;
+import com.barbermot.pilot.signal.Clock;
 
 /**
  * Interface to the QuadCopter's servos. Allows to directly set values for all
  * control dimensions.
  * 
+ * Writes from any thread only record the new pulse width of a channel. commit,
+ * called once per control tick, sends all channels that changed since the last
+ * commit to the IOIO together. Writes that don't change the pulse width never
+ * reach the IOIO.
+ * 
+ * commit is serialized: the control loop calls it every tick, the failsafe
+ * watchdog when the ticks are late. A latched throttle is applied by every
+ * commit, so a late tick that resumes can't overwrite it.
+ * 
  */
 public class QuadCopterImpl extends QuadCopter {
     
@@ -20,12 +34,27 @@ public class QuadCopterImpl extends QuadCopter {
                                                           // activation
     public static final int             MAX_SERVO = 1950; // measured max
                                                           // response
-                                                          
+    
+    // output channels: the directions by ordinal, then the gain
+    private static final int            GAIN      = Direction.values().length;
+    private static final int            CHANNELS  = GAIN + 1;
+    
     EnumMap<Direction, Servo>           servos;
     Servo                               gain;
     
     private EnumMap<Direction, Integer> pins;
     
+    private Servo[]                     outputs;
+    private AtomicIntegerArray          pending;
+    private AtomicInteger               dirty;
+    private volatile long               firstPending;
+    
+    // pulse width forced onto the throttle, -1 if none
+    private volatile int                latched   = -1;
+    
+    // time from the first write of a batch to its commit
+    private LatencyHistogram            latency;
+    
     /*
      * Color map for GU-344 gyroscope pins (available with GAUI 330X)
      * aileronPin; // White rudderPin; // Yellow throttlePin; // Orange
@@ -41,35 +70,107 @@ public class QuadCopterImpl extends QuadCopter {
         pins.put(ROTATIONAL, rudderPin); // Yellow
         
         servos = new EnumMap<Direction, Servo>(Direction.class);
+        outputs = new Servo[CHANNELS];
         
         for (Direction d : Direction.values()) {
-            servos.put(d, new Servo(ioio, pins.get(d), MIN_SPEED, MAX_SPEED,
-                    MIN_SERVO, MAX_SERVO));
+            Servo s = new Servo(ioio, pins.get(d), MIN_SPEED, MAX_SPEED,
+                    MIN_SERVO, MAX_SERVO);
+            servos.put(d, s);
+            outputs[d.ordinal()] = s;
         }
         
         gain = new Servo(ioio, gainPin, MIN_SPEED, MAX_SPEED, MIN_SERVO,
                 MAX_SERVO);
+        outputs[GAIN] = gain;
+        
+        pending = new AtomicIntegerArray(CHANNELS);
+        dirty = new AtomicInteger();
+        latency = new LatencyHistogram();
+    }
+    
+    /*
+     * Records the pulse width of a channel for the next commit.
+     */
+    private void write(int channel, int pulseWidth) {
+        if (pending.getAndSet(channel, pulseWidth) == pulseWidth
+                && (dirty.get() & (1 << channel)) == 0) {
+            return;
+        }
+        
+        markDirty(channel);
+    }
+    
+    private void markDirty(int channel) {
+        int mask;
+        do {
+            mask = dirty.get();
+        } while (!dirty.compareAndSet(mask, mask | (1 << channel)));
         
+        if (mask == 0) {
+            firstPending = Clock.nanoTime();
+        }
+    }
+    
+    @Override
+    public synchronized void commit() throws ConnectionLostException {
+        int mask = dirty.getAndSet(0);
+        int override = latched;
+        if (mask == 0 && override < 0) {
+            return;
+        }
+        
+        long start = firstPending;
+        int throttle = VERTICAL.ordinal();
+        for (int i = 0; i < CHANNELS; ++i) {
+            if (i == throttle && override >= 0) {
+                if (override != outputs[i].readRaw()) {
+                    outputs[i].writeRaw(override);
+                }
+            } else if ((mask & (1 << i)) != 0) {
+                int pulseWidth = pending.get(i);
+                if (pulseWidth != outputs[i].readRaw()) {
+                    outputs[i].writeRaw(pulseWidth);
+                }
+            }
+        }
+        if (mask != 0) {
+            latency.record(Clock.nanoTime() - start);
+        }
+    }
+    
+    @Override
+    public void latchThrottle(int speed) {
+        latched = servos.get(VERTICAL).convert(clamp(speed));
+    }
+    
+    @Override
+    public void releaseThrottle() {
+        latched = -1;
+        markDirty(VERTICAL.ordinal());
     }
     
     @Override
     public void adjustGain(int value) throws ConnectionLostException {
-        gain.write(value);
+        write(GAIN, gain.convert(value));
     }
     
     @Override
     public int readRaw(Direction d) {
-        return servos.get(d).readRaw();
+        int override = latched;
+        if (d == VERTICAL && override >= 0) {
+            return override;
+        }
+        return pending.get(d.ordinal());
     }
     
     @Override
     public void writeRaw(Direction d, int ms) throws ConnectionLostException {
-        servos.get(d).writeRaw(ms);
+        write(d.ordinal(), ms);
     }
     
     @Override
     public int read(Direction d) {
-        return servos.get(d).read();
+        return servos.get(d).convertReverse(readRaw(d));
     }
     
     @Override
@@ -84,21 +185,24 @@ public class QuadCopterImpl extends QuadCopter {
     
     @Override
     public void move(Direction d, int speed) throws ConnectionLostException {
+        write(d.ordinal(), servos.get(d).convert(clamp(speed)));
+    }
+    
+    private int clamp(int speed) {
         if (speed > MAX_SPEED) {
-            speed = MAX_SPEED;
+            return MAX_SPEED;
         } else if (speed < MIN_SPEED) {
-            speed = MIN_SPEED;
-        }
-        
-        Servo s = servos.get(d);
-        
-        if (speed != s.read()) {
-            s.write(speed);
+            return MIN_SPEED;
         }
+        return speed;
     }
     
     @Override
     public int convert(Direction d, int speed) {
         return servos.get(d).convert(speed);
     }
+    
+    public void setLatency(LatencyHistogram latency) {
+        this.latency = latency;
+    }
 }
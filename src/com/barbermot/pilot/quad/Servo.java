@@ -65,4 +65,8 @@ class Servo {
     public int convert(int speed) {
         return map(speed);
     }
+    
+    public int convertReverse(int pulseWidth) {
+        return mapReverse(pulseWidth);
+    }
 }
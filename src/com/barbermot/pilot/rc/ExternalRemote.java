@@ -2,13 +2,14 @@ package com.barbermot.pilot.rc;
 
 import ioio.lib.api.DigitalOutput;
 import ioio.lib.api.IOIO;
-import ioio.lib.api.PulseInput;
-import ioio.lib.api.PulseInput.PulseMode;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.util.concurrent.TimeoutException;
 
 import com.barbermot.pilot.quad.QuadCopter;
+import com.barbermot.pilot.signal.Clock;
+import com.barbermot.pilot.signal.Signal;
+import com.barbermot.pilot.signal.SignalListener;
 
 /**
  * RemoteControl is a periodic tasks that checks whether the user has engaged
@@ -18,6 +19,9 @@ import com.barbermot.pilot.quad.QuadCopter;
  * It also allows fine grained control over which control dimensions are
  * manually v. automatically controlled.
  * 
+ * The throttle is monitored through a pulse signal sampled in the background;
+ * reads only look at the latest width and never touch the IOIO.
+ * 
  */
 public class ExternalRemote extends RemoteControl implements Runnable {
     
@@ -29,16 +33,25 @@ public class ExternalRemote extends RemoteControl implements Runnable {
     IOIO                      ioio;
     DigitalOutput             overridePins[];
     final static int          SIZE    = 4;
-    int                       throttleMonitorPin;
+    
+    private volatile int      throttleWidth;
+    private volatile long     throttleTime;
     
     public ExternalRemote(IOIO ioio, QuadCopter ufo, int aileronPin,
             int rudderPin, int throttlePin, int elevatorPin,
-            int throttleMonitorPin, int gainPin) throws ConnectionLostException {
+            Signal throttleMonitor, int gainPin) throws ConnectionLostException {
         super(ufo);
         this.gainPin = gainPin;
         this.ioio = ioio;
         
-        this.throttleMonitorPin = throttleMonitorPin;
+        throttleMonitor.registerListener(new SignalListener() {
+            
+            @Override
+            public void update(float value, long time) {
+                throttleWidth = (int) value;
+                throttleTime = time;
+            }
+        });
         
         overridePins = new DigitalOutput[SIZE];
         
@@ -51,24 +64,12 @@ public class ExternalRemote extends RemoteControl implements Runnable {
     
     protected int readManualThrottle() throws ConnectionLostException,
             TimeoutException {
-        PulseInput pulse = ioio.openPulseInput(throttleMonitorPin,
-                PulseMode.POSITIVE);
-        int pw;
-        try {
-            while (true) {
-                try {
-                    pw = (int) (pulse.getDuration(TIMEOUT) * 1000000);
-                    break;
-                } catch (InterruptedException e) {
-                    // nothing
-                }
-            }
-        } finally {
-            if (pulse != null) {
-                pulse.close();
-            }
+        long time = throttleTime;
+        long timeout = (long) (TIMEOUT * Clock.NANOS_PER_SECOND);
+        if (time == 0 || Clock.nanoTime() - time > timeout) {
+            throw new TimeoutException();
         }
-        return pw;
+        return throttleWidth;
     }
     
     public synchronized void setControlMask(char mask)
@@ -7,6 +7,7 @@ import java.util.concurrent.TimeoutException;
 import org.apache.log4j.Logger;
 
 import com.barbermot.pilot.quad.QuadCopter;
+import com.barbermot.pilot.signal.Clock;
 
 public abstract class RemoteControl implements Runnable {
     
@@ -20,6 +21,7 @@ public abstract class RemoteControl implements Runnable {
     protected static final int    THROTTLE_DELTA = 200;
     protected char                controlMask;
     protected boolean             armed;
+    protected volatile long       lastContact;
     protected QuadCopter          ufo;
     
     public RemoteControl(QuadCopter ufo) {
@@ -36,6 +38,7 @@ public abstract class RemoteControl implements Runnable {
             if (controlMask != FULL_MANUAL && isEngaged()) {
                 setControlMask(FULL_MANUAL);
             }
+            lastContact = Clock.nanoTime();
         } catch (TimeoutException e) {
             logger.info("isEngaged timed out.");
         } catch (ConnectionLostException e) {
@@ -63,6 +66,13 @@ public abstract class RemoteControl implements Runnable {
         controlMask = mask;
     }
     
+    /**
+     * @return Time of the last successful poll in ns, 0 if never
+     */
+    public long getLastContact() {
+        return lastContact;
+    }
+    
     public char getControlMask() {
         return controlMask;
     }
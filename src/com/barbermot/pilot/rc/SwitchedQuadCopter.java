@@ -81,6 +81,21 @@ public class SwitchedQuadCopter extends QuadCopter {
         ufo.writeRaw(d, ms);
     }
     
+    @Override
+    public void commit() throws ConnectionLostException {
+        ufo.commit();
+    }
+    
+    @Override
+    public void latchThrottle(int speed) {
+        ufo.latchThrottle(speed);
+    }
+    
+    @Override
+    public void releaseThrottle() {
+        ufo.releaseThrottle();
+    }
+    
     @Override
     public int convert(Direction d, int speed) {
         return ufo.convert(d, speed);
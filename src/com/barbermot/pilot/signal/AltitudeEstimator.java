@@ -0,0 +1,230 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * AltitudeEstimator fuses ultrasound, gps and barometric altitude into a single
+ * height and vertical speed estimate. It is a two state (height, vertical
+ * speed) Kalman filter with a constant velocity model.
+ * 
+ * The estimate is kept in the frame of the ultrasound sensor. While ultrasound
+ * readings are fresh they are the only measurement; gps and barometer are used
+ * to learn their offset to the estimate. Once the ultrasound signal goes stale
+ * the offset corrected gps and barometer readings take over, so the estimate
+ * (and any controller consuming it) doesn't jump when the sources switch.
+ * 
+ * The estimate is published on every control tick. Samples and ticks all have
+ * to arrive on the control loop.
+ */
+public class AltitudeEstimator extends Signal implements TickListener {
+    
+    // process noise (vertical acceleration, m/s^2)
+    private float            accelerationNoise;
+    
+    // measurement variances (m^2)
+    private float            ultrasoundVariance;
+    private float            barometerVariance;
+    private float            gpsVariance;
+    
+    // low pass factor for the offsets of gps and barometer
+    private float            offsetGain;
+    
+    private long             ultrasoundTimeout;
+    
+    private Signal           velocity;
+    
+    // state and covariance
+    private float            height;
+    private float            speed;
+    private float            p11;
+    private float            p12;
+    private float            p22;
+    private long             lastTime;
+    private boolean          initialized;
+    
+    private Ultrasound       ultrasound;
+    private long             ultrasoundTime;
+    private Source           gps;
+    private Source           barometer;
+    
+    private class Source implements SignalListener {
+        
+        float   value;
+        float   offset;
+        boolean hasOffset;
+        boolean fresh;
+        
+        @Override
+        public void update(float value, long time) {
+            this.value = value;
+            this.fresh = true;
+        }
+    }
+    
+    private class Ultrasound extends Source {
+        
+        @Override
+        public void update(float value, long time) {
+            super.update(value, time);
+            // ultrasound defines the frame, so it is always aligned
+            hasOffset = true;
+        }
+    }
+    
+    /**
+     * @param conf
+     *            Array of five float values: acceleration noise, ultrasound
+     *            variance, barometer variance, gps variance, offset gain
+     * @param ultrasoundTimeout
+     *            Time in millis after which ultrasound readings are considered
+     *            stale
+     */
+    public AltitudeEstimator(float[] conf, long ultrasoundTimeout) {
+        accelerationNoise = conf[0];
+        ultrasoundVariance = conf[1];
+        barometerVariance = conf[2];
+        gpsVariance = conf[3];
+        offsetGain = conf[4];
+        this.ultrasoundTimeout = Clock.nanos(ultrasoundTimeout);
+        
+        velocity = new Signal();
+        ultrasound = new Ultrasound();
+        gps = new Source();
+        barometer = new Source();
+    }
+    
+    public SignalListener getUltrasoundListener() {
+        return ultrasound;
+    }
+    
+    public SignalListener getGpsListener() {
+        return gps;
+    }
+    
+    public SignalListener getBarometerListener() {
+        return barometer;
+    }
+    
+    /**
+     * @return Signal publishing the estimated vertical speed in m/s
+     */
+    public Signal getVelocitySignal() {
+        return velocity;
+    }
+    
+    @Override
+    public void tick(long time) throws ConnectionLostException {
+        if (ultrasound.fresh) {
+            ultrasoundTime = time;
+        }
+        boolean ultrasoundValid = ultrasound.hasOffset
+                && (time - ultrasoundTime) < ultrasoundTimeout;
+        
+        if (!initialized) {
+            if (!initialize(ultrasoundValid)) {
+                return;
+            }
+        } else {
+            predict((time - lastTime) / (float) Clock.NANOS_PER_SECOND);
+        }
+        lastTime = time;
+        
+        if (ultrasoundValid) {
+            if (ultrasound.fresh) {
+                correct(ultrasound.value, ultrasoundVariance);
+            }
+            calibrate(gps);
+            calibrate(barometer);
+        } else {
+            aid(barometer, barometerVariance);
+            aid(gps, gpsVariance);
+        }
+        ultrasound.fresh = false;
+        gps.fresh = false;
+        barometer.fresh = false;
+        
+        notifyListeners(height, time);
+        velocity.notifyListeners(speed, time);
+    }
+    
+    private boolean initialize(boolean ultrasoundValid) {
+        if (ultrasoundValid) {
+            height = ultrasound.value;
+            p11 = ultrasoundVariance;
+        } else if (barometer.fresh) {
+            height = 0;
+            p11 = barometerVariance;
+        } else if (gps.fresh) {
+            height = 0;
+            p11 = gpsVariance;
+        } else {
+            return false;
+        }
+        speed = 0;
+        p12 = 0;
+        p22 = 1;
+        initialized = true;
+        return true;
+    }
+    
+    private void predict(float dt) {
+        if (dt <= 0) {
+            return;
+        }
+        height += speed * dt;
+        
+        float q = accelerationNoise * accelerationNoise;
+        float dt2 = dt * dt;
+        p11 += dt * (2 * p12 + dt * p22) + q * dt2 * dt2 / 4;
+        p12 += dt * p22 + q * dt2 * dt / 2;
+        p22 += q * dt2;
+    }
+    
+    private void correct(float z, float variance) {
+        float innovation = z - height;
+        float s = p11 + variance;
+        float k1 = p11 / s;
+        float k2 = p12 / s;
+        
+        height += k1 * innovation;
+        speed += k2 * innovation;
+        
+        p22 -= k2 * p12;
+        p12 -= k1 * p12;
+        p11 -= k1 * p11;
+    }
+    
+    private void calibrate(Source source) {
+        if (source.fresh) {
+            float offset = source.value - height;
+            if (source.hasOffset) {
+                source.offset += offsetGain * (offset - source.offset);
+            } else {
+                source.offset = offset;
+                source.hasOffset = true;
+            }
+        }
+    }
+    
+    private void aid(Source source, float variance) {
+        if (source.fresh) {
+            if (!source.hasOffset) {
+                // first reading without ultrasound: align to the estimate
+                calibrate(source);
+            }
+            correct(source.value - source.offset, variance);
+        }
+    }
+    
+    public float getHeight() {
+        return height;
+    }
+    
+    public float getSpeed() {
+        return speed;
+    }
+    
+    public boolean isInitialized() {
+        return initialized;
+    }
+}
@@ -0,0 +1,63 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import org.apache.log4j.Logger;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+
+class BarometerSignal implements SensorEventListener {
+    
+    private static final Logger logger = Logger.getLogger("BarometerSignal");
+    
+    SignalListener              listener;
+    SensorManager               manager;
+    Sensor                      pressure;
+    Handler                     handler;
+    
+    public BarometerSignal(SensorManager manager, Handler handler,
+            SignalListener listener, int interval) {
+        this.manager = manager;
+        this.handler = handler;
+        this.listener = listener;
+        
+        pressure = manager.getDefaultSensor(Sensor.TYPE_PRESSURE);
+        if (pressure == null) {
+            logger.info("No barometer available");
+        } else {
+            manager.registerListener(this, pressure, interval * 1000, handler);
+        }
+    }
+    
+    /**
+     * Must run on the handler thread.
+     */
+    public void setInterval(int interval) {
+        if (pressure != null) {
+            manager.unregisterListener(this);
+            manager.registerListener(this, pressure, interval * 1000, handler);
+        }
+    }
+    
+    public void abort() {
+        manager.unregisterListener(this);
+    }
+    
+    @Override
+    public void onAccuracyChanged(Sensor sensor, int accuracy) {
+        // ignore...
+    }
+    
+    @Override
+    public void onSensorChanged(SensorEvent event) {
+        float altitude = SensorManager.getAltitude(
+                SensorManager.PRESSURE_STANDARD_ATMOSPHERE, event.values[0]);
+        try {
+            listener.update(altitude, Clock.nanoTime());
+        } catch (ConnectionLostException e) {}
+    }
+}
@@ -35,7 +35,7 @@ public class CameraSignal extends Signal implements Runnable {
             camera.getParameters().getFocusDistances(distances);
             this.notifyListeners(
                     distances[Camera.Parameters.FOCUS_DISTANCE_OPTIMAL_INDEX],
-                    System.currentTimeMillis());
+                    Clock.nanoTime());
         } catch (ConnectionLostException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,27 @@
+package com.barbermot.pilot.signal;
+
+/**
+ * Clock is the one time base of the pilot: a monotonic clock in nanoseconds.
+ * Signals stamp each sample with it the moment the sample arrives, and that
+ * origin stamp travels with the sample through to the controls. Time
+ * differences are only ever taken between two readings of this clock.
+ */
+public final class Clock {
+    
+    public static final long NANOS_PER_MILLI  = 1000000L;
+    public static final long NANOS_PER_SECOND = 1000000000L;
+    
+    private Clock() {}
+    
+    public static long nanoTime() {
+        return System.nanoTime();
+    }
+    
+    public static long nanos(long millis) {
+        return millis * NANOS_PER_MILLI;
+    }
+    
+    public static long millis(long nanos) {
+        return nanos / NANOS_PER_MILLI;
+    }
+}
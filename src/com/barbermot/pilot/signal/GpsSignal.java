@@ -14,14 +14,16 @@ import android.location.Location;
 import android.location.LocationListener;
 import android.location.LocationManager;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.Looper;
 
 class GpsSignal implements LocationListener, Runnable {
     
     private static final Logger logger = Logger.getLogger("GpsSignal");
     
-    private int                 minTime;
-    private Looper              looper;
+    private volatile int        minTime;
+    private volatile Looper     looper;
+    private volatile Handler    handler;
     
     public enum Type {
         HEIGHT, LAT, LON, LOCATION
@@ -46,8 +48,9 @@ class GpsSignal implements LocationListener, Runnable {
     
     @Override
     public void run() {
-        looper = Looper.myLooper();
         Looper.prepare();
+        looper = Looper.myLooper();
+        handler = new Handler();
         
         manager.requestLocationUpdates(LocationManager.GPS_PROVIDER, minTime,
                 0, GpsSignal.this);
@@ -55,6 +58,26 @@ class GpsSignal implements LocationListener, Runnable {
         Looper.loop();
     }
     
+    /**
+     * Requests location updates every interval ms. May be called from any
+     * thread, the request is made on the gps looper.
+     */
+    public void setInterval(int interval) {
+        minTime = interval;
+        Handler handler = this.handler;
+        if (handler != null) {
+            handler.post(new Runnable() {
+                
+                public void run() {
+                    manager.removeUpdates(GpsSignal.this);
+                    manager.requestLocationUpdates(
+                            LocationManager.GPS_PROVIDER, minTime, 0,
+                            GpsSignal.this);
+                }
+            });
+        }
+    }
+    
     public void abort() {
         if (looper != null) {
             looper.quit();
@@ -64,7 +87,7 @@ class GpsSignal implements LocationListener, Runnable {
     
     @Override
     public void onLocationChanged(Location location) {
-        long time = location.getTime();
+        long time = Clock.nanoTime();
         /*
          * if (last != null) { logger.info("Bearing: " +
          * location.bearingTo(last) + ", distance: " +
@@ -75,7 +98,7 @@ class GpsSignal implements LocationListener, Runnable {
          * 
          * last = location;
          */
-
+        
         try {
             listenerMap.get(HEIGHT)
                     .update((float) location.getAltitude(), time);
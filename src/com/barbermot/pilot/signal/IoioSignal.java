@@ -38,7 +38,7 @@ public abstract class IoioSignal extends Signal implements Runnable {
             
             notifyListeners(measurement, time);
         } catch (MeasurementException e) {
-            // logger.fine("Failed to take measurement");
+            notifyFailure();
         } catch (ConnectionLostException e) {
             logger.info("Connection lost");
             throw new RuntimeException(e);
@@ -60,7 +60,7 @@ public abstract class IoioSignal extends Signal implements Runnable {
         duration = measure();
         
         measurement = convert(duration);
-        time = System.currentTimeMillis();
+        time = Clock.nanoTime();
         
         return measurement;
     }
@@ -1,8 +1,11 @@
 package com.barbermot.pilot.signal;
 
 import static com.barbermot.pilot.signal.OrientationSignal.Type.PITCH;
+import static com.barbermot.pilot.signal.OrientationSignal.Type.PITCH_RATE;
 import static com.barbermot.pilot.signal.OrientationSignal.Type.ROLL;
+import static com.barbermot.pilot.signal.OrientationSignal.Type.ROLL_RATE;
 import static com.barbermot.pilot.signal.OrientationSignal.Type.YAW;
+import static com.barbermot.pilot.signal.OrientationSignal.Type.YAW_RATE;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.util.EnumMap;
@@ -13,12 +16,44 @@ import android.hardware.Sensor;
 import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
+import android.os.Handler;
 
+/**
+ * OrientationSignal estimates yaw, pitch and roll of the phone. It runs a
+ * Mahony style complementary filter on a quaternion: the gyroscope is
+ * integrated at its full rate and the accelerometer (gravity) and magnetometer
+ * (north) pull the estimate back whenever a new reading of theirs arrives.
+ * Angles follow the conventions of SensorManager.getOrientation.
+ * 
+ * Phones without a gyroscope fall back to computing the angles from
+ * accelerometer and magnetometer alone, once per accelerometer reading.
+ * 
+ * The rates of the three angles (radians per second) are differenced over the
+ * sensor timestamps of the events, not over the time the events arrive: the
+ * phone delivers sensor events in bursts, which would turn into spikes on the
+ * rate. Steps shorter than MIN_RATE_STEP are not published, they are added to
+ * the next one.
+ */
 class OrientationSignal implements SensorEventListener {
     
-    @SuppressWarnings("unused")
     private static final Logger logger = Logger.getLogger("OrientationSignal");
     
+    // proportional and integral gain of the accel/mag correction
+    private static final float  KP                  = 2f;
+    private static final float  KI                  = 0.005f;
+    
+    private static final float  NS2S                = 1.0f / 1000000000.0f;
+    
+    // accelerometer and compass run this much slower than the gyroscope, but
+    // not faster than MIN_TIME_CORRECTION ms
+    private static final int    CORRECTION_RATIO    = 4;
+    private static final int    MIN_TIME_CORRECTION = 20;
+    
+    // shortest step (ns of sensor time) a rate is computed over
+    private static final long   MIN_RATE_STEP       = 2000000L;
+    
+    private static final float  TWO_PI              = (float) (2 * Math.PI);
+    
     private float               yaw;
     private float               roll;
     private float               pitch;
@@ -28,36 +63,110 @@ class OrientationSignal implements SensorEventListener {
     private float[]             R;
     private float[]             I;
     
+    // orientation quaternion (device to world)
+    private float               q0;
+    private float               q1;
+    private float               q2;
+    private float               q3;
+    
+    // integral of the correction error
+    private float               eix;
+    private float               eiy;
+    private float               eiz;
+    
+    private boolean             hasGyro;
+    private boolean             initialized;
+    private boolean             hasAccel;
+    private boolean             hasMagnetic;
+    private boolean             freshAccel;
+    private boolean             freshMagnetic;
+    private long                lastGyroTime;
+    
+    // angles and sensor time at the start of the current rate step
+    private boolean             hasRateStep;
+    private long                rateStepTime;
+    private float               rateStepYaw;
+    private float               rateStepPitch;
+    private float               rateStepRoll;
+    
     public enum Type {
-        YAW, ROLL, PITCH
+        YAW, ROLL, PITCH, YAW_RATE, ROLL_RATE, PITCH_RATE
     };
     
     EnumMap<Type, SignalListener> listenerMap;
     SensorManager                 manager;
+    Handler                       handler;
+    Sensor                        accelSensor;
+    Sensor                        magneticSensor;
+    Sensor                        gyroSensor;
     
-    public OrientationSignal(SensorManager manager, SignalListener yaw,
-            SignalListener roll, SignalListener pitch) {
+    /**
+     * @param handler
+     *            Handler of the thread receiving the sensor events, setInterval
+     *            must run on it as well
+     */
+    public OrientationSignal(SensorManager manager, Handler handler,
+            SignalListener yaw, SignalListener roll, SignalListener pitch,
+            SignalListener yawRate, SignalListener rollRate,
+            SignalListener pitchRate) {
         
         this.manager = manager;
+        this.handler = handler;
         
         listenerMap = new EnumMap<Type, SignalListener>(Type.class);
         listenerMap.put(YAW, yaw);
         listenerMap.put(PITCH, pitch);
         listenerMap.put(ROLL, roll);
-        
-        Sensor accelerometer = manager
-                .getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
-        Sensor magnetic = manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
-        manager.registerListener(this, accelerometer,
-                SensorManager.SENSOR_DELAY_UI);
-        manager.registerListener(this, magnetic, SensorManager.SENSOR_DELAY_UI);
+        listenerMap.put(YAW_RATE, yawRate);
+        listenerMap.put(PITCH_RATE, pitchRate);
+        listenerMap.put(ROLL_RATE, rollRate);
         
         this.accel = new float[3];
         this.magnetic = new float[3];
         this.orientation = new float[3];
-        this.R = new float[16];
-        this.I = new float[16];
+        this.R = new float[9];
+        this.I = new float[9];
         
+        accelSensor = manager.getDefaultSensor(Sensor.TYPE_ACCELEROMETER);
+        magneticSensor = manager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
+        gyroSensor = manager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        
+        hasGyro = gyroSensor != null;
+        if (hasGyro) {
+            register(SensorManager.SENSOR_DELAY_FASTEST,
+                    SensorManager.SENSOR_DELAY_GAME,
+                    SensorManager.SENSOR_DELAY_UI);
+        } else {
+            logger.info("No gyroscope, using accelerometer and compass only");
+            register(0, SensorManager.SENSOR_DELAY_UI,
+                    SensorManager.SENSOR_DELAY_UI);
+        }
+    }
+    
+    private void register(int gyroRate, int accelRate, int magneticRate) {
+        if (hasGyro) {
+            manager.registerListener(this, gyroSensor, gyroRate, handler);
+        }
+        manager.registerListener(this, accelSensor, accelRate, handler);
+        manager.registerListener(this, magneticSensor, magneticRate, handler);
+    }
+    
+    /**
+     * Changes the rate of the estimate to one update per interval ms (0 is the
+     * fastest the phone can do). Re-registering is a call into the system
+     * service, it runs on the handler thread.
+     */
+    public void setInterval(int interval) {
+        int rate = interval * 1000;
+        int correction = Math.max(interval * CORRECTION_RATIO,
+                MIN_TIME_CORRECTION) * 1000;
+        
+        manager.unregisterListener(this);
+        if (hasGyro) {
+            register(rate, correction, correction);
+        } else {
+            register(0, rate, rate);
+        }
     }
     
     public void abort() {
@@ -72,33 +181,261 @@ class OrientationSignal implements SensorEventListener {
     @Override
     public void onSensorChanged(SensorEvent event) {
         int type = event.sensor.getType();
-        float[] data;
         
-        if (type == Sensor.TYPE_ACCELEROMETER) {
-            data = accel;
+        // the event timestamp is used for the integration and rate steps, the
+        // samples are stamped with the clock of the control loop
+        long time = Clock.nanoTime();
+        
+        if (type == Sensor.TYPE_GYROSCOPE) {
+            integrate(event.values, event.timestamp, time);
+        } else if (type == Sensor.TYPE_ACCELEROMETER) {
+            copy(event.values, accel);
+            hasAccel = freshAccel = true;
+            if (!hasGyro && hasMagnetic) {
+                computeFromRotationMatrix(event.timestamp, time);
+            }
         } else if (type == Sensor.TYPE_MAGNETIC_FIELD) {
-            data = magnetic;
-        } else {
-            // we should not be here.
-            return;
+            copy(event.values, magnetic);
+            hasMagnetic = freshMagnetic = true;
         }
+    }
+    
+    private void copy(float[] values, float[] data) {
         for (int i = 0; i < 3; i++) {
-            data[i] = event.values[i];
+            data[i] = values[i];
+        }
+    }
+    
+    private void computeFromRotationMatrix(long timestamp, long time) {
+        if (SensorManager.getRotationMatrix(R, I, accel, magnetic)) {
+            SensorManager.getOrientation(R, orientation);
+            
+            yaw = orientation[0];
+            pitch = orientation[1];
+            roll = orientation[2];
+            
+            notifyListeners(timestamp, time);
+        }
+    }
+    
+    private void integrate(float[] gyro, long timestamp, long time) {
+        if (!initialized) {
+            if (hasAccel && hasMagnetic && initialize()) {
+                lastGyroTime = timestamp;
+            }
+            return;
+        }
+        
+        float dt = (timestamp - lastGyroTime) * NS2S;
+        lastGyroTime = timestamp;
+        if (dt <= 0) {
+            return;
+        }
+        
+        float gx = gyro[0];
+        float gy = gyro[1];
+        float gz = gyro[2];
+        
+        if (freshAccel || freshMagnetic) {
+            float ex = 0;
+            float ey = 0;
+            float ez = 0;
+            
+            // gravity (up) as seen from the device
+            float vx = 2 * (q1 * q3 - q0 * q2);
+            float vy = 2 * (q0 * q1 + q2 * q3);
+            float vz = q0 * q0 - q1 * q1 - q2 * q2 + q3 * q3;
+            
+            if (freshAccel) {
+                float norm = norm(accel[0], accel[1], accel[2]);
+                if (norm > 0) {
+                    float ax = accel[0] / norm;
+                    float ay = accel[1] / norm;
+                    float az = accel[2] / norm;
+                    ex += ay * vz - az * vy;
+                    ey += az * vx - ax * vz;
+                    ez += ax * vy - ay * vx;
+                }
+                freshAccel = false;
+            }
+            
+            if (freshMagnetic) {
+                float norm = norm(magnetic[0], magnetic[1], magnetic[2]);
+                if (norm > 0) {
+                    float mx = magnetic[0] / norm;
+                    float my = magnetic[1] / norm;
+                    float mz = magnetic[2] / norm;
+                    
+                    // magnetic field in world coordinates
+                    float hx = (1 - 2 * (q2 * q2 + q3 * q3)) * mx + 2
+                            * (q1 * q2 - q0 * q3) * my + 2
+                            * (q1 * q3 + q0 * q2) * mz;
+                    float hy = 2 * (q1 * q2 + q0 * q3) * mx
+                            + (1 - 2 * (q1 * q1 + q3 * q3)) * my + 2
+                            * (q2 * q3 - q0 * q1) * mz;
+                    float hz = 2 * (q1 * q3 - q0 * q2) * mx + 2
+                            * (q2 * q3 + q0 * q1) * my
+                            + (1 - 2 * (q1 * q1 + q2 * q2)) * mz;
+                    
+                    // reference field points north (world y) and up/down
+                    float by = (float) Math.sqrt(hx * hx + hy * hy);
+                    float bz = hz;
+                    
+                    // reference field as seen from the device
+                    float wx = 2 * (q1 * q2 + q0 * q3) * by + 2
+                            * (q1 * q3 - q0 * q2) * bz;
+                    float wy = (1 - 2 * (q1 * q1 + q3 * q3)) * by + 2
+                            * (q2 * q3 + q0 * q1) * bz;
+                    float wz = 2 * (q2 * q3 - q0 * q1) * by
+                            + (1 - 2 * (q1 * q1 + q2 * q2)) * bz;
+                    
+                    ex += my * wz - mz * wy;
+                    ey += mz * wx - mx * wz;
+                    ez += mx * wy - my * wx;
+                }
+                freshMagnetic = false;
+            }
+            
+            eix += KI * ex * dt;
+            eiy += KI * ey * dt;
+            eiz += KI * ez * dt;
+            
+            gx += KP * ex + eix;
+            gy += KP * ey + eiy;
+            gz += KP * ez + eiz;
+        } else {
+            gx += eix;
+            gy += eiy;
+            gz += eiz;
         }
         
-        SensorManager.getRotationMatrix(R, I, accel, magnetic);
-        SensorManager.getOrientation(R, orientation);
+        // q' = q + dt/2 * q * (0, g)
+        float half = 0.5f * dt;
+        float a = q0;
+        float b = q1;
+        float c = q2;
+        float d = q3;
+        q0 += half * (-b * gx - c * gy - d * gz);
+        q1 += half * (a * gx + c * gz - d * gy);
+        q2 += half * (a * gy - b * gz + d * gx);
+        q3 += half * (a * gz + b * gy - c * gx);
         
-        // final float rad2deg = (float) (180.0f / Math.PI);
-        yaw = orientation[0]; // * rad2deg;
-        pitch = orientation[1]; // * rad2deg;
-        roll = orientation[2]; // * rad2deg;
+        float norm = norm(q0, q1, q2, q3);
+        q0 /= norm;
+        q1 /= norm;
+        q2 /= norm;
+        q3 /= norm;
+        
+        computeAngles();
+        notifyListeners(timestamp, time);
+    }
+    
+    /*
+     * Seeds the quaternion with the orientation from accelerometer and
+     * magnetometer.
+     */
+    private boolean initialize() {
+        if (!SensorManager.getRotationMatrix(R, I, accel, magnetic)) {
+            return false;
+        }
         
+        float trace = R[0] + R[4] + R[8];
+        if (trace > 0) {
+            float s = 0.5f / (float) Math.sqrt(trace + 1);
+            q0 = 0.25f / s;
+            q1 = (R[7] - R[5]) * s;
+            q2 = (R[2] - R[6]) * s;
+            q3 = (R[3] - R[1]) * s;
+        } else if (R[0] > R[4] && R[0] > R[8]) {
+            float s = 2 * (float) Math.sqrt(1 + R[0] - R[4] - R[8]);
+            q0 = (R[7] - R[5]) / s;
+            q1 = 0.25f * s;
+            q2 = (R[1] + R[3]) / s;
+            q3 = (R[2] + R[6]) / s;
+        } else if (R[4] > R[8]) {
+            float s = 2 * (float) Math.sqrt(1 + R[4] - R[0] - R[8]);
+            q0 = (R[2] - R[6]) / s;
+            q1 = (R[1] + R[3]) / s;
+            q2 = 0.25f * s;
+            q3 = (R[5] + R[7]) / s;
+        } else {
+            float s = 2 * (float) Math.sqrt(1 + R[8] - R[0] - R[4]);
+            q0 = (R[3] - R[1]) / s;
+            q1 = (R[2] + R[6]) / s;
+            q2 = (R[5] + R[7]) / s;
+            q3 = 0.25f * s;
+        }
+        
+        eix = eiy = eiz = 0;
+        freshAccel = freshMagnetic = false;
+        initialized = true;
+        return true;
+    }
+    
+    /*
+     * Same angles as SensorManager.getOrientation on the rotation matrix of q.
+     */
+    private void computeAngles() {
+        float r01 = 2 * (q1 * q2 - q0 * q3);
+        float r11 = 1 - 2 * (q1 * q1 + q3 * q3);
+        float r20 = 2 * (q1 * q3 - q0 * q2);
+        float r21 = 2 * (q2 * q3 + q0 * q1);
+        float r22 = 1 - 2 * (q1 * q1 + q2 * q2);
+        
+        if (r21 > 1) {
+            r21 = 1;
+        } else if (r21 < -1) {
+            r21 = -1;
+        }
+        
+        yaw = (float) Math.atan2(r01, r11);
+        pitch = (float) Math.asin(-r21);
+        roll = (float) Math.atan2(-r20, r22);
+    }
+    
+    private float norm(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+    
+    private float norm(float w, float x, float y, float z) {
+        return (float) Math.sqrt(w * w + x * x + y * y + z * z);
+    }
+    
+    private void notifyListeners(long timestamp, long time) {
         try {
-            listenerMap.get(YAW).update(yaw, event.timestamp);
-            listenerMap.get(PITCH).update(pitch, event.timestamp);
-            listenerMap.get(ROLL).update(roll, event.timestamp);
+            listenerMap.get(YAW).update(yaw, time);
+            listenerMap.get(PITCH).update(pitch, time);
+            listenerMap.get(ROLL).update(roll, time);
+            
+            long step = timestamp - rateStepTime;
+            if (hasRateStep && step >= MIN_RATE_STEP) {
+                float seconds = step * NS2S;
+                listenerMap.get(YAW_RATE).update(
+                        unwrap(yaw - rateStepYaw) / seconds, time);
+                listenerMap.get(PITCH_RATE).update(
+                        unwrap(pitch - rateStepPitch) / seconds, time);
+                listenerMap.get(ROLL_RATE).update(
+                        unwrap(roll - rateStepRoll) / seconds, time);
+            } else if (hasRateStep && step >= 0) {
+                return;
+            }
         } catch (ConnectionLostException e) {}
         
+        // start the next rate step (or restart after the sensor clock jumped
+        // back)
+        hasRateStep = true;
+        rateStepTime = timestamp;
+        rateStepYaw = yaw;
+        rateStepPitch = pitch;
+        rateStepRoll = roll;
+    }
+    
+    private float unwrap(float step) {
+        if (step > Math.PI) {
+            return step - TWO_PI;
+        } else if (step < -Math.PI) {
+            return step + TWO_PI;
+        }
+        return step;
     }
 }
@@ -0,0 +1,33 @@
+package com.barbermot.pilot.signal;
+
+/**
+ * PacedTask runs a task at most once per interval. It is scheduled at the
+ * short fixed period TICK, so its interval can change at any time without
+ * cancelling the future the flight thread waits on.
+ */
+class PacedTask implements Runnable {
+    
+    public static final int TICK = 10;
+    
+    private final Runnable  task;
+    private volatile int    interval;
+    private long            last;
+    
+    public PacedTask(Runnable task, int interval) {
+        this.task = task;
+        this.interval = interval;
+    }
+    
+    public void setInterval(int interval) {
+        this.interval = interval;
+    }
+    
+    @Override
+    public void run() {
+        long time = Clock.nanoTime();
+        if (time - last >= Clock.nanos(interval)) {
+            last = time;
+            task.run();
+        }
+    }
+}
@@ -6,9 +6,15 @@ import ioio.lib.api.PulseInput.PulseMode;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.util.concurrent.TimeoutException;
+
 import org.apache.log4j.Logger;
 
-class PulseSignal extends IoioSignal {
+/**
+ * PulseSignal samples the width of the pulses on a pin in microseconds. The
+ * pulse input is opened once and stays open, so each read only fetches the
+ * latest width captured by the IOIO.
+ */
+public class PulseSignal extends IoioSignal {
     
     public final Logger  logger  = Logger.getLogger("IoioSignal");
     public final float   TIMEOUT = 0.2f;
@@ -19,29 +25,25 @@ class PulseSignal extends IoioSignal {
     public PulseSignal(IOIO ioio, int pin) throws ConnectionLostException {
         super(ioio);
         this.pin = pin;
+        pulse = ioio.openPulseInput(pin, PulseMode.POSITIVE);
     }
     
     protected long measure() throws ConnectionLostException,
             MeasurementException {
-        pulse = ioio.openPulseInput(pin, PulseMode.POSITIVE);
-        long measurement = 0;
-        try {
-            while (true) {
-                try {
-                    measurement = (long) (pulse.getDuration(TIMEOUT) * 1000000);
-                    break;
-                } catch (InterruptedException e) {
-                    /* retry */
-                } catch (TimeoutException e) {
-                    logger.info("Read on " + pin + " timed out.");
-                    throw new MeasurementException(e);
-                }
-            }
-        } finally {
-            if (pulse != null) {
-                pulse.close();
+        while (true) {
+            try {
+                return (long) (pulse.getDuration(TIMEOUT) * 1000000);
+            } catch (InterruptedException e) {
+                /* retry */
+            } catch (TimeoutException e) {
+                logger.info("Read on " + pin + " timed out.");
+                throw new MeasurementException(e);
             }
         }
-        return measurement;
+    }
+    
+    @Override
+    public void abort() {
+        pulse.close();
     }
 }
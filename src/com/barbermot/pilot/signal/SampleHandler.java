@@ -0,0 +1,9 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+public interface SampleHandler {
+    
+    void handle(float value, long time, int signalId)
+            throws ConnectionLostException;
+}
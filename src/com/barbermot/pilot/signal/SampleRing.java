@@ -0,0 +1,106 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SampleRing is a bounded lock-free ring of primitive (value, time, signal id)
+ * slots. It is written by exactly one producer thread (a sensor callback or a
+ * scheduled measurement) and drained by exactly one consumer thread (the
+ * control loop). Slots are preallocated; publishing and draining don't
+ * allocate.
+ * 
+ * When the consumer falls behind and the ring is full, new samples are dropped
+ * and counted rather than blocking the producer.
+ */
+public class SampleRing {
+    
+    private final float[]    values;
+    private final long[]     times;
+    private final int[]      ids;
+    private final int        capacity;
+    private final int        mask;
+    
+    // next slot to be written, only advanced by the producer
+    private final AtomicLong head;
+    
+    // next slot to be read, only advanced by the consumer
+    private final AtomicLong tail;
+    
+    // producer's last view of the tail
+    private long             cachedTail;
+    
+    private volatile long    dropped;
+    
+    public SampleRing(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        this.capacity = size;
+        this.mask = size - 1;
+        this.values = new float[size];
+        this.times = new long[size];
+        this.ids = new int[size];
+        this.head = new AtomicLong();
+        this.tail = new AtomicLong();
+    }
+    
+    /**
+     * publish appends a sample. Must only be called from the producer thread.
+     * 
+     * @return false if the ring was full and the sample was dropped
+     */
+    public boolean publish(float value, long time, int signalId) {
+        long h = head.get();
+        if (h - cachedTail >= capacity) {
+            cachedTail = tail.get();
+            if (h - cachedTail >= capacity) {
+                dropped++;
+                return false;
+            }
+        }
+        
+        int i = (int) (h & mask);
+        values[i] = value;
+        times[i] = time;
+        ids[i] = signalId;
+        head.lazySet(h + 1);
+        return true;
+    }
+    
+    /**
+     * drain hands all samples published so far to the handler, oldest first.
+     * Must only be called from the consumer thread.
+     * 
+     * @return Number of samples handled
+     * @throws ConnectionLostException
+     */
+    public int drain(SampleHandler handler) throws ConnectionLostException {
+        long start = tail.get();
+        long h = head.get();
+        long t = start;
+        try {
+            while (t < h) {
+                int i = (int) (t & mask);
+                float value = values[i];
+                long time = times[i];
+                int id = ids[i];
+                t++;
+                handler.handle(value, time, id);
+            }
+        } finally {
+            tail.lazySet(t);
+        }
+        return (int) (t - start);
+    }
+    
+    public int size() {
+        return (int) (head.get() - tail.get());
+    }
+    
+    public long getDropped() {
+        return dropped;
+    }
+}
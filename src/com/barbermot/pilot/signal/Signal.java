@@ -2,31 +2,93 @@ package com.barbermot.pilot.signal;
 
 import ioio.lib.api.exception.ConnectionLostException;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.log4j.Logger;
 
+import com.barbermot.pilot.logger.TraceRing;
+
+/**
+ * Signal distributes samples to its listeners. Listeners are kept in a copy on
+ * write array and every sample is traced in binary (time, value, signal id)
+ * into a shared TraceRing, so dispatching a sample doesn't allocate.
+ * 
+ */
 public class Signal {
     
-    protected static Logger         logger = Logger.getLogger("Signal");
-    protected Queue<SignalListener> listeners;
+    public static final int             TRACE_RECORD_SIZE = 16;
+    private static final int            TRACE_CAPACITY    = 1 << 14;
+    
+    protected static Logger             logger            = Logger.getLogger("Signal");
+    private static final TraceRing      trace             = new TraceRing(
+                                                                  TRACE_RECORD_SIZE,
+                                                                  TRACE_CAPACITY);
+    private static final AtomicInteger  ids               = new AtomicInteger();
+    
+    protected final int                 id;
+    private final boolean               traced;
+    protected volatile SignalListener[] listeners;
+    private volatile long               failures;
     
     public Signal() {
+        this(true);
+    }
+    
+    /**
+     * @param traced
+     *            false for signals that only re-emit samples already traced
+     *            by their source
+     */
+    public Signal(boolean traced) {
         super();
-        listeners = new ConcurrentLinkedQueue<SignalListener>();
+        this.traced = traced;
+        listeners = new SignalListener[0];
+        id = ids.getAndIncrement();
+        logger.debug("signal " + id + ": " + getClass().getSimpleName());
+    }
+    
+    public static TraceRing getTrace() {
+        return trace;
     }
     
-    public void registerListener(SignalListener listener) {
-        listeners.add(listener);
+    public int getId() {
+        return id;
+    }
+    
+    public synchronized void registerListener(SignalListener listener) {
+        SignalListener[] next = new SignalListener[listeners.length + 1];
+        System.arraycopy(listeners, 0, next, 0, listeners.length);
+        next[listeners.length] = listener;
+        listeners = next;
     }
     
     public void notifyListeners(float value, long time)
             throws ConnectionLostException {
-        logger.info(String.format("%d\t%f", time, value));
-        for (SignalListener l : listeners) {
-            l.update(value, time);
+        if (traced) {
+            long record = trace.claim();
+            int offset = trace.offset(record);
+            trace.putLong(offset, time);
+            trace.putFloat(offset + 8, value);
+            trace.putInt(offset + 12, id);
+            trace.commit(record);
         }
+        
+        SignalListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].update(value, time);
+        }
+    }
+    
+    /**
+     * notifyFailure counts a measurement that didn't produce a sample. Only the
+     * thread producing the samples may call it.
+     */
+    protected void notifyFailure() {
+        failures++;
+    }
+    
+    public long getFailures() {
+        return failures;
     }
     
     public void abort() {}
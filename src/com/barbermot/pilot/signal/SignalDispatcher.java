@@ -0,0 +1,143 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import java.util.Arrays;
+
+/**
+ * SignalDispatcher moves samples from the sensor threads to the control loop.
+ * Every decoupled signal publishes into a SampleRing on its producer thread;
+ * the control loop calls drain once per tick and the samples are re-emitted on
+ * that thread by a proxy signal. Listeners registered with the proxy (PID
+ * controls, flight computer updates) therefore all run on a single thread.
+ * Samples are traced once, by the source; the proxies don't trace.
+ * 
+ */
+public class SignalDispatcher implements SampleHandler {
+    
+    private int                     capacity;
+    private volatile SampleRing[]   rings;
+    private volatile Signal[]       outputs;
+    private volatile TickListener[] tickListeners;
+    
+    private class Port implements SignalListener {
+        
+        private SampleRing ring;
+        private int        id;
+        
+        Port(SampleRing ring, int id) {
+            this.ring = ring;
+            this.id = id;
+        }
+        
+        @Override
+        public void update(float value, long time) {
+            ring.publish(value, time, id);
+        }
+    }
+    
+    /**
+     * @param capacity
+     *            Number of slots of each ring
+     */
+    public SignalDispatcher(int capacity) {
+        this.capacity = capacity;
+        this.rings = new SampleRing[0];
+        this.outputs = new Signal[0];
+        this.tickListeners = new TickListener[0];
+    }
+    
+    /**
+     * createRing allocates a ring for a single producer. Signals that are
+     * produced on the same thread (e.g. yaw, pitch and roll) can share a ring,
+     * which keeps their samples in order.
+     */
+    public synchronized SampleRing createRing() {
+        SampleRing ring = new SampleRing(capacity);
+        rings = Arrays.copyOf(rings, rings.length + 1);
+        rings[rings.length - 1] = ring;
+        return ring;
+    }
+    
+    /**
+     * decouple returns a signal that emits the samples of source on the thread
+     * calling drain.
+     * 
+     * @param source
+     *            Signal driven by a sensor thread
+     * @param ring
+     *            Ring owned by the thread producing source
+     * @return Signal driven by the control loop
+     */
+    public synchronized Signal decouple(Signal source, SampleRing ring) {
+        Signal output = new Signal(false);
+        int id = source.getId();
+        if (id >= outputs.length) {
+            outputs = Arrays.copyOf(outputs, id + 1);
+        }
+        outputs[id] = output;
+        source.registerListener(new Port(ring, id));
+        return output;
+    }
+    
+    public Signal decouple(Signal source) {
+        return decouple(source, createRing());
+    }
+    
+    /**
+     * addTickListener registers a task that runs on the control loop after
+     * every drain (e.g. estimators publishing at control rate).
+     */
+    public synchronized void addTickListener(TickListener listener) {
+        tickListeners = Arrays.copyOf(tickListeners, tickListeners.length + 1);
+        tickListeners[tickListeners.length - 1] = listener;
+    }
+    
+    /**
+     * drain emits all pending samples. Must only be called from the control
+     * loop.
+     * 
+     * @return Number of samples emitted
+     * @throws ConnectionLostException
+     */
+    public int drain() throws ConnectionLostException {
+        SampleRing[] current = rings;
+        int count = 0;
+        for (int i = 0; i < current.length; i++) {
+            count += current[i].drain(this);
+        }
+        return count;
+    }
+    
+    /**
+     * dispatch drains all pending samples and then runs the tick listeners.
+     * Must only be called from the control loop.
+     * 
+     * @param time
+     *            Time of the current control tick
+     * @throws ConnectionLostException
+     */
+    public void dispatch(long time) throws ConnectionLostException {
+        drain();
+        
+        TickListener[] current = tickListeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].tick(time);
+        }
+    }
+    
+    @Override
+    public void handle(float value, long time, int signalId)
+            throws ConnectionLostException {
+        outputs[signalId].notifyListeners(value, time);
+    }
+    
+    public long getDropped() {
+        SampleRing[] current = rings;
+        long dropped = 0;
+        for (int i = 0; i < current.length; i++) {
+            dropped += current[i].getDropped();
+        }
+        return dropped;
+    }
+}
@@ -0,0 +1,8 @@
+package com.barbermot.pilot.signal;
+
+/**
+ * Groups of signals that share one sampling rate.
+ */
+public enum SignalGroup {
+    ULTRASOUND, ORIENTATION, GPS, BAROMETER
+}
@@ -0,0 +1,149 @@
+package com.barbermot.pilot.signal;
+
+import java.util.Arrays;
+
+/**
+ * SignalHealth watches the samples of one signal: how many arrived, the
+ * effective rate, percentiles of the time between samples, the longest gap
+ * and how many measurements of the source failed.
+ * 
+ * It works on the origin time stamps of the samples, so it can listen on the
+ * control loop side of the dispatcher and still see the sensor's timing.
+ * Samples must come from one thread; the statistics can be read from any
+ * thread. Rate and percentiles are refreshed every WINDOW samples.
+ */
+public class SignalHealth implements SignalListener {
+    
+    public static final int WINDOW = 32;
+    
+    private final String    name;
+    private final Signal    source;
+    private final long[]    intervals;
+    private final long[]    sorted;
+    private int             next;
+    private long            windowStart;
+    
+    private volatile long   count;
+    private volatile long   lastTime;
+    private volatile long   longestGap;
+    private volatile float  rate;
+    private volatile long   median;
+    private volatile long   p90;
+    private volatile long   p99;
+    
+    /**
+     * @param name
+     *            Name to report the signal under
+     * @param source
+     *            Signal producing the samples, it counts the failed
+     *            measurements
+     */
+    public SignalHealth(String name, Signal source) {
+        this.name = name;
+        this.source = source;
+        intervals = new long[WINDOW];
+        sorted = new long[WINDOW];
+    }
+    
+    @Override
+    public void update(float value, long time) {
+        if (count == 0) {
+            windowStart = time;
+        } else {
+            long interval = time - lastTime;
+            if (interval > longestGap) {
+                longestGap = interval;
+            }
+            intervals[next++] = interval;
+            if (next == WINDOW) {
+                next = 0;
+                summarize(time);
+            }
+        }
+        lastTime = time;
+        count++;
+    }
+    
+    private void summarize(long time) {
+        System.arraycopy(intervals, 0, sorted, 0, WINDOW);
+        Arrays.sort(sorted);
+        median = sorted[WINDOW / 2];
+        p90 = sorted[WINDOW * 9 / 10];
+        p99 = sorted[WINDOW * 99 / 100];
+        if (time > windowStart) {
+            rate = (float) WINDOW * Clock.NANOS_PER_SECOND
+                    / (time - windowStart);
+        }
+        windowStart = time;
+    }
+    
+    /**
+     * @return true if a sample arrived less than timeout ns before time
+     */
+    public boolean isAlive(long time, long timeout) {
+        return count > 0 && (time - lastTime) < timeout;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public long getLastTime() {
+        return lastTime;
+    }
+    
+    /**
+     * @return Longest time between two samples in ns
+     */
+    public long getLongestGap() {
+        return longestGap;
+    }
+    
+    /**
+     * @return Samples per second
+     */
+    public float getRate() {
+        return rate;
+    }
+    
+    /**
+     * @return Median time between samples in ns
+     */
+    public long getMedian() {
+        return median;
+    }
+    
+    public long getP90() {
+        return p90;
+    }
+    
+    public long getP99() {
+        return p99;
+    }
+    
+    /**
+     * @return Spread of the time between samples (p99 - median) in ns
+     */
+    public long getJitter() {
+        return p99 - median;
+    }
+    
+    public long getFailures() {
+        return source.getFailures();
+    }
+    
+    /**
+     * @return All statistics, times in ms
+     */
+    @Override
+    public String toString() {
+        return String.format(
+                "%s\tn: %d\thz: %.1f\tp50: %.1f\tp90: %.1f\tp99: %.1f\tgap: %.1f\tfail: %d",
+                name, count, rate, median / 1e6f, p90 / 1e6f, p99 / 1e6f,
+                longestGap / 1e6f, getFailures());
+    }
+}
@@ -19,6 +19,17 @@ public interface SignalManager {
     
     public abstract Signal getRollSignal(int interval);
     
+    /**
+     * The rate signals publish the rate of change (radians per second) of
+     * yaw, pitch and roll. They share the sensors with the angle signals.
+     */
+    public abstract Signal getYawRateSignal(int interval)
+            throws ConnectionLostException;
+    
+    public abstract Signal getPitchRateSignal(int interval);
+    
+    public abstract Signal getRollRateSignal(int interval);
+    
     public abstract Signal getUltraSoundSignal(int interval, int pin)
             throws ConnectionLostException;
     
@@ -28,6 +39,17 @@ public interface SignalManager {
     
     public abstract Signal getGpsLatitudeSignal(int interval);
     
+    public abstract Signal getBarometerSignal(int interval);
+    
+    public abstract Signal getPulseSignal(int interval, int pin)
+            throws ConnectionLostException;
+    
+    /**
+     * Changes the sampling interval (ms) of a group of signals. Signals that
+     * have not been created yet are not affected.
+     */
+    public abstract void setInterval(SignalGroup group, int interval);
+    
     void setScheduler(ScheduledExecutorService scheduler);
     
 }
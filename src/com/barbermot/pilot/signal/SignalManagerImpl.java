@@ -1,19 +1,25 @@
 package com.barbermot.pilot.signal;
 
+import static com.barbermot.pilot.signal.SignalManagerImpl.Type.BAROMETER_HEIGHT;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.GPS_HEIGHT;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.GPS_LAT;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.GPS_LON;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_PITCH;
+import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_PITCH_RATE;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_ROLL;
+import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_ROLL_RATE;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_YAW;
+import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ORIENTATION_YAW_RATE;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.ULTRASOUND_HEIGHT;
 import static com.barbermot.pilot.signal.SignalManagerImpl.Type.values;
 import ioio.lib.api.IOIO;
 import ioio.lib.api.exception.ConnectionLostException;
 
 import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -22,21 +28,30 @@ import org.apache.log4j.Logger;
 
 import android.hardware.SensorManager;
 import android.location.LocationManager;
+import android.os.Handler;
+import android.os.HandlerThread;
 
 class SignalManagerImpl implements SignalManager {
     
     private static final Logger        logger = Logger.getLogger("SignalManager");
     protected ScheduledExecutorService scheduler;
     protected EnumMap<Type, Signal>    signalMap;
+    protected Map<Integer, Signal>     pulseMap;
     private SensorManager              sensorManager;
     private LocationManager            locationManager;
     private OrientationSignal          orientation;
     private GpsSignal                  gps;
+    private BarometerSignal            barometer;
+    private PacedTask                  ultrasound;
     private IOIO                       ioio;
     protected List<Future<?>>          futures;
     
+    // receives the phone sensor events and re-registers the listeners
+    private HandlerThread              sensorThread;
+    private Handler                    sensorHandler;
+    
     protected enum Type {
-        ORIENTATION_YAW, ORIENTATION_PITCH, ORIENTATION_ROLL, ULTRASOUND_HEIGHT, GPS_HEIGHT, GPS_LAT, GPS_LON
+        ORIENTATION_YAW, ORIENTATION_PITCH, ORIENTATION_ROLL, ORIENTATION_YAW_RATE, ORIENTATION_PITCH_RATE, ORIENTATION_ROLL_RATE, ULTRASOUND_HEIGHT, GPS_HEIGHT, GPS_LAT, GPS_LON, BAROMETER_HEIGHT
     };
     
     public SignalManagerImpl(IOIO ioio, SensorManager sensorManager,
@@ -46,6 +61,11 @@ class SignalManagerImpl implements SignalManager {
         this.ioio = ioio;
         this.futures = new LinkedList<Future<?>>();
         signalMap = new EnumMap<Type, Signal>(Type.class);
+        pulseMap = new HashMap<Integer, Signal>();
+        
+        sensorThread = new HandlerThread("Sensors");
+        sensorThread.start();
+        sensorHandler = new Handler(sensorThread.getLooper());
     }
     
     @Override
@@ -70,12 +90,22 @@ class SignalManagerImpl implements SignalManager {
             gps.abort();
         }
         
+        if (barometer != null) {
+            barometer.abort();
+        }
+        
         for (Type t : values()) {
             Signal s = signalMap.get(t);
             if (null != s) {
                 s.abort();
             }
         }
+        
+        for (Signal s : pulseMap.values()) {
+            s.abort();
+        }
+        
+        sensorThread.quit();
     }
     
     /*
@@ -127,6 +157,45 @@ class SignalManagerImpl implements SignalManager {
         return signalMap.get(ORIENTATION_ROLL);
     }
     
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.barbermot.pilot.signal.SignalManager#getYawRateSignal(int)
+     */
+    @Override
+    public Signal getYawRateSignal(int interval) {
+        if (!signalMap.containsKey(ORIENTATION_YAW_RATE)) {
+            createOrientationSignals(interval);
+        }
+        return signalMap.get(ORIENTATION_YAW_RATE);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.barbermot.pilot.signal.SignalManager#getPitchRateSignal(int)
+     */
+    @Override
+    public Signal getPitchRateSignal(int interval) {
+        if (!signalMap.containsKey(ORIENTATION_PITCH_RATE)) {
+            createOrientationSignals(interval);
+        }
+        return signalMap.get(ORIENTATION_PITCH_RATE);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.barbermot.pilot.signal.SignalManager#getRollRateSignal(int)
+     */
+    @Override
+    public Signal getRollRateSignal(int interval) {
+        if (!signalMap.containsKey(ORIENTATION_ROLL_RATE)) {
+            createOrientationSignals(interval);
+        }
+        return signalMap.get(ORIENTATION_ROLL_RATE);
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -140,8 +209,9 @@ class SignalManagerImpl implements SignalManager {
             logger.info("creating ultrasound signal");
             
             IoioSignal signal = new UltrasoundSignal(ioio, pin);
-            futures.add(scheduler.scheduleWithFixedDelay(signal, 0, interval,
-                    TimeUnit.MILLISECONDS));
+            ultrasound = new PacedTask(signal, interval);
+            futures.add(scheduler.scheduleWithFixedDelay(ultrasound, 0,
+                    PacedTask.TICK, TimeUnit.MILLISECONDS));
             signalMap.put(ULTRASOUND_HEIGHT, signal);
         }
         return signalMap.get(ULTRASOUND_HEIGHT);
@@ -176,6 +246,83 @@ class SignalManagerImpl implements SignalManager {
         return signalMap.get(GPS_LAT);
     }
     
+    @Override
+    public Signal getBarometerSignal(int interval) {
+        if (!signalMap.containsKey(BAROMETER_HEIGHT)) {
+            logger.info("creating barometer signal");
+            
+            SensorAdapter height = new SensorAdapter();
+            barometer = new BarometerSignal(sensorManager, sensorHandler,
+                    height, interval);
+            signalMap.put(BAROMETER_HEIGHT, height);
+        }
+        return signalMap.get(BAROMETER_HEIGHT);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see com.barbermot.pilot.signal.SignalManager#getPulseSignal(int, int)
+     */
+    @Override
+    public Signal getPulseSignal(int interval, int pin)
+            throws ConnectionLostException {
+        if (!pulseMap.containsKey(pin)) {
+            logger.info("creating pulse signal on pin " + pin);
+            
+            IoioSignal signal = new PulseSignal(ioio, pin);
+            futures.add(scheduler.scheduleWithFixedDelay(signal, 0, interval,
+                    TimeUnit.MILLISECONDS));
+            pulseMap.put(pin, signal);
+        }
+        return pulseMap.get(pin);
+    }
+    
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * com.barbermot.pilot.signal.SignalManager#setInterval(com.barbermot.pilot
+     * .signal.SignalGroup, int)
+     */
+    @Override
+    public void setInterval(SignalGroup group, final int interval) {
+        logger.info("sampling " + group + " every " + interval + " ms");
+        
+        switch (group) {
+            case ULTRASOUND:
+                if (ultrasound != null) {
+                    ultrasound.setInterval(interval);
+                }
+                break;
+            case ORIENTATION:
+                if (orientation != null) {
+                    sensorHandler.post(new Runnable() {
+                        
+                        public void run() {
+                            orientation.setInterval(interval);
+                        }
+                    });
+                }
+                break;
+            case GPS:
+                if (gps != null) {
+                    gps.setInterval(interval);
+                }
+                break;
+            case BAROMETER:
+                if (barometer != null) {
+                    sensorHandler.post(new Runnable() {
+                        
+                        public void run() {
+                            barometer.setInterval(interval);
+                        }
+                    });
+                }
+                break;
+        }
+    }
+    
     protected void createGpsSignals(int interval) {
         logger.info("creating gps signal");
         
@@ -196,9 +343,16 @@ class SignalManagerImpl implements SignalManager {
         SensorAdapter yaw = new SensorAdapter();
         SensorAdapter pitch = new SensorAdapter();
         SensorAdapter roll = new SensorAdapter();
-        orientation = new OrientationSignal(sensorManager, yaw, roll, pitch);
+        SensorAdapter yawRate = new SensorAdapter();
+        SensorAdapter pitchRate = new SensorAdapter();
+        SensorAdapter rollRate = new SensorAdapter();
+        orientation = new OrientationSignal(sensorManager, sensorHandler,
+                yaw, roll, pitch, yawRate, rollRate, pitchRate);
         signalMap.put(ORIENTATION_YAW, yaw);
         signalMap.put(ORIENTATION_ROLL, roll);
         signalMap.put(ORIENTATION_PITCH, pitch);
+        signalMap.put(ORIENTATION_YAW_RATE, yawRate);
+        signalMap.put(ORIENTATION_ROLL_RATE, rollRate);
+        signalMap.put(ORIENTATION_PITCH_RATE, pitchRate);
     }
 }
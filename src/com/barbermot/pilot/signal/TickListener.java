@@ -0,0 +1,13 @@
+package com.barbermot.pilot.signal;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+/**
+ * TickListener is run by the SignalDispatcher once per control tick, after all
+ * pending samples have been emitted.
+ * 
+ */
+public interface TickListener {
+    
+    void tick(long time) throws ConnectionLostException;
+}
@@ -0,0 +1,58 @@
+package com.barbermot.pilot.signal.filter;
+
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * AngularRate turns an angle signal (radians) into its rate of change in
+ * radians per second. Steps across +/-PI are unwrapped. The rate is
+ * differenced over the sample times, so it is only as good as their spacing:
+ * samples closer than MIN_DELTA to the start of the step are not published,
+ * they extend the step instead. Signals of the phone sensors publish their
+ * rates themselves (SignalManager.getYawRateSignal and friends).
+ */
+public class AngularRate extends SignalFilter {
+    
+    private static final float TWO_PI    = (float) (2 * Math.PI);
+    
+    // shortest step (ns) a rate is computed over
+    private static final long  MIN_DELTA = 2000000L;
+    
+    private float              lastAngle;
+    private long               lastTime;
+    private boolean            isFirst;
+    
+    public AngularRate() {
+        isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (isFirst) {
+            isFirst = false;
+            lastAngle = value;
+            lastTime = time;
+            return false;
+        }
+        
+        long delta = time - lastTime;
+        if (delta < 0) {
+            lastAngle = value;
+            lastTime = time;
+            return false;
+        } else if (delta < MIN_DELTA) {
+            return false;
+        }
+        
+        float step = value - lastAngle;
+        if (step > Math.PI) {
+            step -= TWO_PI;
+        } else if (step < -Math.PI) {
+            step += TWO_PI;
+        }
+        
+        output = step * Clock.NANOS_PER_SECOND / delta;
+        lastAngle = value;
+        lastTime = time;
+        return true;
+    }
+}
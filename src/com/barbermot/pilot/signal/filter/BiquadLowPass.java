@@ -0,0 +1,63 @@
+package com.barbermot.pilot.signal.filter;
+
+/**
+ * BiquadLowPass is a second order low pass filter (RBJ cookbook coefficients,
+ * direct form I). It assumes samples arrive at roughly the given rate.
+ */
+public class BiquadLowPass extends SignalFilter {
+    
+    public static final float BUTTERWORTH = (float) (1 / Math.sqrt(2));
+    
+    private float             b0;
+    private float             b1;
+    private float             b2;
+    private float             a1;
+    private float             a2;
+    private float             x1;
+    private float             x2;
+    private float             y1;
+    private float             y2;
+    private boolean           isFirst;
+    
+    public BiquadLowPass(float cutoff, float sampleRate) {
+        this(cutoff, sampleRate, BUTTERWORTH);
+    }
+    
+    /**
+     * @param cutoff
+     *            Cutoff frequency in Hz
+     * @param sampleRate
+     *            Sample rate of the signal in Hz
+     * @param q
+     *            Quality factor
+     */
+    public BiquadLowPass(float cutoff, float sampleRate, float q) {
+        double w0 = 2 * Math.PI * cutoff / sampleRate;
+        double alpha = Math.sin(w0) / (2 * q);
+        double cos = Math.cos(w0);
+        double a0 = 1 + alpha;
+        
+        b0 = (float) ((1 - cos) / 2 / a0);
+        b1 = (float) ((1 - cos) / a0);
+        b2 = b0;
+        a1 = (float) (-2 * cos / a0);
+        a2 = (float) ((1 - alpha) / a0);
+        isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (isFirst) {
+            // start in steady state
+            isFirst = false;
+            x1 = x2 = y1 = y2 = value;
+        }
+        
+        output = b0 * value + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+        x2 = x1;
+        x1 = value;
+        y2 = y1;
+        y1 = output;
+        return true;
+    }
+}
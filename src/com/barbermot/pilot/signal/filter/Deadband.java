@@ -0,0 +1,25 @@
+package com.barbermot.pilot.signal.filter;
+
+/**
+ * Deadband holds its output until the input moves more than the band away
+ * from it. It keeps sensor jitter from reaching the controls.
+ */
+public class Deadband extends SignalFilter {
+    
+    private float   band;
+    private boolean isFirst;
+    
+    public Deadband(float band) {
+        this.band = band;
+        this.isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (isFirst || Math.abs(value - output) > band) {
+            isFirst = false;
+            output = value;
+        }
+        return true;
+    }
+}
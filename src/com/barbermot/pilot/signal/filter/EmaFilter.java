@@ -0,0 +1,32 @@
+package com.barbermot.pilot.signal.filter;
+
+/**
+ * EmaFilter is an exponential moving average: each sample moves the output
+ * by alpha times the difference.
+ */
+public class EmaFilter extends SignalFilter {
+    
+    private float   alpha;
+    private boolean isFirst;
+    
+    /**
+     * @param alpha
+     *            Weight of the new sample, between 0 (ignore) and 1 (no
+     *            filtering)
+     */
+    public EmaFilter(float alpha) {
+        this.alpha = alpha;
+        this.isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (isFirst) {
+            isFirst = false;
+            output = value;
+        } else {
+            output += alpha * (value - output);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+package com.barbermot.pilot.signal.filter;
+
+/**
+ * MedianFilter outputs the median of the last N samples. It removes single
+ * spikes without smearing them into the following samples.
+ */
+public class MedianFilter extends SignalFilter {
+    
+    private float[] window;
+    private float[] sorted;
+    private int     next;
+    private int     count;
+    
+    public MedianFilter(int size) {
+        window = new float[size];
+        sorted = new float[size];
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        window[next] = value;
+        next = (next + 1) % window.length;
+        if (count < window.length) {
+            ++count;
+        }
+        
+        // insertion sort, the window is small
+        for (int i = 0; i < count; ++i) {
+            float x = window[i];
+            int j = i - 1;
+            while (j >= 0 && sorted[j] > x) {
+                sorted[j + 1] = sorted[j];
+                --j;
+            }
+            sorted[j + 1] = x;
+        }
+        
+        if (count % 2 == 1) {
+            output = sorted[count / 2];
+        } else {
+            output = (sorted[count / 2 - 1] + sorted[count / 2]) / 2;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,48 @@
+package com.barbermot.pilot.signal.filter;
+
+/**
+ * OutlierGate drops samples that jump more than a maximum distance from the
+ * last accepted one. After a number of drops in a row the jump is taken to be
+ * real and the gate accepts the new level.
+ */
+public class OutlierGate extends SignalFilter {
+    
+    private float   maxJump;
+    private int     maxRejects;
+    private int     rejects;
+    private long    rejected;
+    private boolean isFirst;
+    
+    /**
+     * @param maxJump
+     *            Largest accepted difference to the last accepted sample
+     * @param maxRejects
+     *            Number of samples dropped in a row before the gate gives in
+     */
+    public OutlierGate(float maxJump, int maxRejects) {
+        this.maxJump = maxJump;
+        this.maxRejects = maxRejects;
+        this.isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (!isFirst && Math.abs(value - output) > maxJump
+                && rejects < maxRejects) {
+            ++rejects;
+            ++rejected;
+            return false;
+        }
+        isFirst = false;
+        rejects = 0;
+        output = value;
+        return true;
+    }
+    
+    /**
+     * @return Total number of dropped samples
+     */
+    public long getRejected() {
+        return rejected;
+    }
+}
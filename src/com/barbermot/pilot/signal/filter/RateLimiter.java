@@ -0,0 +1,42 @@
+package com.barbermot.pilot.signal.filter;
+
+import com.barbermot.pilot.signal.Clock;
+
+/**
+ * RateLimiter limits how fast the output can change per second.
+ */
+public class RateLimiter extends SignalFilter {
+    
+    private float   maxRate;
+    private long    lastTime;
+    private boolean isFirst;
+    
+    /**
+     * @param maxRate
+     *            Maximum change of the output in units per second
+     */
+    public RateLimiter(float maxRate) {
+        this.maxRate = maxRate;
+        this.isFirst = true;
+    }
+    
+    @Override
+    protected boolean filter(float value, long time) {
+        if (isFirst) {
+            isFirst = false;
+            output = value;
+        } else {
+            float maxDelta = maxRate * (time - lastTime)
+                    / Clock.NANOS_PER_SECOND;
+            float delta = value - output;
+            if (delta > maxDelta) {
+                delta = maxDelta;
+            } else if (delta < -maxDelta) {
+                delta = -maxDelta;
+            }
+            output += delta;
+        }
+        lastTime = time;
+        return true;
+    }
+}
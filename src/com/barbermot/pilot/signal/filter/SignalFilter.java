@@ -0,0 +1,53 @@
+package com.barbermot.pilot.signal.filter;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.barbermot.pilot.signal.Signal;
+import com.barbermot.pilot.signal.SignalListener;
+
+/**
+ * SignalFilter sits between a signal and its listeners. It listens to the
+ * source, and forwards the filtered value (or nothing, if the sample is
+ * rejected) to its own listeners. Filters keep their state in preallocated
+ * fields, so filtering a sample doesn't allocate.
+ * 
+ * A filter keeps per sample state and must only be fed by one thread.
+ */
+public abstract class SignalFilter extends Signal implements SignalListener {
+    
+    protected float output;
+    
+    /**
+     * chain connects the filters in order behind the source.
+     * 
+     * @return The last filter of the chain (or the source if there are no
+     *         filters), for the listeners to register with
+     */
+    public static Signal chain(Signal source, SignalFilter... filters) {
+        Signal last = source;
+        for (SignalFilter filter : filters) {
+            last.registerListener(filter);
+            last = filter;
+        }
+        return last;
+    }
+    
+    @Override
+    public void update(float value, long time) throws ConnectionLostException {
+        if (filter(value, time)) {
+            notifyListeners(output, time);
+        }
+    }
+    
+    /**
+     * Implementation interface for the filters: consume a sample and set
+     * output.
+     * 
+     * @param value
+     *            Current signal value
+     * @param time
+     *            Time of the sample in ns
+     * @return false if the sample is to be dropped
+     */
+    protected abstract boolean filter(float value, long time);
+}
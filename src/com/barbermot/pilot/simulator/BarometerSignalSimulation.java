@@ -0,0 +1,24 @@
+package com.barbermot.pilot.simulator;
+
+import ioio.lib.api.exception.ConnectionLostException;
+
+import com.barbermot.pilot.signal.Signal;
+
+public class BarometerSignalSimulation extends Signal implements Runnable {
+    
+    PhysicsEngine engine;
+    
+    public BarometerSignalSimulation(PhysicsEngine engine) {
+        this.engine = engine;
+    }
+    
+    @Override
+    public void run() {
+        try {
+            super.notifyListeners(engine.getBarometerAltitude(),
+                    engine.getTime());
+        } catch (ConnectionLostException e) {
+            e.printStackTrace();
+        }
+    }
+}
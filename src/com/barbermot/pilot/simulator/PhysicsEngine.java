@@ -7,6 +7,7 @@ import org.apache.log4j.Logger;
 import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.quad.QuadCopter;
 import com.barbermot.pilot.quad.QuadCopterImpl;
+import com.barbermot.pilot.signal.Clock;
 
 public class PhysicsEngine {
     
@@ -37,6 +38,7 @@ public class PhysicsEngine {
     int                  ultrasoundPin;
     private double       deviation            = 0.01;
     private double       gpsDeviation         = 1;
+    private double       barometerDeviation   = 0.3;
     
     class Angle {
         
@@ -201,8 +203,13 @@ public class PhysicsEngine {
         return (float) Math.round(msl + deviation);
     }
     
+    public float getBarometerAltitude() {
+        updateHeight();
+        return (float) (msl + barometerDeviation * normalDistribution());
+    }
+    
     public long getTime() {
-        return System.currentTimeMillis();
+        return Clock.nanoTime();
     }
     
     public synchronized float getYawAngle() {
@@ -9,9 +9,13 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import com.barbermot.pilot.signal.PulseSignal;
 import com.barbermot.pilot.signal.Signal;
+import com.barbermot.pilot.signal.SignalGroup;
 import com.barbermot.pilot.signal.SignalManager;
 import com.barbermot.pilot.signal.UltrasoundSignal;
+import com.barbermot.pilot.signal.filter.AngularRate;
+import com.barbermot.pilot.signal.filter.SignalFilter;
 
 public class SignalManagerSimulation implements SignalManager {
     
@@ -58,6 +62,24 @@ public class SignalManagerSimulation implements SignalManager {
         return roll;
     }
     
+    // the simulated angles are sampled at a fixed rate, differencing them is
+    // as good as it gets
+    @Override
+    public Signal getYawRateSignal(int interval)
+            throws ConnectionLostException {
+        return SignalFilter.chain(getYawSignal(interval), new AngularRate());
+    }
+    
+    @Override
+    public Signal getPitchRateSignal(int interval) {
+        return SignalFilter.chain(getPitchSignal(interval), new AngularRate());
+    }
+    
+    @Override
+    public Signal getRollRateSignal(int interval) {
+        return SignalFilter.chain(getRollSignal(interval), new AngularRate());
+    }
+    
     @Override
     public Signal getUltraSoundSignal(int interval, int pin)
             throws ConnectionLostException {
@@ -94,6 +116,29 @@ public class SignalManagerSimulation implements SignalManager {
         return gps;
     }
     
+    @Override
+    public Signal getBarometerSignal(int interval) {
+        BarometerSignalSimulation barometer = new BarometerSignalSimulation(
+                engine);
+        futures.add(scheduler.scheduleWithFixedDelay(barometer, 0, interval,
+                TimeUnit.MILLISECONDS));
+        return barometer;
+    }
+    
+    @Override
+    public Signal getPulseSignal(int interval, int pin)
+            throws ConnectionLostException {
+        PulseSignal signal = new PulseSignal(ioio, pin);
+        futures.add(scheduler.scheduleWithFixedDelay(signal, 0, interval,
+                TimeUnit.MILLISECONDS));
+        return signal;
+    }
+    
+    @Override
+    public void setInterval(SignalGroup group, int interval) {
+        // simulated signals run at fixed rates
+    }
+    
     @Override
     public void setScheduler(ScheduledExecutorService scheduler) {
         this.scheduler = scheduler;
@@ -12,6 +12,7 @@ import org.apache.log4j.helpers.Loader;
 
 import com.barbermot.pilot.builder.BuildException;
 import com.barbermot.pilot.builder.FlightBuilder;
+import com.barbermot.pilot.flight.ConfigurationException;
 import com.barbermot.pilot.flight.FlightComputer;
 import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.flight.FlightConfiguration.ConnectionType;
@@ -28,7 +29,13 @@ public class Simulation {
         } else {
             PropertyConfigurator.configure(fileName);
         }
-        FlightConfiguration.get().setConnectionType(ConnectionType.UART);
+        try {
+            FlightConfiguration.update(FlightConfiguration.CONNECTION_TYPE,
+                    ConnectionType.UART.name());
+        } catch (ConfigurationException e) {
+            e.printStackTrace();
+            return;
+        }
         PhysicsEngine engine = new PhysicsEngine();
         IOIO ioio = new IOIOSimulation(engine);
         FlightBuilder builder = new FlightBuilder();
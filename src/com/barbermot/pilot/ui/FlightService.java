@@ -1,5 +1,7 @@
 package com.barbermot.pilot.ui;
 
+import java.util.Properties;
+
 import android.app.Notification;
 import android.app.PendingIntent;
 import android.app.Service;
@@ -13,6 +15,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import com.barbermot.pilot.R;
+import com.barbermot.pilot.flight.ConfigurationException;
 import com.barbermot.pilot.flight.FlightConfiguration;
 import com.barbermot.pilot.flight.FlightConfiguration.ConnectionType;
 import com.barbermot.pilot.flight.FlightThread;
@@ -27,10 +30,9 @@ public class FlightService extends Service {
         Log.i(TAG, "starting service");
         Bundle b = intent.getExtras();
         
-        FlightConfiguration
-                .get()
-                .setSimulation(
-                        b.getBoolean(getString(R.string.flight_service_simulation_flag)));
+        Properties settings = new Properties();
+        settings.setProperty(FlightConfiguration.SIMULATION, String.valueOf(b
+                .getBoolean(getString(R.string.flight_service_simulation_flag))));
         
         ConnectionType connectionType = ConnectionType.UART;
         if (b.getString(getString(R.string.flight_service_serial_flag)).equals(
@@ -38,16 +40,27 @@ public class FlightService extends Service {
             connectionType = ConnectionType.TCP;
         }
         
-        FlightConfiguration.get().setConnectionType(connectionType);
-        FlightConfiguration
-                .get()
-                .setSerialUrl(
-                        b.getString(getString(R.string.flight_service_serial_url_flag)));
-        FlightConfiguration.get().setSerialPort(
-                b.getInt(getString(R.string.flight_service_serial_port_flag)));
+        settings.setProperty(FlightConfiguration.CONNECTION_TYPE,
+                connectionType.name());
+        String serialUrl = b
+                .getString(getString(R.string.flight_service_serial_url_flag));
+        if (serialUrl != null) {
+            settings.setProperty(FlightConfiguration.SERIAL_URL, serialUrl);
+        }
+        settings.setProperty(FlightConfiguration.SERIAL_PORT, String.valueOf(b
+                .getInt(getString(R.string.flight_service_serial_port_flag))));
+        
+        settings.setProperty(FlightConfiguration.REMOTE_CONTROL_PORT, String
+                .valueOf(b
+                        .getInt(getString(R.string.flight_service_remote_port_flag))));
         
-        FlightConfiguration.get().setRemoteControlPort(
-                b.getInt(getString(R.string.flight_service_remote_port_flag)));
+        try {
+            FlightConfiguration.update(settings);
+        } catch (ConfigurationException e) {
+            Log.e(TAG, "invalid settings: " + e.getMessage());
+            stopSelf();
+            return START_NOT_STICKY;
+        }
         
         flightThread.start();
         return START_STICKY;